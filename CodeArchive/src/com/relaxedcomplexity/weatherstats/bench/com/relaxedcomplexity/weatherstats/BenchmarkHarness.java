@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * A minimal benchmark harness. Each benchmark is run for a number of 
+ * untimed warmup iterations, so the JIT has compiled the code being 
+ * measured, followed by a number of measured iterations. An optional 
+ * setup step is run before every iteration outside of the timed region.
+ * <p>
+ * For each benchmark the harness reports the throughput in operations and
+ * bytes per second, the time per operation, the bytes allocated per 
+ * operation by all threads, the number and duration of collections during
+ * the measured iterations, and the distribution of iteration times.
+ * <p>
+ * Allocation is read from the counters the JVM keeps for each thread, 
+ * which are lost once a thread ends. It's therefore only reported when 
+ * every thread which could have allocated during an iteration is alive 
+ * both before and after it, as the calling thread and the threads of an
+ * established pool are. A workload which starts threads of its own, or 
+ * whose threads end during an iteration, has no bytes per operation.
+ * <p>
+ * The harness is used rather than JMH so that the benchmarks depend on 
+ * nothing but the JDK, and are compiled with the same plain javac as 
+ * the rest of this project, which has no build file. JMH needs its 
+ * annotation processor and a Maven or Gradle build to generate its 
+ * benchmark classes.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class BenchmarkHarness {
+
+	/**
+	 * Untimed work performed before each iteration
+	 */
+	public interface Setup {
+		void run() throws Exception;
+	}
+	
+	/**
+	 * Timed work performed by each iteration
+	 */
+	public interface Workload {
+		/**
+		 * @return number of operations performed
+		 */
+		long run() throws Exception;
+	}
+	
+	/**
+	 * Measurements of a single benchmark
+	 */
+	public static class Result {
+		private final String name;
+		private final long   opsPerIteration;
+		private final long   bytesPerIteration;
+		private final long[] iterationNanos;
+		private final long   allocatedBytes;
+		private final long   gcCount;
+		private final long   gcMillis;
+		
+		Result(String name, long opsPerIteration, long bytesPerIteration, long[] iterationNanos, 
+				long allocatedBytes, long gcCount, long gcMillis) {
+			this.name = name;
+			this.opsPerIteration = opsPerIteration;
+			this.bytesPerIteration = bytesPerIteration;
+			this.iterationNanos = iterationNanos;
+			this.allocatedBytes = allocatedBytes;
+			this.gcCount = gcCount;
+			this.gcMillis = gcMillis;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		/**
+		 * @return mean operations per second over the measured iterations
+		 */
+		public double getOpsPerSecond() {
+			return opsPerIteration * iterationNanos.length / (totalNanos() / 1e9);
+		}
+		
+		/**
+		 * @return mean megabytes of input per second, or NaN if the 
+		 * 		   benchmark has no input file
+		 */
+		public double getMegabytesPerSecond() {
+			return (bytesPerIteration <= 0) ? Double.NaN 
+					: bytesPerIteration * iterationNanos.length / (totalNanos() / 1e9) / (1 << 20);
+		}
+		
+		public double getNanosPerOp() {
+			return (double) totalNanos() / (opsPerIteration * iterationNanos.length);
+		}
+		
+		/**
+		 * @return bytes allocated per operation, or NaN if the JVM can't 
+		 * 		   measure allocation or a thread started or ended during an
+		 * 		   iteration
+		 */
+		public double getBytesPerOp() {
+			return (allocatedBytes < 0) ? Double.NaN 
+					: (double) allocatedBytes / (opsPerIteration * iterationNanos.length);
+		}
+		
+		public long getGcCount() {
+			return gcCount;
+		}
+		
+		public long getGcMillis() {
+			return gcMillis;
+		}
+		
+		/**
+		 * @param p Percentile in the range 0.0-1.0
+		 * @return iteration time at the percentile, in milliseconds
+		 */
+		public double getIterationMillis(double p) {
+			long[] sorted = iterationNanos.clone();
+			Arrays.sort(sorted);
+			return sorted[(int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)))] / 1e6;
+		}
+		
+		private long totalNanos() {
+			long total = 0;
+			for (long nanos : iterationNanos) {
+				total += nanos;
+			}
+			return Math.max(total, 1);
+		}
+	}
+	
+	private final int warmupIterations;
+	private final int measuredIterations;
+	
+	/**
+	 * Create a harness
+	 * 
+	 * @param warmupIterations Number of untimed iterations of each 
+	 * 		  benchmark
+	 * @param measuredIterations Number of timed iterations of each 
+	 * 		  benchmark
+	 */
+	public BenchmarkHarness(int warmupIterations, int measuredIterations) {
+		// Test preconditions
+		if (warmupIterations < 0 || measuredIterations <= 0) {
+			throw new IllegalArgumentException("Invalid iterations of "+warmupIterations+"/"
+					+measuredIterations+" passed.");
+		}
+		this.warmupIterations = warmupIterations;
+		this.measuredIterations = measuredIterations;
+	}
+	
+	/**
+	 * Run a benchmark and print its result
+	 * 
+	 * @param name Name of the benchmark
+	 * @param bytesPerIteration Size of the input processed by each 
+	 * 		  iteration, or 0 if there is none
+	 * @param setup Work performed before each iteration, or null
+	 * @param workload Work which is measured
+	 * @return measurements of the benchmark
+	 * @throws Exception if the setup or workload fails
+	 */
+	public Result run(String name, long bytesPerIteration, Setup setup, Workload workload) throws Exception {
+		long ops = 0;
+		for (int i = 0; i < warmupIterations; i++) {
+			if (setup != null) {
+				setup.run();
+			}
+			ops = workload.run();
+		}
+		
+		long[] iterationNanos = new long[measuredIterations];
+		long allocated = 0;
+		long gcCount = 0;
+		long gcMillis = 0;
+		for (int i = 0; i < measuredIterations; i++) {
+			if (setup != null) {
+				setup.run();
+			}
+			long startedThreads = startedThreads();
+			long[] threadIds = threadIds();
+			long[] allocStart = allocatedBytes(threadIds);
+			long gcCountStart = gcCount();
+			long gcMillisStart = gcMillis();
+			long start = System.nanoTime();
+			ops = workload.run();
+			iterationNanos[i] = System.nanoTime() - start;
+			long[] allocEnd = allocatedBytes(threadIds);
+			long iterationAllocated = (startedThreads() == startedThreads) 
+					? allocatedBetween(allocStart, allocEnd) : -1;
+			allocated = (iterationAllocated < 0 || allocated < 0) ? -1 : allocated + iterationAllocated;
+			gcCount += gcCount() - gcCountStart;
+			gcMillis += gcMillis() - gcMillisStart;
+		}
+		
+		Result result = new Result(name, Math.max(ops, 1), bytesPerIteration, iterationNanos, 
+				allocated, gcCount, gcMillis);
+		print(result);
+		return result;
+	}
+	
+	/**
+	 * Print the column headings for the results
+	 */
+	public static void printHeader() {
+		System.out.printf("%-34s %13s %9s %10s %10s %5s %7s %9s %9s\n", "Benchmark", "ops/s", "MB/s", 
+				"ns/op", "B/op", "GCs", "GC ms", "p50 ms", "max ms");
+		System.out.printf("%-34s %13s %9s %10s %10s %5s %7s %9s %9s\n", "---------", "-----", "----", 
+				"-----", "----", "---", "-----", "------", "------");
+	}
+	
+	private static void print(Result result) {
+		double megabytes = result.getMegabytesPerSecond();
+		double bytesPerOp = result.getBytesPerOp();
+		System.out.printf("%-34s %,13.0f %9s %,10.1f %10s %5d %7d %,9.2f %,9.2f\n", result.getName(), 
+				result.getOpsPerSecond(), 
+				(megabytes == megabytes) ? String.format("%.1f", megabytes) : "-", 
+				result.getNanosPerOp(), 
+				(bytesPerOp == bytesPerOp) ? String.format("%,.1f", bytesPerOp) : "-", 
+				result.getGcCount(), result.getGcMillis(), 
+				result.getIterationMillis(0.5), result.getIterationMillis(1.0));
+	}
+	
+	/**
+	 * @return allocation counters of the JVM, or null if it can't measure
+	 * 		   allocation
+	 */
+	private static com.sun.management.ThreadMXBean allocationBean() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return null;
+		}
+		com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+		if (!allocation.isThreadAllocatedMemorySupported() || !allocation.isThreadAllocatedMemoryEnabled()) {
+			return null;
+		}
+		return allocation;
+	}
+	
+	/**
+	 * @return number of threads started since the JVM started
+	 */
+	private static long startedThreads() {
+		return ManagementFactory.getThreadMXBean().getTotalStartedThreadCount();
+	}
+	
+	/**
+	 * @return ids of the live threads
+	 */
+	private static long[] threadIds() {
+		return ManagementFactory.getThreadMXBean().getAllThreadIds();
+	}
+	
+	/**
+	 * @param threadIds Ids of the threads
+	 * @return bytes allocated so far by each thread, with -1 for a thread
+	 * 		   which has ended, or null if the JVM can't measure allocation
+	 */
+	private static long[] allocatedBytes(long[] threadIds) {
+		com.sun.management.ThreadMXBean allocation = allocationBean();
+		return (allocation == null) ? null : allocation.getThreadAllocatedBytes(threadIds);
+	}
+	
+	/**
+	 * @param start Bytes allocated by each thread before an iteration
+	 * @param end Bytes allocated by the same threads after it
+	 * @return bytes allocated by the threads during the iteration, or -1
+	 * 		   if it can't be measured because a thread ended
+	 */
+	private static long allocatedBetween(long[] start, long[] end) {
+		if (start == null || end == null) {
+			return -1;
+		}
+		long total = 0;
+		for (int i = 0; i < start.length; i++) {
+			if (start[i] < 0) {
+				continue;		// ended before the iteration began
+			}
+			if (end[i] < 0) {
+				return -1;
+			}
+			total += end[i] - start[i];
+		}
+		return total;
+	}
+	
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(gc.getCollectionCount(), 0);
+		}
+		return count;
+	}
+	
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(gc.getCollectionTime(), 0);
+		}
+		return millis;
+	}
+}
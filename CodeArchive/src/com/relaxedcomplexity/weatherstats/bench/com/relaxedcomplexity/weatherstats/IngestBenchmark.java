@@ -0,0 +1,368 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmarks the stages of the WeatherStats ingest path against a 
+ * synthetic Deep Moor format file. Reading lines, collecting statistics
+ * from them and calculating the final statistics are each measured on 
+ * their own, and then together end to end, both from the file and from a
+ * LocalObservationServer serving it over HTTP. The cost of accumulating 
+ * totals and of the column kernels is also measured against the simple 
+ * loops they replace.
+ * <p>
+ * The latency of collectStats is measured separately by timing batches of
+ * lines, since timing each line individually would mostly measure the 
+ * clock.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class IngestBenchmark {
+
+	private static final long DEFAULTLINES = 1000000;
+	private static final int  WARMUPS = 3;
+	private static final int  ITERATIONS = 5;
+	private static final int  LATENCYBATCH = 256;
+	
+	// Minimum number of values processed by each iteration of the column
+	// benchmarks, so that an iteration is long enough to time reliably
+	private static final int  MINCOLUMNOPS = 1 << 24;
+	
+	private final Path             path;
+	private final long             fileSize;
+	private final BenchmarkHarness harness;
+	private String[]               lines;
+	private WeatherStats           weatherStats;
+	
+	// Results are stored here so the JIT can't eliminate the work
+	private Object                 sink;
+	
+	/**
+	 * Create a benchmark of a file
+	 * 
+	 * @param path Path of a Deep Moor format file
+	 * @param harness Harness used to run each benchmark
+	 * @throws Exception if the file can't be read
+	 */
+	public IngestBenchmark(Path path, BenchmarkHarness harness) throws Exception {
+		this.path = path;
+		this.fileSize = Files.size(path);
+		this.harness = harness;
+	}
+	
+	/**
+	 * Run every benchmark, printing a line for each
+	 * 
+	 * @throws Exception if a benchmark fails
+	 */
+	public void runAll() throws Exception {
+		lines = loadLines();
+		BenchmarkHarness.printHeader();
+		
+		// Each stage on its own
+		harness.run("readLine", fileSize, null, this::readLines);
+		harness.run("collectStats", 0, this::newEngine, () -> collect(weatherStats));
+		harness.run("collectStats estimate", 0, this::newEstimatingEngine, () -> collect(weatherStats));
+		harness.run("calculateStats", 0, this::collectedEngine, () -> { 
+			weatherStats.calculateStats(); 
+			return lines.length;
+		});
+		
+		// End to end
+		harness.run("end to end", fileSize, null, () -> processFile(false, false));
+		harness.run("end to end with metrics", fileSize, null, () -> processFile(false, false, new IngestMetrics()));
+		harness.run("end to end estimate", fileSize, null, () -> processFile(false, true));
+		harness.run("end to end parallel", fileSize, null, () -> processFile(true, false));
+		try (LocalObservationServer server = new LocalObservationServer(path, 0, false)) {
+			String url = server.getURL().toString();
+			harness.run("http fetch only", fileSize, null, () -> fetch(url));
+			harness.run("end to end http", fileSize, null, () -> processURL(url, false));
+			harness.run("end to end http pipelined", fileSize, null, () -> processURL(url, true));
+		}
+		
+		// Accumulation and column kernels
+		FloatColumn column = airTemps();
+		int repeats = Math.max(1, MINCOLUMNOPS / Math.max(column.size(), 1));
+		harness.run("sum float", 0, null, () -> repeat(repeats, () -> sumFloat(column)));
+		harness.run("sum double", 0, null, () -> repeat(repeats, () -> sumDouble(column)));
+		harness.run("sum compensated", 0, null, () -> repeat(repeats, () -> sumCompensated(column)));
+		harness.run("sum ColumnKernels", 0, null, () -> repeat(repeats, () -> {
+			sink = ColumnKernels.sum(column.array(), 0, column.size());
+			return column.size();
+		}));
+		harness.run("mean/min/max/var scalar", 0, null, () -> repeat(repeats, () -> summarizeScalar(column)));
+		harness.run("mean/min/max/var ColumnKernels", 0, null, () -> repeat(repeats, () -> {
+			sink = ColumnKernels.summarize(column.array(), 0, column.size());
+			return column.size();
+		}));
+		
+		// Queries over a loaded table, where the selective query lets the 
+		// zone maps skip most blocks
+		ObservationTable table = ObservationTable.load(path.toString(), Schema.DEEPMOOR);
+		harness.run("query all lines", 0, null, () -> query(table, table.query()
+				.aggregate(Query.Aggregate.MEDIAN, "Wind_Speed")));
+		harness.run("query selective", 0, null, () -> query(table, table.query().where("Air_Temp", ">", 95)
+				.groupBy(WindowedAggregator.DAY).aggregate(Query.Aggregate.MEDIAN, "Wind_Speed")));
+		
+		printCollectLatency();
+	}
+	
+	/**
+	 * Read the sample lines into memory, so that collectStats can be 
+	 * measured without the cost of reading them
+	 */
+	private String[] loadLines() throws Exception {
+		List<String> loaded = new ArrayList<>();
+		try (MappedLineReader reader = new MappedLineReader(path)) {
+			reader.readLine();		// the header line
+			CharSequence line = null;
+			while ((line = reader.readLine()) != null) {
+				loaded.add(line.toString());
+			}
+		}
+		return loaded.toArray(new String[loaded.size()]);
+	}
+	
+	private long readLines() throws Exception {
+		long count = 0;
+		int chars = 0;
+		try (MappedLineReader reader = new MappedLineReader(path)) {
+			CharSequence line = null;
+			while ((line = reader.readLine()) != null) {
+				chars += line.length();
+				count++;
+			}
+		}
+		sink = chars;
+		return count;
+	}
+	
+	private void newEngine() {
+		weatherStats = new WeatherStats();
+	}
+	
+	private void newEstimatingEngine() {
+		weatherStats = new WeatherStats();
+		weatherStats.setEstimateMode(true);
+	}
+	
+	private void collectedEngine() {
+		newEngine();
+		collect(weatherStats);
+	}
+	
+	private long collect(WeatherStats engine) {
+		for (String line : lines) {
+			engine.collectStats(line);
+		}
+		return lines.length;
+	}
+	
+	private long processFile(boolean parallel, boolean estimate) {
+		return processFile(parallel, estimate, null);
+	}
+	
+	private long processFile(boolean parallel, boolean estimate, IngestMetrics metrics) {
+		WeatherStats engine = new WeatherStats();
+		engine.setEstimateMode(estimate);
+		engine.setMetrics(metrics);
+		engine.process(path.toString(), parallel);
+		engine.calculateStats();
+		sink = engine;
+		return engine.getLineCount();
+	}
+	
+	private long fetch(String url) throws Exception {
+		byte[] buf = new byte[65536];
+		long bytes = 0;
+		try (InputStream body = AsyncFetcher.fetch(new URL(url)).get().getBody()) {
+			int len;
+			while ((len = body.read(buf)) >= 0) {
+				bytes += len;
+			}
+		}
+		sink = bytes;
+		return lines.length;
+	}
+	
+	private long processURL(String url, boolean parallel) {
+		WeatherStats engine = new WeatherStats();
+		engine.process(url, parallel);
+		engine.calculateStats();
+		sink = engine;
+		return engine.getLineCount();
+	}
+	
+	/**
+	 * @return the Air_Temp observation of every sample line
+	 */
+	private FloatColumn airTemps() {
+		FieldTokenizer tokenizer = Schema.DEEPMOOR.newTokenizer();
+		FloatColumn column = new FloatColumn(lines.length);
+		for (String line : lines) {
+			tokenizer.tokenize(line);
+			column.add(tokenizer.values()[0]);
+		}
+		return column;
+	}
+	
+	/**
+	 * Run a workload several times
+	 * 
+	 * @return total number of operations performed
+	 */
+	private static long repeat(int times, BenchmarkHarness.Workload workload) throws Exception {
+		long ops = 0;
+		for (int i = 0; i < times; i++) {
+			ops += workload.run();
+		}
+		return ops;
+	}
+	
+	/**
+	 * Run a query, counting every line of its table as an operation
+	 */
+	private long query(ObservationTable table, Query query) {
+		sink = query.run();
+		return table.getRowCount();
+	}
+	
+	private long sumFloat(FloatColumn column) {
+		float total = 0;
+		for (int i = 0; i < column.size(); i++) {
+			total += column.get(i);
+		}
+		sink = total;
+		return column.size();
+	}
+	
+	private long sumDouble(FloatColumn column) {
+		double total = 0;
+		for (int i = 0; i < column.size(); i++) {
+			total += column.get(i);
+		}
+		sink = total;
+		return column.size();
+	}
+	
+	private long sumCompensated(FloatColumn column) {
+		double[] total = new double[1];
+		double[] comp = new double[1];
+		for (int i = 0; i < column.size(); i++) {
+			CompensatedSum.add(total, comp, 0, column.get(i));
+		}
+		sink = CompensatedSum.value(total, comp, 0);
+		return column.size();
+	}
+	
+	/**
+	 * The straightforward two pass calculation which ColumnKernels 
+	 * replaces
+	 */
+	private long summarizeScalar(FloatColumn column) {
+		int n = column.size();
+		double total = 0;
+		float min = Float.POSITIVE_INFINITY;
+		float max = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			float f = column.get(i);
+			total += f;
+			min = Math.min(min, f);
+			max = Math.max(max, f);
+		}
+		double mean = total / n;
+		double sumSq = 0;
+		for (int i = 0; i < n; i++) {
+			double d = column.get(i) - mean;
+			sumSq += d * d;
+		}
+		sink = new double[] {mean, min, max, sumSq / n};
+		return n;
+	}
+	
+	/**
+	 * Measure the distribution of the time taken by collectStats per line
+	 */
+	private void printCollectLatency() {
+		int batches = lines.length / LATENCYBATCH;
+		if (batches == 0) {
+			return;
+		}
+		long[] nanosPerLine = new long[batches * ITERATIONS];
+		int sample = 0;
+		for (int i = 0; i < WARMUPS + ITERATIONS; i++) {
+			WeatherStats engine = new WeatherStats();
+			for (int b = 0; b < batches; b++) {
+				long start = System.nanoTime();
+				for (int l = b * LATENCYBATCH; l < (b + 1) * LATENCYBATCH; l++) {
+					engine.collectStats(lines[l]);
+				}
+				long elapsed = System.nanoTime() - start;
+				if (i >= WARMUPS) {
+					nanosPerLine[sample++] = elapsed / LATENCYBATCH;
+				}
+			}
+		}
+		Arrays.sort(nanosPerLine);
+		System.out.println();
+		System.out.println("collectStats latency per line, in batches of "+LATENCYBATCH+" lines");
+		System.out.printf("p50 %,d ns  p99 %,d ns  p99.9 %,d ns  max %,d ns\n", 
+				nanosPerLine[(int) (0.5 * (sample - 1))], nanosPerLine[(int) (0.99 * (sample - 1))],
+				nanosPerLine[(int) (0.999 * (sample - 1))], nanosPerLine[sample - 1]);
+	}
+	
+	/**
+	 * @param args Optional path of the file to benchmark, and the number 
+	 * 		  of sample lines to generate if it doesn't exist
+	 * @throws Exception if a benchmark fails
+	 */
+	public static void main(String[] args) throws Exception {
+		long lineCount = (args.length > 1) ? Long.parseLong(args[1]) : DEFAULTLINES;
+		Path path = (args.length > 0) ? Paths.get(args[0]) 
+				: Files.createTempFile("weatherstats", ".txt");
+		if (args.length == 0) {
+			path.toFile().deleteOnExit();
+		}
+		if (args.length == 0 || !Files.exists(path)) {
+			new SyntheticDataGenerator(lineCount, 2014).write(path);
+		}
+		
+		System.out.println("WeatherStats ingest benchmarks");
+		System.out.println("==============================\n");
+		System.out.printf("File: %s (%,d bytes)\n", path, Files.size(path));
+		System.out.println(WARMUPS+" warmup and "+ITERATIONS+" measured iterations per benchmark\n");
+		new IngestBenchmark(path, new BenchmarkHarness(WARMUPS, ITERATIONS)).runAll();
+	}
+}
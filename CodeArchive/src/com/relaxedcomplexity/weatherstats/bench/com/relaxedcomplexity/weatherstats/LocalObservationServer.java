@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An HTTP server on the loopback interface serving a local observation 
+ * file. It stands in for the observation station's web site, so that 
+ * reading a URL can be tried and benchmarked offline. The file may be 
+ * sent without a content length, as a chunked response, and its transfer
+ * rate may be limited to imitate a slow network.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class LocalObservationServer implements AutoCloseable {
+
+	private static final int WRITESIZE = 16384;
+	
+	private final Path            file;
+	private final long            bytesPerSecond;
+	private final boolean         chunked;
+	private final HttpServer      server;
+	private final ExecutorService executor;
+	
+	/**
+	 * Start serving a file on a free port
+	 * 
+	 * @param file Path of the file served
+	 * @param bytesPerSecond Transfer rate of each response, or 0 for no limit
+	 * @param chunked true to send the file without a content length
+	 * @throws IOException if the server can't be started
+	 */
+	public LocalObservationServer(Path file, long bytesPerSecond, boolean chunked) throws IOException {
+		this(file, bytesPerSecond, chunked, 0);
+	}
+	
+	/**
+	 * Start serving a file
+	 * 
+	 * @param file Path of the file served
+	 * @param bytesPerSecond Transfer rate of each response, or 0 for no limit
+	 * @param chunked true to send the file without a content length
+	 * @param port Port to listen on, or 0 for any free port
+	 * @throws IOException if the server can't be started
+	 */
+	public LocalObservationServer(Path file, long bytesPerSecond, boolean chunked, int port) 
+			throws IOException {
+		// Test preconditions
+		if (!Files.isRegularFile(file)) {
+			throw new IllegalArgumentException("Invalid file of "+file+" passed.");
+		}
+		if (bytesPerSecond < 0) {
+			throw new IllegalArgumentException("Invalid bytesPerSecond of "+bytesPerSecond+" passed.");
+		}
+		this.file = file;
+		this.bytesPerSecond = bytesPerSecond;
+		this.chunked = chunked;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/", this::handle);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.start();
+	}
+	
+	/**
+	 * @return URL at which the file is served
+	 */
+	public URL getURL() throws IOException {
+		InetSocketAddress address = server.getAddress();
+		return new URL("http", address.getHostString(), address.getPort(), 
+				"/"+file.getFileName());
+	}
+	
+	/**
+	 * Send the file, or a 404 response for any other path
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!exchange.getRequestURI().getPath().equals("/"+file.getFileName())) {
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+				return;
+			}
+			if (!exchange.getRequestMethod().equals("GET")) {
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_METHOD, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Type", "text/plain");
+			exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, chunked ? 0 : Files.size(file));
+			try (InputStream in = Files.newInputStream(file);
+					OutputStream out = exchange.getResponseBody()) {
+				send(in, out);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Copy the file to the response, pausing as needed to keep to the 
+	 * transfer rate
+	 */
+	private void send(InputStream in, OutputStream out) throws IOException {
+		byte[] buf = new byte[WRITESIZE];
+		long startNanos = System.nanoTime();
+		long sent = 0;
+		int len;
+		while ((len = in.read(buf)) > 0) {
+			out.write(buf, 0, len);
+			sent += len;
+			if (bytesPerSecond > 0) {
+				out.flush();
+				long dueNanos = startNanos + sent * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+				long waitNanos = dueNanos - System.nanoTime();
+				if (waitNanos > 0) {
+					try {
+						TimeUnit.NANOSECONDS.sleep(waitNanos);
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted while sending "+file);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Stop the server, abandoning any responses in progress
+	 */
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Serve a file until the process is stopped
+	 * 
+	 * @param args File to serve, optionally followed by the transfer rate
+	 * 		  in bytes per second (0 for no limit), the port, and "chunked"
+	 * 		  to send the file without a content length
+	 * @throws IOException if the server can't be started
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: LocalObservationServer file [bytesPerSecond] [port] [chunked]");
+			return;
+		}
+		long bytesPerSecond = (args.length > 1) ? Long.parseLong(args[1]) : 0;
+		int port = (args.length > 2) ? Integer.parseInt(args[2]) : 0;
+		boolean chunked = (args.length > 3) && args[3].equals("chunked");
+		LocalObservationServer server = 
+				new LocalObservationServer(Paths.get(args[0]), bytesPerSecond, chunked, port);
+		System.out.println("Serving "+args[0]+" at "+server.getURL());
+	}
+}
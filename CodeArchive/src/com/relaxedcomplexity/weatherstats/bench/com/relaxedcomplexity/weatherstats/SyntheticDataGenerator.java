@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+/**
+ * Writes synthetic observation files in the Deep Moor format for use by 
+ * the benchmarks. Each file starts with the same header line as the Deep
+ * Moor files, followed by one sample line per minute holding plausible
+ * values for each observation type. The values are drawn from a seeded
+ * random number generator so a given size and seed always produces the 
+ * same file.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class SyntheticDataGenerator {
+
+	private static final String HEADER = "date       time    Air_Temp\tBarometric_Press\tDew_Point"
+			+ "\tRelative_Humidity\tWind_Dir\tWind_Gust\tWind_Speed";
+	private static final DateTimeFormatter DATEFMT = DateTimeFormatter.ofPattern("yyyy_MM_dd HH:mm:ss");
+	private static final LocalDateTime FIRSTSAMPLE = LocalDateTime.of(2014, 1, 1, 0, 1);
+	
+	private final long lineCount;
+	private final long seed;
+	
+	/**
+	 * Create a generator
+	 * 
+	 * @param lineCount Number of sample lines, excluding the header
+	 * @param seed Seed for the observation values
+	 */
+	public SyntheticDataGenerator(long lineCount, long seed) {
+		// Test preconditions
+		if (lineCount < 0) {
+			throw new IllegalArgumentException("Invalid lineCount of "+lineCount+" passed.");
+		}
+		this.lineCount = lineCount;
+		this.seed = seed;
+	}
+	
+	/**
+	 * Write the file
+	 * 
+	 * @param path Path of the file to be written
+	 * @throws IOException if the file can't be written
+	 */
+	public void write(Path path) throws IOException {
+		Random random = new Random(seed);
+		StringBuilder line = new StringBuilder(64);
+		LocalDateTime timestamp = FIRSTSAMPLE;
+		try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.ISO_8859_1)) {
+			out.write(HEADER);
+			out.write('\n');
+			for (long i = 0; i < lineCount; i++) {
+				line.setLength(0);
+				DATEFMT.formatTo(timestamp, line);
+				appendFixed(line.append('\t'), 45.0 + 15.0 * random.nextGaussian(), 10);
+				appendFixed(line.append('\t'), 30.0 + 0.3 * random.nextGaussian(), 100);
+				appendFixed(line.append('\t'), 35.0 + 10.0 * random.nextGaussian(), 10);
+				appendFixed(line.append('\t'), 20.0 + 80.0 * random.nextDouble(), 10);
+				line.append('\t').append(random.nextInt(360));
+				appendFixed(line.append('\t'), 30.0 * random.nextDouble(), 10);
+				appendFixed(line.append('\t'), 20.0 * random.nextDouble(), 10);
+				line.append('\n');
+				out.append(line);
+				timestamp = timestamp.plusMinutes(1);
+			}
+		}
+	}
+	
+	/**
+	 * Append a value rounded to a fixed number of decimal places
+	 * 
+	 * @param line Buffer to which the value is appended
+	 * @param value Value to be appended
+	 * @param scale 10 for one decimal place, 100 for two
+	 */
+	private static void appendFixed(StringBuilder line, double value, int scale) {
+		long scaled = Math.round(value * scale);
+		if (scaled < 0) {
+			line.append('-');
+			scaled = -scaled;
+		}
+		line.append(scaled / scale).append('.');
+		long fraction = scaled % scale;
+		if (scale == 100 && fraction < 10) {
+			line.append('0');
+		}
+		line.append(fraction);
+	}
+	
+	/**
+	 * @param args File name followed by an optional number of sample 
+	 * 		  lines and seed
+	 * @throws IOException if the file can't be written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: SyntheticDataGenerator file [lines] [seed]");
+			return;
+		}
+		long lines = (args.length > 1) ? Long.parseLong(args[1]) : 525600;
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : 2014;
+		new SyntheticDataGenerator(lines, seed).write(Paths.get(args[0]));
+	}
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fetches observation data from a URL without blocking the caller. The 
+ * connection is made and the body read on a fetch thread, which passes 
+ * the body to the reader through a bounded queue of buffers as the bytes
+ * arrive. Receiving the data therefore overlaps with parsing it, rather 
+ * than the parser waiting on the network for every buffer it reads.
+ * <p>
+ * A fetch completes as soon as the response headers have been received,
+ * so the content length is known before the body is read. A response 
+ * with an HTTP error status completes the fetch exceptionally.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class AsyncFetcher {
+
+	// Number of body buffers which may be waiting for the reader, and the
+	// largest buffer passed to it
+	private static final int QUEUEDEPTH = 16;
+	private static final int BUFSIZE = 65536;
+	
+	public static final int DEFAULTCONNECTTIMEOUT = 10000;
+	public static final int DEFAULTREADTIMEOUT = 30000;
+	
+	// Fetch threads only wait on the network, so each fetch gets its own
+	private static final ExecutorService FETCHPOOL = Executors.newCachedThreadPool(task -> {
+		Thread thread = new Thread(task, "WeatherStats-fetch");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * The headers of a response, and a stream supplying its body
+	 */
+	public static class Response {
+		private final int         status;
+		private final long        contentLength;
+		private final InputStream body;
+		
+		Response(int status, long contentLength, InputStream body) {
+			this.status = status;
+			this.contentLength = contentLength;
+			this.body = body;
+		}
+		
+		/**
+		 * @return HTTP status code, or 200 for a URL which isn't HTTP
+		 */
+		public int getStatus() {
+			return status;
+		}
+		
+		/**
+		 * @return length of the body in bytes, or -1 if it isn't known
+		 */
+		public long getContentLength() {
+			return contentLength;
+		}
+		
+		/**
+		 * @return stream supplying the body as it arrives. Closing it 
+		 * 		   abandons the rest of the body.
+		 */
+		public InputStream getBody() {
+			return body;
+		}
+	}
+	
+	private AsyncFetcher() {
+	}
+	
+	/**
+	 * Fetch a URL on a fetch thread of its own
+	 * 
+	 * @param url URL of the observation data
+	 * @return future completed with the response once its headers have 
+	 * 		   been received
+	 */
+	public static CompletableFuture<Response> fetch(URL url) {
+		return fetch(url, FETCHPOOL);
+	}
+	
+	/**
+	 * Fetch a URL. The executor's thread is occupied until the whole body
+	 * has been read or the body stream is closed.
+	 * 
+	 * @param url URL of the observation data
+	 * @param executor Executor running the fetch
+	 * @return future completed with the response once its headers have 
+	 * 		   been received
+	 */
+	public static CompletableFuture<Response> fetch(URL url, Executor executor) {
+		// Test preconditions
+		if (url == null) {
+			throw new IllegalArgumentException("Invalid url of "+url+" passed.");
+		}
+		CompletableFuture<Response> response = new CompletableFuture<>();
+		QueuedInputStream body = new QueuedInputStream(QUEUEDEPTH);
+		executor.execute(() -> body.run(() -> {
+			try {
+				receive(url, body, response);
+			} catch (IOException | RuntimeException ex) {
+				response.completeExceptionally(ex);
+				throw ex;
+			}
+		}));
+		return response;
+	}
+	
+	/**
+	 * Connect, complete the response future once the headers arrive, then
+	 * pass the body to the reader
+	 */
+	private static void receive(URL url, QueuedInputStream body, 
+			CompletableFuture<Response> response) throws IOException, InterruptedException {
+		URLConnection conn = url.openConnection();
+		conn.setConnectTimeout(DEFAULTCONNECTTIMEOUT);
+		conn.setReadTimeout(DEFAULTREADTIMEOUT);
+		int status = 200;
+		if (conn instanceof HttpURLConnection) {
+			status = ((HttpURLConnection) conn).getResponseCode();
+			if (status < 200 || status > 299) {
+				((HttpURLConnection) conn).disconnect();
+				throw new IOException("HTTP status "+status+" returned for "+url);
+			}
+		}
+		try (InputStream in = conn.getInputStream()) {
+			response.complete(new Response(status, conn.getContentLengthLong(), body));
+			
+			// Pass on whatever has arrived once the next read would block,
+			// rather than waiting for a buffer to fill
+			byte[] buf = new byte[BUFSIZE];
+			int len = 0;
+			int n;
+			while ((n = in.read(buf, len, buf.length - len)) >= 0) {
+				len += n;
+				if (len == buf.length || in.available() == 0) {
+					body.put(Arrays.copyOf(buf, len));
+					len = 0;
+				}
+			}
+			if (len > 0) {
+				body.put(Arrays.copyOf(buf, len));
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable view of a range of single byte characters in a ByteBuffer
+ * which presents them as a CharSequence. This allows lines held in a 
+ * memory mapped file to be handed to the FieldTokenizer without decoding
+ * them into a String. Bytes are treated as ISO-8859-1 characters, which
+ * is sufficient for the ASCII content of the observation files.
+ * 
+ * @author jim.medlock
+ *
+ */
+class ByteSequence implements CharSequence {
+
+	private ByteBuffer buffer = null;
+	private int        offset = 0;
+	private int        length = 0;
+	
+	/**
+	 * Point this view at a new range of bytes
+	 * 
+	 * @param buffer Buffer holding the bytes
+	 * @param start Position of the first byte in the range
+	 * @param end Position following the last byte in the range
+	 * @return this view
+	 */
+	ByteSequence set(ByteBuffer buffer, int start, int end) {
+		this.buffer = buffer;
+		this.offset = start;
+		this.length = end - start;
+		return this;
+	}
+	
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) (buffer.get(offset + index) & 0xff);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException("Range: "+start+"-"+end+", Length: "+length);
+		}
+		return new ByteSequence().set(buffer, offset + start, offset + end);
+	}
+	
+	@Override
+	public String toString() {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(offset + i);
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+}
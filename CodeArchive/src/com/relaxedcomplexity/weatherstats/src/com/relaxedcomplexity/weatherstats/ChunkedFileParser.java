@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a local observation file in parallel. The file is split into 
+ * byte ranges whose boundaries are moved forward to the start of the next
+ * line, and each range is mapped and parsed on a ForkJoinPool worker into
+ * its own StatsAccumulator, which also gathers the partial statistics of
+ * the range. The accumulators are returned in file order, so that they 
+ * can be merged in the order of a sequential parse.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class ChunkedFileParser {
+
+	private static final long MINCHUNKSIZE = 1L << 20;
+	private static final long MAXCHUNKSIZE = 64L << 20;
+	private static final int  CHUNKSPERTHREAD = 4;
+	private static final int  APPROXLINELEN = 48;
+	private static final int  SCANBUFSIZE = 4096;
+	
+	private final Path    path;
+	private final Schema  schema;
+	private boolean       validating = false;
+	private IngestMetrics metrics = null;
+	
+	/**
+	 * Create a parser for a local file
+	 * 
+	 * @param path Path of the file
+	 * @param schema Layout of the sample lines
+	 */
+	public ChunkedFileParser(Path path, Schema schema) {
+		this.path = path;
+		this.schema = schema;
+	}
+	
+	/**
+	 * Select whether malformed lines are rejected rather than ending the
+	 * parse. Rejected lines are recorded by the accumulator of their range.
+	 * 
+	 * @param validating true to reject malformed lines
+	 */
+	public void setValidating(boolean validating) {
+		this.validating = validating;
+	}
+	
+	/**
+	 * Record each byte range in a set of metrics once it has been parsed
+	 * 
+	 * @param metrics Metrics to be updated, or null for none
+	 */
+	public void setMetrics(IngestMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Parse the file, skipping its header line
+	 * 
+	 * @param pool Pool on which the byte ranges are parsed
+	 * @return accumulator for each byte range, in file order
+	 * @throws IOException if the file can't be read
+	 * @throws IllegalArgumentException if a line is missing fields and the
+	 * 		   parser isn't validating
+	 */
+	public List<StatsAccumulator> parse(ForkJoinPool pool) throws IOException {
+		List<Future<StatsAccumulator>> tasks = submit(pool);
+		List<StatsAccumulator> results = new ArrayList<>(tasks.size());
+		try {
+			for (Future<StatsAccumulator> task : tasks) {
+				results.add(getResult(task));
+			}
+		} finally {
+			if (results.size() < tasks.size()) {
+				for (Future<StatsAccumulator> task : tasks) {
+					task.cancel(true);
+				}
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Start parsing the file without waiting for the byte ranges to be
+	 * parsed, so that the results of each range can be used as soon as it
+	 * completes. Tasks which are no longer needed should be cancelled.
+	 * 
+	 * @param pool Pool on which the byte ranges are parsed
+	 * @return task parsing each byte range, in file order
+	 * @throws IOException if the file can't be split into ranges
+	 */
+	public List<Future<StatsAccumulator>> submit(ForkJoinPool pool) throws IOException {
+		List<Future<StatsAccumulator>> tasks = new ArrayList<>();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long chunkSize = Math.max(MINCHUNKSIZE, 
+					Math.min(MAXCHUNKSIZE, size / (pool.getParallelism() * CHUNKSPERTHREAD)));
+			
+			long start = alignToLine(channel, 1, size);
+			while (start < size) {
+				long end = alignToLine(channel, start + chunkSize, size);
+				final long rangeStart = start;
+				Callable<StatsAccumulator> task = () -> parseRange(rangeStart, end);
+				tasks.add(pool.submit(task));
+				start = end;
+			}
+		}
+		return tasks;
+	}
+	
+	/**
+	 * Wait for a byte range to be parsed
+	 * 
+	 * @param task Task returned by submit
+	 * @return accumulator for the byte range
+	 * @throws IOException if the file can't be read
+	 * @throws IllegalArgumentException if a line is missing fields and the
+	 * 		   parser isn't validating
+	 */
+	public StatsAccumulator getResult(Future<StatsAccumulator> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while parsing "+path, ie);
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Unable to parse "+path, cause);
+		}
+	}
+	
+	/**
+	 * Parse the lines held in a range of bytes
+	 */
+	private StatsAccumulator parseRange(long start, long end) throws IOException {
+		long startNanos = System.nanoTime();
+		FieldTokenizer tokenizer = schema.newTokenizer();
+		tokenizer.setValidating(validating);
+		StatsAccumulator accumulator = new StatsAccumulator(schema, (int) ((end - start) / APPROXLINELEN));
+		
+		try (MappedLineReader reader = new MappedLineReader(path, start, end)) {
+			CharSequence line = null;
+			long lineStart = reader.position();
+			while ((line = reader.readLine()) != null) {
+				if (tokenizer.tokenize(line) < tokenizer.fieldCount()) {
+					if (validating) {
+						accumulator.reject();
+						lineStart = reader.position();
+						continue;
+					}
+					throw new IllegalArgumentException("Line at offset "+lineStart+" contains fewer than "
+							+(schema.getLastIndex()+1)+" fields.");
+				}
+				accumulator.add(tokenizer.values());
+				lineStart = reader.position();
+			}
+		}
+		if (metrics != null) {
+			metrics.recordBatch(accumulator.getLineCount() + accumulator.getRejectCount(), end - start,
+					System.nanoTime() - startNanos);
+		}
+		return accumulator;
+	}
+	
+	/**
+	 * Find the first position at or after pos which begins a line
+	 * 
+	 * @param channel Channel open on the file
+	 * @param pos Starting position
+	 * @param size Size of the file
+	 * @return offset of the start of the line, or the size of the file if
+	 * 		   there are no more lines
+	 */
+	static long alignToLine(FileChannel channel, long pos, long size) throws IOException {
+		if (pos <= 0) {
+			return 0;
+		}
+		ByteBuffer buf = ByteBuffer.allocate(SCANBUFSIZE);
+		long offset = pos - 1;
+		while (offset < size) {
+			buf.clear();
+			int n = channel.read(buf, offset);
+			if (n <= 0) {
+				break;
+			}
+			for (int i = 0; i < n; i++) {
+				if (buf.get(i) == '\n') {
+					return offset + i + 1;
+				}
+			}
+			offset += n;
+		}
+		return size;
+	}
+}
@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Reduction kernels over columns of primitive float values. These compute
+ * the sum, minimum, maximum, variance and histogram of a column held either
+ * in a float array, such as a FloatColumn of observations, or in a 
+ * FloatBuffer mapped from a columnar cache file.
+ * <p>
+ * Each kernel splits its reduction across several independent 
+ * accumulators, one for each of a group of adjacent values. This removes 
+ * the dependency of each step on the one before it, which lets the JIT 
+ * pipeline the loop. The accumulators are combined once the loop 
+ * completes, and a scalar loop handles any values left over. Since large
+ * columns are limited by memory bandwidth rather than arithmetic, 
+ * summarize() gathers the count, sum, minimum, maximum and variance in a
+ * single pass. The histogram needs the range of its bins, so it's a 
+ * separate kernel, and the median needs the values ordered, so it isn't
+ * computed here at all.
+ * <p>
+ * NaN values are skipped by every kernel.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class ColumnKernels {
+
+	// Number of independent accumulators, and so the unrolling factor
+	private static final int LANES = 8;
+	
+	// Number of values copied at a time from a buffer to an array
+	private static final int SCRATCHSIZE = 4096;
+	
+	private ColumnKernels() {
+	}
+	
+	/**
+	 * Find the count, sum, minimum, maximum and variance of positions from
+	 * through to-1 of an array in a single pass
+	 * 
+	 * @param a Array holding the values
+	 * @param from Position of the first value
+	 * @param to Position following the last value
+	 * @return summary of the values
+	 */
+	public static ColumnSummary summarize(float[] a, int from, int to) {
+		// Test preconditions
+		if (from < 0 || to > a.length || from > to) {
+			throw new IllegalArgumentException("Invalid range of "+from+"-"+to+" passed.");
+		}
+		ColumnSummary summary = new ColumnSummary();
+		accumulate(summary, a, from, to);
+		return summary;
+	}
+	
+	/**
+	 * Find the count, sum, minimum, maximum and variance of the remaining 
+	 * values in a buffer in a single pass. The buffer's position is 
+	 * advanced to its limit.
+	 * 
+	 * @param buf Buffer holding the values
+	 * @return summary of the values
+	 */
+	public static ColumnSummary summarize(FloatBuffer buf) {
+		ColumnSummary summary = new ColumnSummary();
+		float[] scratch = new float[Math.min(SCRATCHSIZE, buf.remaining())];
+		while (buf.hasRemaining()) {
+			int n = Math.min(scratch.length, buf.remaining());
+			buf.get(scratch, 0, n);
+			accumulate(summary, scratch, 0, n);
+		}
+		return summary;
+	}
+	
+	/**
+	 * @return sum of positions from through to-1 of an array
+	 */
+	public static double sum(float[] a, int from, int to) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0, s5 = 0, s6 = 0, s7 = 0;
+		int i = from;
+		for (; i + LANES <= to; i += LANES) {
+			s0 += nanToZero(a[i]);
+			s1 += nanToZero(a[i+1]);
+			s2 += nanToZero(a[i+2]);
+			s3 += nanToZero(a[i+3]);
+			s4 += nanToZero(a[i+4]);
+			s5 += nanToZero(a[i+5]);
+			s6 += nanToZero(a[i+6]);
+			s7 += nanToZero(a[i+7]);
+		}
+		double s = ((s0 + s1) + (s2 + s3)) + ((s4 + s5) + (s6 + s7));
+		for (; i < to; i++) {
+			s += nanToZero(a[i]);
+		}
+		return s;
+	}
+	
+	/**
+	 * @return smallest of positions from through to-1 of an array, or 
+	 * 		   Float.POSITIVE_INFINITY if there are no values
+	 */
+	public static float min(float[] a, int from, int to) {
+		float m0 = Float.POSITIVE_INFINITY, m1 = m0, m2 = m0, m3 = m0;
+		float m4 = m0, m5 = m0, m6 = m0, m7 = m0;
+		int i = from;
+		for (; i + LANES <= to; i += LANES) {
+			m0 = (a[i] < m0) ? a[i] : m0;
+			m1 = (a[i+1] < m1) ? a[i+1] : m1;
+			m2 = (a[i+2] < m2) ? a[i+2] : m2;
+			m3 = (a[i+3] < m3) ? a[i+3] : m3;
+			m4 = (a[i+4] < m4) ? a[i+4] : m4;
+			m5 = (a[i+5] < m5) ? a[i+5] : m5;
+			m6 = (a[i+6] < m6) ? a[i+6] : m6;
+			m7 = (a[i+7] < m7) ? a[i+7] : m7;
+		}
+		m0 = (m1 < m0) ? m1 : m0;
+		m2 = (m3 < m2) ? m3 : m2;
+		m4 = (m5 < m4) ? m5 : m4;
+		m6 = (m7 < m6) ? m7 : m6;
+		m0 = (m2 < m0) ? m2 : m0;
+		m4 = (m6 < m4) ? m6 : m4;
+		m0 = (m4 < m0) ? m4 : m0;
+		for (; i < to; i++) {
+			m0 = (a[i] < m0) ? a[i] : m0;
+		}
+		return m0;
+	}
+	
+	/**
+	 * @return largest of positions from through to-1 of an array, or 
+	 * 		   Float.NEGATIVE_INFINITY if there are no values
+	 */
+	public static float max(float[] a, int from, int to) {
+		float m0 = Float.NEGATIVE_INFINITY, m1 = m0, m2 = m0, m3 = m0;
+		float m4 = m0, m5 = m0, m6 = m0, m7 = m0;
+		int i = from;
+		for (; i + LANES <= to; i += LANES) {
+			m0 = (a[i] > m0) ? a[i] : m0;
+			m1 = (a[i+1] > m1) ? a[i+1] : m1;
+			m2 = (a[i+2] > m2) ? a[i+2] : m2;
+			m3 = (a[i+3] > m3) ? a[i+3] : m3;
+			m4 = (a[i+4] > m4) ? a[i+4] : m4;
+			m5 = (a[i+5] > m5) ? a[i+5] : m5;
+			m6 = (a[i+6] > m6) ? a[i+6] : m6;
+			m7 = (a[i+7] > m7) ? a[i+7] : m7;
+		}
+		m0 = (m1 > m0) ? m1 : m0;
+		m2 = (m3 > m2) ? m3 : m2;
+		m4 = (m5 > m4) ? m5 : m4;
+		m6 = (m7 > m6) ? m7 : m6;
+		m0 = (m2 > m0) ? m2 : m0;
+		m4 = (m6 > m4) ? m6 : m4;
+		m0 = (m4 > m0) ? m4 : m0;
+		for (; i < to; i++) {
+			m0 = (a[i] > m0) ? a[i] : m0;
+		}
+		return m0;
+	}
+	
+	/**
+	 * Count positions from through to-1 of an array into equal width bins
+	 * spanning low to high. Values below low are counted in the first bin
+	 * and values at or above high in the last.
+	 * 
+	 * @param a Array holding the values
+	 * @param from Position of the first value
+	 * @param to Position following the last value
+	 * @param low Lower bound of the first bin
+	 * @param high Upper bound of the last bin
+	 * @param counts Count for each bin, which is added to
+	 */
+	public static void histogram(float[] a, int from, int to, float low, float high, long[] counts) {
+		// Test preconditions
+		if (!(high > low) || counts.length == 0) {
+			throw new IllegalArgumentException("Invalid bounds "+low+"-"+high+" or bins passed.");
+		}
+		int bins = counts.length;
+		for (int i = from; i < to; i++) {
+			float v = a[i];
+			if (v == v) {
+				counts[bin(v, low, high, bins)]++;
+			}
+		}
+	}
+	
+	/**
+	 * Return the histogram bin holding a value. Values below low fall in 
+	 * the first bin and values at or above high in the last.
+	 * 
+	 * @param v Value to be counted
+	 * @param low Lower bound of the first bin
+	 * @param high Upper bound of the last bin
+	 * @param bins Number of bins
+	 * @return index of the bin
+	 */
+	static int bin(float v, float low, float high, int bins) {
+		int b = (int) ((v - low) * (bins / (high - low)));
+		return (b < 0) ? 0 : (b >= bins ? bins - 1 : b);
+	}
+	
+	/**
+	 * Add positions from through to-1 of an array to a summary. The count,
+	 * sums and extremes are all gathered in one pass so that each value is
+	 * loaded from memory only once.
+	 */
+	private static void accumulate(ColumnSummary summary, float[] a, int from, int to) {
+		int i = from;
+		while (i < to && a[i] != a[i]) {
+			i++;
+		}
+		if (i == to) {
+			return;
+		}
+		
+		int start = i;
+		double shift = a[i];
+		double s0 = 0, s1 = 0, q0 = 0, q1 = 0;
+		float min0 = a[i], min1 = min0, max0 = min0, max1 = min0;
+		long nanCount = 0;
+		for (; i + 2 <= to; i += 2) {
+			float v0 = a[i];
+			float v1 = a[i+1];
+			if (v0 == v0) {
+				double d0 = v0 - shift;
+				s0 += d0;
+				q0 += d0 * d0;
+				min0 = (v0 < min0) ? v0 : min0;
+				max0 = (v0 > max0) ? v0 : max0;
+			} else {
+				nanCount++;
+			}
+			if (v1 == v1) {
+				double d1 = v1 - shift;
+				s1 += d1;
+				q1 += d1 * d1;
+				min1 = (v1 < min1) ? v1 : min1;
+				max1 = (v1 > max1) ? v1 : max1;
+			} else {
+				nanCount++;
+			}
+		}
+		if (i < to) {
+			float v = a[i];
+			if (v == v) {
+				double d = v - shift;
+				s0 += d;
+				q0 += d * d;
+				min0 = (v < min0) ? v : min0;
+				max0 = (v > max0) ? v : max0;
+			} else {
+				nanCount++;
+			}
+		}
+		
+		ColumnSummary part = new ColumnSummary();
+		part.count = (to - start) - nanCount;
+		part.shift = shift;
+		part.sumDev = s0 + s1;
+		part.sumSqDev = q0 + q1;
+		part.min = (min1 < min0) ? min1 : min0;
+		part.max = (max1 > max0) ? max1 : max0;
+		summary.merge(part);
+	}
+	
+	private static float nanToZero(float v) {
+		return (v == v) ? v : 0f;
+	}
+}
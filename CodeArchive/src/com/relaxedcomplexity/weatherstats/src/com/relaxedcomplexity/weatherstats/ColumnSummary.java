@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+/**
+ * The count, sum, extremes and spread of a column of values as computed by
+ * ColumnKernels. Summaries of separate portions of a column can be merged
+ * to produce the summary of the whole column.
+ * <p>
+ * The sum and sum of squares are held as deviations from a shift value,
+ * normally the first value of the column. Since weather observations vary
+ * little relative to their magnitude this keeps the variance accurate.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class ColumnSummary {
+
+	long   count = 0;
+	double shift = 0.0;
+	double sumDev = 0.0;
+	double sumSqDev = 0.0;
+	float  min = Float.NaN;
+	float  max = Float.NaN;
+	
+	/**
+	 * Combine the summary of another portion of the column with this one
+	 * 
+	 * @param other Summary of the other portion
+	 * @return this summary
+	 */
+	public ColumnSummary merge(ColumnSummary other) {
+		if (other.count == 0) {
+			return this;
+		}
+		if (count == 0) {
+			count = other.count;
+			shift = other.shift;
+			sumDev = other.sumDev;
+			sumSqDev = other.sumSqDev;
+			min = other.min;
+			max = other.max;
+			return this;
+		}
+		
+		// Re-express the other portion's deviations relative to this shift
+		double delta = other.shift - shift;
+		sumSqDev += other.sumSqDev + 2 * delta * other.sumDev + other.count * delta * delta;
+		sumDev += other.sumDev + other.count * delta;
+		count += other.count;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		return this;
+	}
+	
+	/**
+	 * @return number of values, excluding NaN
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	public double getSum() {
+		return count * shift + sumDev;
+	}
+	
+	/**
+	 * @return mean of the values, or NaN if there are none
+	 */
+	public double getMean() {
+		return shift + sumDev / count;
+	}
+	
+	/**
+	 * @return population variance of the values, or NaN if there are none
+	 */
+	public double getVariance() {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		double meanDev = sumDev / count;
+		return Math.max(0.0, sumSqDev / count - meanDev * meanDev);
+	}
+	
+	/**
+	 * @return population standard deviation of the values
+	 */
+	public double getStdDev() {
+		return Math.sqrt(getVariance());
+	}
+	
+	public float getMin() {
+		return min;
+	}
+	
+	public float getMax() {
+		return max;
+	}
+}
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a columnar cache file written by ColumnarCacheWriter. Each block 
+ * is mapped into memory the first time it's used, and its columns are 
+ * returned as FloatBuffer views of the mapped bytes so no values are
+ * copied or parsed.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class ColumnarCacheReader implements Closeable {
+
+	private final FileChannel        channel;
+	private final String[]           columnNames;
+	private final int                blockRows;
+	private final long               rowCount;
+	private final int                blockCount;
+	private final long               dataOffset;
+	private final MappedByteBuffer[] blocks;
+	
+	/**
+	 * Open a cache file
+	 * 
+	 * @param path Path of the cache file
+	 * @throws IOException if the file can't be read or isn't a complete 
+	 * 		   cache file
+	 */
+	public ColumnarCacheReader(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(header, 0);
+			if (header.getInt() != ColumnarCacheWriter.MAGIC) {
+				throw new IOException(path+" isn't a WeatherStats cache file.");
+			}
+			short version = header.getShort();
+			if (version != ColumnarCacheWriter.VERSION) {
+				throw new IOException(path+" has unsupported cache version "+version+".");
+			}
+			header.getShort();
+			int columnCount = header.getInt();
+			blockRows = header.getInt();
+			rowCount = header.getLong();
+			blockCount = header.getInt();
+			dataOffset = header.getInt();
+			if (columnCount <= 0 || blockRows <= 0 || rowCount < 0 || blockCount < 0 
+					|| rowCount > (long) blockCount * blockRows 
+					|| (blockCount > 0 && rowCount <= (long) (blockCount - 1) * blockRows) || dataOffset < 32) {
+				throw new IOException(path+" is incomplete or corrupt.");
+			}
+			
+			ByteBuffer descriptors = ByteBuffer.allocate((int) dataOffset - 32)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			readFully(descriptors, 32);
+			columnNames = new String[columnCount];
+			for (int c = 0; c < columnCount; c++) {
+				byte type = descriptors.get();
+				if (type != ColumnarCacheWriter.TYPEFLOAT) {
+					throw new IOException(path+" holds a column of unsupported type "+type+".");
+				}
+				byte[] name = new byte[descriptors.getShort()];
+				descriptors.get(name);
+				columnNames[c] = new String(name, StandardCharsets.UTF_8);
+			}
+			
+			// A file cut short after its header was completed
+			long fullBlockSize = ColumnarCacheWriter.BLOCKHEADERSIZE + (long) columnCount * blockRows * 4;
+			long lastBlockRows = rowCount - (long) (blockCount - 1) * blockRows;
+			long expectedSize = (blockCount == 0) ? dataOffset : dataOffset + (blockCount - 1) * fullBlockSize 
+					+ ColumnarCacheWriter.BLOCKHEADERSIZE + (long) columnCount * lastBlockRows * 4;
+			if (channel.size() < expectedSize) {
+				throw new IOException(path+" is incomplete or corrupt.");
+			}
+			blocks = new MappedByteBuffer[blockCount];
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Determine whether a file is a columnar cache file
+	 * 
+	 * @param path Path of the file
+	 * @return true if the file begins with the cache file magic number
+	 */
+	public static boolean isCacheFile(Path path) {
+		if (!Files.isRegularFile(path)) {
+			return false;
+		}
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			return ch.read(magic, 0) == 4 && magic.getInt(0) == ColumnarCacheWriter.MAGIC;
+		} catch (IOException ioex) {
+			return false;
+		}
+	}
+	
+	public int getColumnCount() {
+		return columnNames.length;
+	}
+	
+	public String getColumnName(int col) {
+		return columnNames[col];
+	}
+	
+	/**
+	 * @return index of the column with a given name, or -1 if none
+	 */
+	public int getColumnIndex(String name) {
+		for (int c = 0; c < columnNames.length; c++) {
+			if (columnNames[c].equals(name)) {
+				return c;
+			}
+		}
+		return -1;
+	}
+	
+	public long getRowCount() {
+		return rowCount;
+	}
+	
+	public int getBlockCount() {
+		return blockCount;
+	}
+	
+	/**
+	 * @param block Block number
+	 * @return number of rows held in the block
+	 */
+	public int getBlockRows(int block) {
+		return (block < blockCount - 1) ? blockRows : (int) (rowCount - (long) block * blockRows);
+	}
+	
+	/**
+	 * Return the values of a column within a block
+	 * 
+	 * @param block Block number
+	 * @param col Column number
+	 * @return view of the mapped values
+	 * @throws IOException if the block can't be mapped
+	 */
+	public FloatBuffer getColumn(int block, int col) throws IOException {
+		// Test preconditions
+		if (block < 0 || block >= blockCount || col < 0 || col >= columnNames.length) {
+			throw new IllegalArgumentException("Invalid block "+block+" or col "+col+" passed.");
+		}
+		
+		int rows = getBlockRows(block);
+		if (blocks[block] == null) {
+			long blockStart = dataOffset 
+					+ (long) block * (ColumnarCacheWriter.BLOCKHEADERSIZE + (long) columnNames.length * blockRows * 4);
+			long blockSize = ColumnarCacheWriter.BLOCKHEADERSIZE + (long) columnNames.length * rows * 4;
+			blocks[block] = channel.map(FileChannel.MapMode.READ_ONLY, blockStart, blockSize);
+			blocks[block].order(ByteOrder.LITTLE_ENDIAN);
+			if (blocks[block].getInt(0) != rows) {
+				throw new IOException("Block "+block+" of the cache file is corrupt.");
+			}
+		}
+		
+		ByteBuffer column = blocks[block].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		column.position(ColumnarCacheWriter.BLOCKHEADERSIZE + col * rows * 4);
+		column.limit(column.position() + rows * 4);
+		return column.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+	}
+	
+	/**
+	 * Summarize every value of a column across all blocks
+	 * 
+	 * @param col Column index
+	 * @return summary of the column
+	 * @throws IOException if a block can't be mapped
+	 */
+	public ColumnSummary summarize(int col) throws IOException {
+		ColumnSummary summary = new ColumnSummary();
+		for (int block = 0; block < blockCount; block++) {
+			summary.merge(ColumnKernels.summarize(getColumn(block, col)));
+		}
+		return summary;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	private void readFully(ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, pos);
+			if (n < 0) {
+				throw new IOException("Unexpected end of cache file.");
+			}
+			pos += n;
+		}
+		buf.flip();
+	}
+}
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes parsed observations to a columnar binary cache file so that later
+ * runs can compute statistics from the cached values without parsing the
+ * text again. The cache is read by ColumnarCacheReader.
+ * <p>
+ * Rows are grouped into blocks, and within a block the values of each 
+ * column are stored contiguously as little endian floats. This allows 
+ * the cache to be written as observations arrive while still letting a 
+ * reader map any column of any block directly as a FloatBuffer. The file
+ * is laid out as follows:
+ * <ul>
+ * <li>Header: magic number "WSCL", format version, column count, rows per
+ *     block, total row count, block count and the offset of the first 
+ *     block
+ * <li>Column descriptors: type, name length and UTF-8 name of each column
+ * <li>Blocks: row count of the block followed by the values of each column.
+ *     Every block except the last holds the full number of rows per block.
+ * </ul>
+ * The file is written under a temporary name alongside the cache path, 
+ * and only renamed to the cache path once close() has completed the 
+ * header. A writer which fails or is never closed therefore leaves any
+ * previous cache in place, rather than a header which reads as an empty
+ * cache.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class ColumnarCacheWriter implements Closeable {
+
+	static final int   MAGIC = 0x4c435357;		// "WSCL" little endian
+	static final short VERSION = 1;
+	static final byte  TYPEFLOAT = 1;
+	static final int   ROWCOUNTPOS = 16;
+	static final int   BLOCKHEADERSIZE = 8;
+	static final int   DEFAULTBLOCKROWS = 65536;
+	static final String TEMPSUFFIX = ".part";
+	
+	private final Path        path;
+	private final Path        tempPath;
+	private final FileChannel channel;
+	private final int         columnCount;
+	private final int         blockRows;
+	private final float[][]   block;
+	private final ByteBuffer  blockBuf;
+	private int               rowsInBlock = 0;
+	private long              rowCount = 0;
+	private int               blockCount = 0;
+	
+	/**
+	 * Create a cache file holding a column for each name
+	 * 
+	 * @param path Path of the cache file, which is replaced if it exists
+	 * @param columnNames Name of each column
+	 * @throws IOException if the file can't be written
+	 */
+	public ColumnarCacheWriter(Path path, String[] columnNames) throws IOException {
+		this(path, columnNames, DEFAULTBLOCKROWS);
+	}
+	
+	/**
+	 * Create a cache file holding a column for each name
+	 * 
+	 * @param path Path of the cache file, which is replaced if it exists
+	 * @param columnNames Name of each column
+	 * @param blockRows Number of rows in each block
+	 * @throws IOException if the file can't be written
+	 */
+	public ColumnarCacheWriter(Path path, String[] columnNames, int blockRows) throws IOException {
+		// Test preconditions
+		if (columnNames.length == 0) {
+			throw new IllegalArgumentException("No columnNames passed.");
+		}
+		if (blockRows <= 0 || (long) blockRows * columnNames.length * 4 > Integer.MAX_VALUE / 2) {
+			throw new IllegalArgumentException("Invalid blockRows of "+blockRows+" passed.");
+		}
+		this.columnCount = columnNames.length;
+		this.blockRows = blockRows;
+		this.block = new float[columnCount][blockRows];
+		this.blockBuf = ByteBuffer.allocateDirect(BLOCKHEADERSIZE + columnCount * blockRows * 4)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		this.path = path;
+		this.tempPath = path.resolveSibling(path.getFileName() + TEMPSUFFIX);
+		this.channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, 
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		try {
+			writeHeader(columnNames);
+		} catch (IOException ioex) {
+			channel.close();
+			Files.deleteIfExists(tempPath);
+			throw ioex;
+		}
+	}
+	
+	/**
+	 * Add a row of values
+	 * 
+	 * @param values Value of each column. Only the first getColumnCount()
+	 * 		  values are used.
+	 * @throws IOException if the file can't be written
+	 */
+	public void add(float[] values) throws IOException {
+		for (int c = 0; c < columnCount; c++) {
+			block[c][rowsInBlock] = values[c];
+		}
+		if (++rowsInBlock == blockRows) {
+			flushBlock();
+		}
+	}
+	
+	public int getColumnCount() {
+		return columnCount;
+	}
+	
+	/**
+	 * @return number of rows added
+	 */
+	public long getRowCount() {
+		return rowCount + rowsInBlock;
+	}
+	
+	/**
+	 * Write any partly filled block, complete the header and rename the 
+	 * file to the cache path
+	 * 
+	 * @throws IOException if the file can't be written, in which case it's
+	 * 		   deleted
+	 */
+	@Override
+	public void close() throws IOException {
+		boolean complete = false;
+		try {
+			if (rowsInBlock > 0) {
+				flushBlock();
+			}
+			ByteBuffer counts = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+			counts.putLong(rowCount);
+			counts.putInt(blockCount);
+			counts.flip();
+			writeFully(counts, ROWCOUNTPOS);
+			channel.force(true);
+			channel.close();
+			try {
+				Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException amex) {
+				Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+			complete = true;
+		} finally {
+			if (!complete) {
+				channel.close();
+				Files.deleteIfExists(tempPath);
+			}
+		}
+	}
+	
+	/**
+	 * Abandon the cache, deleting the partly written file and leaving any
+	 * previous cache in place
+	 * 
+	 * @throws IOException if the file can't be deleted
+	 */
+	public void abort() throws IOException {
+		channel.close();
+		Files.deleteIfExists(tempPath);
+	}
+	
+	private void writeHeader(String[] columnNames) throws IOException {
+		byte[][] names = new byte[columnCount][];
+		int size = 32;
+		for (int c = 0; c < columnCount; c++) {
+			names[c] = columnNames[c].getBytes(StandardCharsets.UTF_8);
+			size += 1 + 2 + names[c].length;
+		}
+		int dataOffset = (size + 7) & ~7;
+		
+		ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putShort(VERSION);
+		header.putShort((short) 0);
+		header.putInt(columnCount);
+		header.putInt(blockRows);
+		header.putLong(0);				// row count, completed by close()
+		header.putInt(0);				// block count, completed by close()
+		header.putInt(dataOffset);
+		for (int c = 0; c < columnCount; c++) {
+			header.put(TYPEFLOAT);
+			header.putShort((short) names[c].length);
+			header.put(names[c]);
+		}
+		header.position(0);
+		writeFully(header, 0);
+		channel.position(dataOffset);
+	}
+	
+	private void flushBlock() throws IOException {
+		blockBuf.clear();
+		blockBuf.putInt(rowsInBlock);
+		blockBuf.putInt(0);
+		for (int c = 0; c < columnCount; c++) {
+			blockBuf.asFloatBuffer().put(block[c], 0, rowsInBlock);
+			blockBuf.position(blockBuf.position() + 4 * rowsInBlock);
+		}
+		blockBuf.flip();
+		while (blockBuf.hasRemaining()) {
+			channel.write(blockBuf);
+		}
+		rowCount += rowsInBlock;
+		blockCount++;
+		rowsInBlock = 0;
+	}
+	
+	private void writeFully(ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining()) {
+			pos += channel.write(buf, pos);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+/**
+ * Compensated summation of doubles using Neumaier's variant of the Kahan
+ * algorithm. Each running sum is paired with a compensation term which 
+ * captures the low order bits lost when a value is added to it, so the 
+ * error of a long sum stays at a few units in the last place rather than
+ * growing with the number of values.
+ * <p>
+ * The sums and their compensation terms are held in parallel arrays 
+ * owned by the caller so that accumulating a set of fields allocates 
+ * nothing.
+ * 
+ * @author jim.medlock
+ *
+ */
+final class CompensatedSum {
+
+	private CompensatedSum() {
+	}
+	
+	/**
+	 * Add a value to one of a set of running sums
+	 * 
+	 * @param sum Running sums
+	 * @param comp Compensation term of each running sum
+	 * @param i Index of the sum to be added to
+	 * @param x Value to be added
+	 */
+	static void add(double[] sum, double[] comp, int i, double x) {
+		double s = sum[i];
+		double t = s + x;
+		if (Math.abs(s) >= Math.abs(x)) {
+			comp[i] += (s - t) + x;
+		} else {
+			comp[i] += (x - t) + s;
+		}
+		sum[i] = t;
+	}
+	
+	/**
+	 * Add another running sum and its compensation term to one of a set
+	 * of running sums, keeping the low order bits of both
+	 * 
+	 * @param sum Running sums
+	 * @param comp Compensation term of each running sum
+	 * @param i Index of the sum to be added to
+	 * @param otherSum Running sum to be added
+	 * @param otherComp Compensation term of the running sum to be added
+	 */
+	static void merge(double[] sum, double[] comp, int i, double otherSum, double otherComp) {
+		add(sum, comp, i, otherSum);
+		comp[i] += otherComp;
+	}
+	
+	/**
+	 * @return compensated value of one of a set of running sums
+	 */
+	static double value(double[] sum, double[] comp, int i) {
+		return sum[i] + comp[i];
+	}
+}
@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An input stream supplying the decompressed contents of a gzip source. 
+ * Decompression runs on its own thread, which passes buffers of 
+ * decompressed bytes to the reader through a bounded queue. This overlaps
+ * decompression with parsing while limiting the amount of decompressed 
+ * data held in memory.
+ * <p>
+ * A local file holding several gzip members is split into byte ranges 
+ * which are inflated concurrently on a ForkJoinPool. The decompression 
+ * thread then passes each range's output to the queue in file order. A 
+ * range which can't be inflated independently, such as one falling inside
+ * a large member, is inflated by the decompression thread itself.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class DecompressingInputStream extends QueuedInputStream {
+
+	// Number of decompressed buffers which may be waiting for the reader
+	private static final int  QUEUEDEPTH = 16;
+	private static final int  BUFSIZE = 65536;
+	
+	// Size of the byte ranges of a local file inflated concurrently, the
+	// most output held for a range before it is abandoned, and the most 
+	// output held for all of the ranges inflated ahead of the reader. The
+	// total is fixed rather than scaled with the pool, so the memory used
+	// is the same however many cores there are. A range which can't hold
+	// its output within either limit is abandoned and inflated directly
+	// into the queue once the reader reaches it.
+	private static final long RANGESIZE = 4L << 20;
+	private static final long MAXRANGEOUTPUT = 64L << 20;
+	private static final long MAXHELDOUTPUT = 256L << 20;
+	
+	private static final int GZIPMAGIC = 0x8b1f;
+	private static final int ZSTDMAGIC = 0xfd2fb528;
+	
+	private static final String THREADNAME = "WeatherStats-gunzip";
+	
+	/**
+	 * Output of a byte range inflated on the pool
+	 */
+	private static class RangeOutput {
+		final long         start;
+		long               end;
+		long               size = 0;
+		final List<byte[]> buffers = new ArrayList<>();
+		final AtomicLong   held;
+		
+		/**
+		 * @param start Offset of the first member inflated
+		 * @param held Bytes of output held by every range of the stream
+		 */
+		RangeOutput(long start, AtomicLong held) {
+			this.start = start;
+			this.end = start;
+			this.held = held;
+		}
+		
+		/**
+		 * @return false if the output exceeds the limit of a range or of
+		 * 		   all the ranges
+		 */
+		boolean add(byte[] buf, int len) {
+			if (size + len > MAXRANGEOUTPUT) {
+				release();
+				return false;
+			}
+			if (held.addAndGet(len) > MAXHELDOUTPUT) {
+				held.addAndGet(-len);
+				release();
+				return false;
+			}
+			buffers.add(Arrays.copyOf(buf, len));
+			size += len;
+			return true;
+		}
+		
+		/**
+		 * Give up the output held, so that it no longer counts against the
+		 * limit of all the ranges
+		 */
+		void release() {
+			held.addAndGet(-size);
+			size = 0;
+			buffers.clear();
+		}
+	}
+	
+	private DecompressingInputStream() {
+		super(QUEUEDEPTH);
+	}
+	
+	/**
+	 * Wrap a stream so that it's decompressed if it holds gzip data. The 
+	 * format is recognized from the first bytes of the stream.
+	 * 
+	 * @param source Stream which may be compressed
+	 * @return stream supplying the decompressed data, or a stream 
+	 * 		   supplying the source unchanged if it isn't compressed
+	 * @throws IOException if the source can't be read, or is compressed
+	 * 		   in an unsupported format
+	 */
+	public static InputStream open(InputStream source) throws IOException {
+		BufferedInputStream in = (source instanceof BufferedInputStream) 
+				? (BufferedInputStream) source : new BufferedInputStream(source, BUFSIZE);
+		in.mark(4);
+		byte[] head = new byte[4];
+		int n = 0;
+		while (n < head.length) {
+			int r = in.read(head, n, head.length - n);
+			if (r < 0) {
+				break;
+			}
+			n += r;
+		}
+		in.reset();
+		checkSupported(head, n);
+		if (!isGzip(head, n)) {
+			return in;
+		}
+		
+		DecompressingInputStream stream = new DecompressingInputStream();
+		return stream.start(() -> {
+			try (GZIPInputStream gzin = new GZIPInputStream(in, BUFSIZE)) {
+				byte[] buf = new byte[BUFSIZE];
+				int len;
+				while ((len = gzin.read(buf)) > 0) {
+					stream.put(Arrays.copyOf(buf, len));
+				}
+			}
+		}, THREADNAME);
+	}
+	
+	/**
+	 * Open a local gzip file, inflating its members concurrently on a pool.
+	 * A file whose first range holds no other member, such as the single 
+	 * member written by gzip, can't be split and is inflated as a stream.
+	 * 
+	 * @param path Path of the gzip file
+	 * @param pool Pool on which byte ranges of the file are inflated
+	 * @return stream supplying the decompressed data
+	 * @throws IOException if the file can't be opened or isn't gzip data
+	 */
+	public static InputStream open(Path path, ForkJoinPool pool) throws IOException {
+		// Test preconditions
+		if (!isCompressed(path)) {
+			throw new IOException(path+" isn't a gzip file.");
+		}
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		long firstEnd = Math.min(channel.size(), RANGESIZE);
+		GzipMemberInflater probe = new GzipMemberInflater(channel, channel.size());
+		boolean split;
+		try {
+			split = probe.findMember(1, firstEnd) < firstEnd;
+		} catch (IOException ioex) {
+			channel.close();
+			throw ioex;
+		} finally {
+			probe.close();
+		}
+		if (!split) {
+			channel.close();
+			return open(Files.newInputStream(path));
+		}
+		DecompressingInputStream stream = new DecompressingInputStream();
+		return stream.start(() -> {
+			try {
+				stream.inflateRanges(channel, pool);
+			} finally {
+				channel.close();
+			}
+		}, THREADNAME);
+	}
+	
+	/**
+	 * Determine whether a local file is compressed in a supported format
+	 * 
+	 * @param path Path of the file
+	 * @return true if the file holds gzip data
+	 * @throws IOException if the file is compressed in an unsupported 
+	 * 		   format, or can't be read
+	 */
+	public static boolean isCompressed(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer head = ByteBuffer.allocate(4);
+			while (head.hasRemaining() && channel.read(head) > 0) {
+			}
+			checkSupported(head.array(), head.position());
+			return isGzip(head.array(), head.position());
+		}
+	}
+	
+	private static boolean isGzip(byte[] head, int n) {
+		return n >= 2 && ((head[0] & 0xff) | (head[1] & 0xff) << 8) == GZIPMAGIC;
+	}
+	
+	private static void checkSupported(byte[] head, int n) throws IOException {
+		if (n >= 4 && ((head[0] & 0xff) | (head[1] & 0xff) << 8 
+				| (head[2] & 0xff) << 16 | (head[3] & 0xff) << 24) == ZSTDMAGIC) {
+			throw new IOException("Zstandard compressed input isn't supported.");
+		}
+	}
+	
+	/**
+	 * Inflate a local gzip file a byte range at a time. Ranges are inflated
+	 * on the pool, keeping a limited number ahead of the one being passed
+	 * to the reader. The output of a range is used if its first member 
+	 * starts where the previous range's last member ended. Otherwise the 
+	 * range is inflated here, passing the output directly to the reader.
+	 */
+	private void inflateRanges(FileChannel channel, ForkJoinPool pool) 
+			throws IOException, InterruptedException {
+		long size = channel.size();
+		int rangeCount = (int) Math.max(1, (size + RANGESIZE - 1) / RANGESIZE);
+		int rangesAhead = pool.getParallelism() * 2;
+		AtomicLong held = new AtomicLong();
+		Deque<Future<RangeOutput>> pending = new ArrayDeque<>();
+		GzipMemberInflater inflater = new GzipMemberInflater(channel, size);
+		try {
+			long expected = 0;
+			int submitted = 0;
+			for (int i = 0; i < rangeCount; i++) {
+				for (; submitted < rangeCount && submitted <= i + rangesAhead; submitted++) {
+					final long rangeStart = submitted * RANGESIZE;
+					final long rangeEnd = Math.min(size, rangeStart + RANGESIZE);
+					pending.add(pool.submit(() -> inflateRange(channel, size, rangeStart, rangeEnd, held)));
+				}
+				RangeOutput output = null;
+				try {
+					output = pending.poll().get();
+				} catch (ExecutionException ee) {
+					// Inflated below instead
+				}
+				long rangeEnd = Math.min(size, (i + 1) * RANGESIZE);
+				boolean used = false;
+				if (expected < rangeEnd && output != null && output.start == expected) {
+					for (byte[] buf : output.buffers) {
+						put(buf);
+					}
+					expected = output.end;
+					used = true;
+				}
+				if (output != null) {
+					output.release();
+				}
+				if (expected < rangeEnd && !used) {
+					expected = inflater.inflate(expected, rangeEnd, 
+							(buf, len) -> { put(Arrays.copyOf(buf, len)); return true; });
+				}
+			}
+		} finally {
+			inflater.close();
+			for (Future<RangeOutput> future : pending) {
+				future.cancel(true);
+			}
+		}
+	}
+	
+	/**
+	 * Inflate the members starting in a byte range. A range in which no 
+	 * member starts is left empty, since its data belongs to a member
+	 * started in an earlier range.
+	 * 
+	 * @return output of the range, or null if it can't be inflated
+	 * 		   independently
+	 */
+	private static RangeOutput inflateRange(FileChannel channel, long size, long rangeStart, 
+			long rangeEnd, AtomicLong held) throws InterruptedException {
+		GzipMemberInflater inflater = new GzipMemberInflater(channel, size);
+		RangeOutput output = null;
+		try {
+			output = new RangeOutput((rangeStart == 0) ? 0 : inflater.findMember(rangeStart, rangeEnd), held);
+			if (output.start < rangeEnd) {
+				output.end = inflater.inflate(output.start, rangeEnd, output::add);
+				if (output.end == GzipMemberInflater.STOPPED) {
+					return null;
+				}
+			}
+			return output;
+		} catch (IOException ioex) {
+			// A false start within compressed data
+			if (output != null) {
+				output.release();
+			}
+			return null;
+		} finally {
+			inflater.close();
+		}
+	}
+}
@@ -0,0 +1,432 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.util.Arrays;
+
+/**
+ * Splits a sample line into fields and converts the fields of interest
+ * into float values without creating any intermediate objects. Fields are
+ * separated by one or more spaces or tabs, and any leading spaces or tabs
+ * are ignored.
+ * <p>
+ * The tokenizer scans the characters of the line directly, skipping the
+ * fields which aren't of interest without converting them and stopping 
+ * once the last field number to be scanned has been reached. The fields 
+ * of interest are described by a table mapping each field number to its
+ * position in the converted values, which is built once when the 
+ * tokenizer is created. The converted values are placed in a buffer owned
+ * by the tokenizer that is reused for every line, so a single instance 
+ * must not be shared between threads. The positions of every field 
+ * scanned, including those which aren't converted, are also recorded so 
+ * that callers can interpret them separately.
+ * <p>
+ * In validating mode each field of interest is checked to be a plain 
+ * decimal number, or NaN, before it's converted. A line holding a field 
+ * which isn't is reported by converting fewer fields than expected, in 
+ * the same way as a line which is too short, rather than by an exception.
+ * <p>
+ * A converted value which marks a missing observation is replaced by NaN
+ * as it's converted, so the accumulators can skip it without a separate
+ * filtering pass. A value is missing if it's NaN, equals the sentinel 
+ * value of its field, or lies outside the field's physical range. The 
+ * sentinels and ranges are set with setScreening.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class FieldTokenizer {
+
+	// Powers of ten which can be represented exactly as a float. Any 
+	// mantissa up to 2^24, which is also exact as a float, scaled by one of
+	// these in float arithmetic is rounded only once, so the result is 
+	// correctly rounded. Scaling in double and then narrowing to float 
+	// would round twice, which can leave the result an ulp out.
+	private static final float[] POW10 = {
+		1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+	};
+	private static final long MAXEXACTMANTISSA = 1L << 24;
+	private static final int  MAXMANTISSADIGITS = 15;
+	
+	// Position in values of each field number, or SKIP if the field isn't
+	// converted
+	private static final int SKIP = -1;
+	private final int[]   slotOf;
+	private final int     lastFldNo;
+	private final float[] values;
+	private final float[] missing;
+	private final float[] low;
+	private final float[] high;
+	private final int[]   fieldStarts;
+	private final int[]   fieldEnds;
+	private int           fieldsScanned = 0;
+	private boolean       validating = false;
+	
+	/**
+	 * Create a tokenizer for the fields startFldNo through endFldNo of a
+	 * line, where the first field on the line is field number zero.
+	 * 
+	 * @param startFldNo Number of the first field to be converted
+	 * @param endFldNo Number of the last field to be converted
+	 */
+	public FieldTokenizer(int startFldNo, int endFldNo) {
+		this(fieldRange(startFldNo, endFldNo), endFldNo);
+	}
+	
+	/**
+	 * Create a tokenizer for an arbitrary set of fields of a line. The 
+	 * value of fldNos[i] is placed in position i of the converted values.
+	 * 
+	 * @param fldNos Numbers of the fields to be converted
+	 * @param lastFldNo Number of the last field to be scanned, which must 
+	 * 		  be no less than any of fldNos. Fields beyond it are ignored.
+	 */
+	public FieldTokenizer(int[] fldNos, int lastFldNo) {
+		// Test preconditions
+		if (fldNos.length == 0 || lastFldNo < 0) {
+			throw new IllegalArgumentException("Invalid fields passed with last field "+lastFldNo+".");
+		}
+		this.slotOf = new int[lastFldNo + 1];
+		Arrays.fill(slotOf, SKIP);
+		for (int i = 0; i < fldNos.length; i++) {
+			if (fldNos[i] < 0 || fldNos[i] > lastFldNo || slotOf[fldNos[i]] != SKIP) {
+				throw new IllegalArgumentException("Invalid field number of "+fldNos[i]+" passed.");
+			}
+			slotOf[fldNos[i]] = i;
+		}
+		this.lastFldNo = lastFldNo;
+		this.values = new float[fldNos.length];
+		this.missing = new float[fldNos.length];
+		this.low = new float[fldNos.length];
+		this.high = new float[fldNos.length];
+		Arrays.fill(missing, Float.NaN);
+		Arrays.fill(low, Float.NaN);
+		Arrays.fill(high, Float.NaN);
+		this.fieldStarts = new int[lastFldNo + 1];
+		this.fieldEnds = new int[lastFldNo + 1];
+	}
+	
+	private static int[] fieldRange(int startFldNo, int endFldNo) {
+		// Test preconditions
+		if (startFldNo < 0 || endFldNo < startFldNo) {
+			throw new IllegalArgumentException("Invalid field range of "+startFldNo+"-"+endFldNo+" passed.");
+		}
+		int[] fldNos = new int[endFldNo - startFldNo + 1];
+		for (int i = 0; i < fldNos.length; i++) {
+			fldNos[i] = startFldNo + i;
+		}
+		return fldNos;
+	}
+	
+	/**
+	 * Select whether fields are checked before they're converted
+	 * 
+	 * @param validating true to stop converting at the first field which
+	 * 		  isn't a plain decimal number rather than throw an exception
+	 */
+	public void setValidating(boolean validating) {
+		this.validating = validating;
+	}
+	
+	/**
+	 * Set the values of a field which are treated as missing. Comparisons
+	 * with NaN always fail, so passing NaN disables that test.
+	 * 
+	 * @param slot Position of the field in the converted values
+	 * @param sentinel Value marking a missing observation, or NaN if there
+	 * 		  is none
+	 * @param low Lowest physically possible value, or NaN if unknown
+	 * @param high Highest physically possible value, or NaN if unknown
+	 */
+	public void setScreening(int slot, float sentinel, float low, float high) {
+		// Test preconditions
+		if (slot < 0 || slot >= values.length) {
+			throw new IllegalArgumentException("Invalid slot of "+slot+" passed.");
+		}
+		this.missing[slot] = sentinel;
+		this.low[slot] = low;
+		this.high[slot] = high;
+	}
+	
+	/**
+	 * Convert the fields of interest in a line. The converted values are
+	 * available from values() until the next call, with missing values 
+	 * replaced by NaN.
+	 * 
+	 * @param line Sample line to be converted
+	 * @return number of fields converted. This will be less than the 
+	 * 		   number of fields of interest if the line is too short, or in
+	 * 		   validating mode if a field isn't a number.
+	 * @throws NumberFormatException if a field of interest isn't a number
+	 * 		   and the tokenizer isn't validating
+	 */
+	public int tokenize(CharSequence line) {
+		final int len = line.length();
+		int pos = 0;
+		int fldNo = 0;
+		int converted = 0;
+		
+		while (fldNo <= lastFldNo) {
+			// Skip delimiters to reach the start of the next field
+			while (pos < len && isDelim(line.charAt(pos))) {
+				pos++;
+			}
+			if (pos >= len) {
+				break;
+			}
+			int fldStart = pos;
+			while (pos < len && !isDelim(line.charAt(pos))) {
+				pos++;
+			}
+			fieldStarts[fldNo] = fldStart;
+			fieldEnds[fldNo] = pos;
+			int slot = slotOf[fldNo];
+			if (slot != SKIP) {
+				if (validating && !isDecimal(line, fldStart, pos) && !isNaN(line, fldStart, pos)) {
+					break;
+				}
+				float value = parseFloat(line, fldStart, pos);
+				if (value != value || value == missing[slot] || value < low[slot] || value > high[slot]) {
+					value = Float.NaN;
+				}
+				values[slot] = value;
+				converted++;
+			}
+			fldNo++;
+		}
+		fieldsScanned = fldNo;
+		return converted;
+	}
+	
+	/**
+	 * Return the buffer holding the values converted by the last call to
+	 * tokenize(). The values are in the order the fields were passed to 
+	 * the constructor, so position zero holds the value of the first.
+	 * 
+	 * @return converted values
+	 */
+	public float[] values() {
+		return values;
+	}
+	
+	/**
+	 * Return the position of the first character of a field on the line 
+	 * passed to the last call of tokenize(). Only fields up to the last
+	 * field number scanned that were present on the line are recorded.
+	 * 
+	 * @param fldNo Field number
+	 * @return position of the start of the field, or -1 if it wasn't 
+	 * 		   scanned
+	 */
+	public int fieldStart(int fldNo) {
+		return (fldNo < fieldsScanned) ? fieldStarts[fldNo] : -1;
+	}
+	
+	/**
+	 * @param fldNo Field number
+	 * @return position following the last character of the field, or -1 
+	 * 		   if it wasn't scanned
+	 */
+	public int fieldEnd(int fldNo) {
+		return (fldNo < fieldsScanned) ? fieldEnds[fldNo] : -1;
+	}
+	
+	/**
+	 * @return number of fields of interest
+	 */
+	public int fieldCount() {
+		return values.length;
+	}
+	
+	private static boolean isDelim(char c) {
+		return c == ' ' || c == '\t';
+	}
+	
+	/**
+	 * Determine whether positions start through end-1 of a character 
+	 * sequence hold the text NaN, which parseFloat converts to NaN
+	 */
+	private static boolean isNaN(CharSequence s, int start, int end) {
+		return end - start == 3 && s.charAt(start) == 'N' && s.charAt(start + 1) == 'a' 
+				&& s.charAt(start + 2) == 'N';
+	}
+	
+	/**
+	 * Determine whether positions start through end-1 of a character 
+	 * sequence hold a plain decimal number with an optional sign, fraction
+	 * and exponent
+	 * 
+	 * @param s Character sequence containing the field
+	 * @param start Position of the first character of the field
+	 * @param end Position following the last character of the field
+	 * @return true if parseFloat will convert the field
+	 */
+	public static boolean isDecimal(CharSequence s, int start, int end) {
+		int pos = start;
+		if (pos < end && (s.charAt(pos) == '-' || s.charAt(pos) == '+')) {
+			pos++;
+		}
+		boolean sawDigit = false;
+		boolean sawPoint = false;
+		for (; pos < end; pos++) {
+			char c = s.charAt(pos);
+			if (c >= '0' && c <= '9') {
+				sawDigit = true;
+			} else if (c == '.' && !sawPoint) {
+				sawPoint = true;
+			} else {
+				break;
+			}
+		}
+		if (!sawDigit) {
+			return false;
+		}
+		if (pos < end) {
+			char c = s.charAt(pos++);
+			if (c != 'e' && c != 'E') {
+				return false;
+			}
+			if (pos < end && (s.charAt(pos) == '-' || s.charAt(pos) == '+')) {
+				pos++;
+			}
+			if (pos >= end) {
+				return false;
+			}
+			for (; pos < end; pos++) {
+				char d = s.charAt(pos);
+				if (d < '0' || d > '9') {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Convert the decimal number held in positions start through end-1 of 
+	 * a character sequence to a float. Plain decimal numbers with an 
+	 * optional sign, fraction and exponent are converted directly when the
+	 * result can be rounded correctly in one step. Anything else, such as 
+	 * "NaN" or a number with more than about seven significant digits, is
+	 * handed to Float.parseFloat.
+	 * 
+	 * @param s Character sequence containing the number
+	 * @param start Position of the first character of the number
+	 * @param end Position following the last character of the number
+	 * @return converted value
+	 * @throws NumberFormatException if the characters aren't a number
+	 */
+	public static float parseFloat(CharSequence s, int start, int end) {
+		int pos = start;
+		boolean negative = false;
+		
+		if (pos < end && (s.charAt(pos) == '-' || s.charAt(pos) == '+')) {
+			negative = s.charAt(pos) == '-';
+			pos++;
+		}
+		
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean sawDigit = false;
+		boolean sawPoint = false;
+		
+		for (; pos < end; pos++) {
+			char c = s.charAt(pos);
+			if (c >= '0' && c <= '9') {
+				sawDigit = true;
+				if (mantissa != 0 || c != '0') {
+					digits++;
+				}
+				mantissa = mantissa * 10 + (c - '0');
+				if (sawPoint) {
+					exponent--;
+				}
+				if (digits > MAXMANTISSADIGITS) {
+					return slowParse(s, start, end);
+				}
+			} else if (c == '.' && !sawPoint) {
+				sawPoint = true;
+			} else {
+				break;
+			}
+		}
+		if (!sawDigit) {
+			return slowParse(s, start, end);
+		}
+		
+		// Optional exponent
+		if (pos < end) {
+			char c = s.charAt(pos);
+			if (c != 'e' && c != 'E') {
+				return slowParse(s, start, end);
+			}
+			pos++;
+			boolean expNegative = false;
+			if (pos < end && (s.charAt(pos) == '-' || s.charAt(pos) == '+')) {
+				expNegative = s.charAt(pos) == '-';
+				pos++;
+			}
+			if (pos >= end) {
+				return slowParse(s, start, end);
+			}
+			int exp = 0;
+			for (; pos < end; pos++) {
+				c = s.charAt(pos);
+				if (c < '0' || c > '9' || exp > 1000) {
+					return slowParse(s, start, end);
+				}
+				exp = exp * 10 + (c - '0');
+			}
+			exponent += expNegative ? -exp : exp;
+		}
+		
+		return toFloat(negative, mantissa, exponent, s, start, end);
+	}
+	
+	/**
+	 * Scale a decimal mantissa by a power of ten, falling back to 
+	 * Float.parseFloat when the result can't be correctly rounded by a 
+	 * single float operation.
+	 */
+	private static float toFloat(boolean negative, long mantissa, int exponent, 
+			CharSequence s, int start, int end) {
+		float value;
+		if (mantissa == 0) {
+			value = 0.0f;
+		} else if (mantissa > MAXEXACTMANTISSA || exponent < -10 || exponent > 10) {
+			return slowParse(s, start, end);
+		} else if (exponent < 0) {
+			value = mantissa / POW10[-exponent];
+		} else {
+			value = mantissa * POW10[exponent];
+		}
+		return negative ? -value : value;
+	}
+	
+	private static float slowParse(CharSequence s, int start, int end) {
+		return Float.parseFloat(s.subSequence(start, end).toString());
+	}
+}
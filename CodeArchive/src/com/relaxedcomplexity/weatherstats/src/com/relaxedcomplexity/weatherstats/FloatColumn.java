@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable column of primitive float values. This replaces the use of
+ * an ArrayList of boxed Float objects to hold the observations for a single
+ * observation type. Each value occupies four bytes in a single backing 
+ * array rather than a separate object on the heap plus a reference to it.
+ * <p>
+ * The column is sized from a capacity hint when it is created and grows
+ * by half its current size whenever it fills.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class FloatColumn {
+
+	private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+	
+	private float[] values;
+	private int     size = 0;
+	
+	/**
+	 * Create a column able to hold capacityHint values before it must grow
+	 * 
+	 * @param capacityHint Expected number of values to be added
+	 */
+	public FloatColumn(int capacityHint) {
+		// Test preconditions
+		if (capacityHint < 0) {
+			throw new IllegalArgumentException("Invalid capacityHint of "+capacityHint+" passed.");
+		}
+		values = new float[Math.max(capacityHint, 16)];
+	}
+	
+	/**
+	 * Append a value to the end of the column
+	 * 
+	 * @param value Value to be added
+	 */
+	public void add(float value) {
+		if (size == values.length) {
+			grow(size + 1);
+		}
+		values[size++] = value;
+	}
+	
+	/**
+	 * Append all of the values held by another column to the end of this 
+	 * one
+	 * 
+	 * @param other Column holding the values to be added
+	 */
+	public void addAll(FloatColumn other) {
+		int n = other.size;
+		if (size + n > values.length) {
+			grow(size + n);
+		}
+		System.arraycopy(other.values, 0, values, size, n);
+		size += n;
+	}
+	
+	/**
+	 * Append values read from a buffer to the end of this column
+	 * 
+	 * @param src Buffer holding the values
+	 * @param n Number of values to be read
+	 */
+	void addAll(FloatBuffer src, int n) {
+		if (size + n > values.length) {
+			grow(size + n);
+		}
+		src.get(values, size, n);
+		size += n;
+	}
+	
+	/**
+	 * Retrieve the value at a given position in the column
+	 * 
+	 * @param index Position of the value
+	 * @return value at that position
+	 */
+	public float get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+		}
+		return values[index];
+	}
+	
+	/**
+	 * @return number of values held in the column
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Sort the values held in the column into ascending order
+	 */
+	public void sort() {
+		Arrays.sort(values, 0, size);
+	}
+	
+	/**
+	 * Remove all values from the column while retaining its capacity
+	 */
+	public void clear() {
+		size = 0;
+	}
+	
+	/**
+	 * Return the backing array of the column. Only the first size() 
+	 * positions contain valid values.
+	 * 
+	 * @return backing array
+	 */
+	public float[] array() {
+		return values;
+	}
+	
+	/**
+	 * Increase the capacity of the column so that it can hold at least
+	 * minCapacity values.
+	 * 
+	 * @param minCapacity Minimum number of values the column must hold
+	 */
+	private void grow(int minCapacity) {
+		if (minCapacity < 0 || minCapacity > MAX_CAPACITY) {
+			throw new OutOfMemoryError("FloatColumn capacity exceeded");
+		}
+		long newCapacity = (long) values.length + (values.length >> 1);
+		newCapacity = Math.max(newCapacity, minCapacity);
+		newCapacity = Math.min(newCapacity, MAX_CAPACITY);
+		values = Arrays.copyOf(values, (int) newCapacity);
+	}
+}
@@ -0,0 +1,402 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Finds the most frequent values of a stream in constant memory. Two 
+ * sketches are kept together:
+ * <ul>
+ * <li>A Space-Saving summary, described by Metwally, Agrawal and El Abbadi
+ * in "Efficient Computation of Frequent and Top-k Elements in Data 
+ * Streams" (ICDT, 2005), monitors up to capacity values. When an 
+ * unmonitored value arrives it replaces the one with the smallest count, 
+ * inheriting that count as its possible overestimate. Any value occurring
+ * more than total / capacity times is guaranteed to be monitored.
+ * <li>A Count-Min sketch, described by Cormode and Muthukrishnan in "An 
+ * Improved Data Stream Summary: The Count-Min Sketch and its Applications"
+ * (J. Algorithms, 2005), adds each value to one counter in each of DEPTH
+ * rows. The smallest of its counters never underestimates a value's count.
+ * </ul>
+ * Both only overestimate, so the smaller of their counts is reported. 
+ * Space-Saving also bounds the count from below.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class FrequencySketch {
+
+	private static final int DEPTH = 4;
+	private static final int WIDTH = 1 << 10;
+	
+	private final long[] counters = new long[DEPTH * WIDTH];
+	private final int    capacity;
+	private final int[]  keys;
+	private final long[] counts;
+	private final long[] errors;
+	private int          size = 0;
+	private int          last = -1;
+	private long         total = 0;
+	
+	// The monitored values are located through an open addressing table 
+	// holding each one's position plus one, and a min-heap of positions 
+	// ordered by count gives the value to be replaced. Counts only rise, so
+	// an entry need only ever move down the heap.
+	private final int[]  slots;
+	private final int[]  heap;
+	private final int[]  heapPos;
+	
+	/**
+	 * Create an empty sketch
+	 * 
+	 * @param capacity Number of values monitored by the Space-Saving 
+	 * 		  summary
+	 */
+	public FrequencySketch(int capacity) {
+		// Test preconditions
+		if (capacity <= 0 || capacity > (1 << 20)) {
+			throw new IllegalArgumentException("Invalid capacity of "+capacity+" passed.");
+		}
+		this.capacity = capacity;
+		this.keys = new int[capacity];
+		this.counts = new long[capacity];
+		this.errors = new long[capacity];
+		this.slots = new int[Integer.highestOneBit(capacity) << 2];
+		this.heap = new int[capacity];
+		this.heapPos = new int[capacity];
+	}
+	
+	/**
+	 * Add a value to the stream
+	 * 
+	 * @param key Value to be added, such as the bits of a float
+	 */
+	public void add(int key) {
+		total++;
+		long h = HyperLogLog.hash(key);
+		int h1 = (int) h;
+		int h2 = (int) (h >>> 32);
+		for (int d = 0; d < DEPTH; d++) {
+			counters[d * WIDTH + ((h1 + d * h2) & (WIDTH - 1))]++;
+		}
+		
+		// Observations tend to repeat the previous value, so it's checked 
+		// before the monitored values are searched
+		int i = (last >= 0 && keys[last] == key) ? last : indexOf(key, h1);
+		if (i < 0) {
+			if (size < capacity) {
+				// A new entry has the smallest possible count, so it rises to
+				// the root of the heap
+				i = size++;
+				counts[i] = 0;
+				errors[i] = 0;
+				siftUp(i, i);
+			} else {
+				i = heap[0];
+				remove(keys[i]);
+				errors[i] = counts[i];
+			}
+			keys[i] = key;
+			insert(h1, i);
+		}
+		counts[i]++;
+		siftDown(heapPos[i]);
+		last = i;
+	}
+	
+	/**
+	 * @return position of a monitored value, or -1 if it isn't monitored
+	 */
+	private int indexOf(int key, int h1) {
+		int mask = slots.length - 1;
+		for (int p = h1 & mask; slots[p] != 0; p = (p + 1) & mask) {
+			if (keys[slots[p] - 1] == key) {
+				return slots[p] - 1;
+			}
+		}
+		return -1;
+	}
+	
+	private int indexOf(int key) {
+		return indexOf(key, (int) HyperLogLog.hash(key));
+	}
+	
+	private void insert(int h1, int i) {
+		int mask = slots.length - 1;
+		int p = h1 & mask;
+		while (slots[p] != 0) {
+			p = (p + 1) & mask;
+		}
+		slots[p] = i + 1;
+	}
+	
+	/**
+	 * Remove a value from the table, moving back any value further along 
+	 * its probe sequence so that no gap is left in it
+	 */
+	private void remove(int key) {
+		int mask = slots.length - 1;
+		int p = (int) HyperLogLog.hash(key) & mask;
+		while (keys[slots[p] - 1] != key) {
+			p = (p + 1) & mask;
+		}
+		slots[p] = 0;
+		for (int q = (p + 1) & mask; slots[q] != 0; q = (q + 1) & mask) {
+			int home = (int) HyperLogLog.hash(keys[slots[q] - 1]) & mask;
+			// Move the value unless its home lies cyclically after the gap
+			if (((q - home) & mask) >= ((q - p) & mask)) {
+				slots[p] = slots[q];
+				slots[q] = 0;
+				p = q;
+			}
+		}
+	}
+	
+	private void siftUp(int pos, int i) {
+		long count = counts[i];
+		while (pos > 0 && counts[heap[(pos - 1) / 2]] > count) {
+			heap[pos] = heap[(pos - 1) / 2];
+			heapPos[heap[pos]] = pos;
+			pos = (pos - 1) / 2;
+		}
+		heap[pos] = i;
+		heapPos[i] = pos;
+	}
+	
+	private void siftDown(int pos) {
+		int i = heap[pos];
+		long count = counts[i];
+		for (int child = 2 * pos + 1; child < size; child = 2 * pos + 1) {
+			if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+				child++;
+			}
+			if (counts[heap[child]] >= count) {
+				break;
+			}
+			heap[pos] = heap[child];
+			heapPos[heap[pos]] = pos;
+			pos = child;
+		}
+		heap[pos] = i;
+		heapPos[i] = pos;
+	}
+	
+	/**
+	 * Rebuild the table and heap after the monitored values are replaced
+	 */
+	private void reindex() {
+		Arrays.fill(slots, 0);
+		for (int i = 0; i < size; i++) {
+			insert((int) HyperLogLog.hash(keys[i]), i);
+			heap[i] = i;
+			heapPos[i] = i;
+		}
+		for (int pos = size / 2 - 1; pos >= 0; pos--) {
+			siftDown(pos);
+		}
+		last = -1;
+	}
+	
+	private int smallest() {
+		return heap[0];
+	}
+	
+	/**
+	 * @return number of values added
+	 */
+	public long getTotal() {
+		return total;
+	}
+	
+	/**
+	 * Return the most frequent values, in descending order of their 
+	 * estimated count. Values with equal counts are in ascending order, 
+	 * so the result doesn't depend on the order the values were added.
+	 * 
+	 * @param n Largest number of values returned
+	 * @return up to n of the monitored values
+	 */
+	public int[] top(int n) {
+		// Test preconditions
+		if (n < 0) {
+			throw new IllegalArgumentException("Invalid n of "+n+" passed.");
+		}
+		long[] estimates = new long[size];
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			estimates[i] = Math.min(counts[i], countMin(keys[i]));
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> estimates[a] != estimates[b] 
+				? Long.compare(estimates[b], estimates[a]) : Integer.compare(keys[a], keys[b]));
+		int[] result = new int[Math.min(n, size)];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = keys[order[i]];
+		}
+		return result;
+	}
+	
+	/**
+	 * @param key Value whose count is estimated
+	 * @return estimated number of times the value was added, which is never
+	 * 		   less than the true count
+	 */
+	public long estimate(int key) {
+		long estimate = countMin(key);
+		int i = indexOf(key);
+		if (i >= 0) {
+			estimate = Math.min(estimate, counts[i]);
+		} else if (size == capacity) {
+			estimate = Math.min(estimate, counts[smallest()]);
+		}
+		return estimate;
+	}
+	
+	/**
+	 * @return smallest of the Count-Min counters of a value
+	 */
+	private long countMin(int key) {
+		long estimate = Long.MAX_VALUE;
+		long h = HyperLogLog.hash(key);
+		int h1 = (int) h;
+		int h2 = (int) (h >>> 32);
+		for (int d = 0; d < DEPTH; d++) {
+			estimate = Math.min(estimate, counters[d * WIDTH + ((h1 + d * h2) & (WIDTH - 1))]);
+		}
+		return estimate;
+	}
+	
+	/**
+	 * @param key Value whose count is bounded
+	 * @return number of times the value is certain to have been added
+	 */
+	public long guaranteed(int key) {
+		int i = indexOf(key);
+		return (i < 0) ? 0 : counts[i] - errors[i];
+	}
+	
+	/**
+	 * Combine the values added to another sketch with those of this one.
+	 * The Space-Saving summaries are combined as described by Agarwal et 
+	 * al. in "Mergeable Summaries" (PODS, 2012): counts of values monitored
+	 * by both are summed, a value missing from a full summary is credited 
+	 * with that summary's smallest count, and the largest capacity counts 
+	 * are kept.
+	 * 
+	 * @param other Sketch to be combined, which must have the same capacity
+	 */
+	public void merge(FrequencySketch other) {
+		// Test preconditions
+		if (other.capacity != capacity) {
+			throw new IllegalArgumentException("Sketch with capacity "+other.capacity+" passed.");
+		}
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] += other.counters[i];
+		}
+		total += other.total;
+		
+		long floor = (size == capacity) ? counts[smallest()] : 0;
+		long otherFloor = (other.size == capacity) ? other.counts[other.smallest()] : 0;
+		int[] mergedKeys = new int[size + other.size];
+		long[] mergedCounts = new long[mergedKeys.length];
+		long[] mergedErrors = new long[mergedKeys.length];
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			int j = other.indexOf(keys[i]);
+			mergedKeys[n] = keys[i];
+			mergedCounts[n] = counts[i] + (j < 0 ? otherFloor : other.counts[j]);
+			mergedErrors[n++] = errors[i] + (j < 0 ? otherFloor : other.errors[j]);
+		}
+		for (int j = 0; j < other.size; j++) {
+			if (indexOf(other.keys[j]) < 0) {
+				mergedKeys[n] = other.keys[j];
+				mergedCounts[n] = other.counts[j] + floor;
+				mergedErrors[n++] = other.errors[j] + floor;
+			}
+		}
+		
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(mergedCounts[b], mergedCounts[a]));
+		size = Math.min(n, capacity);
+		for (int i = 0; i < size; i++) {
+			keys[i] = mergedKeys[order[i]];
+			counts[i] = mergedCounts[order[i]];
+			errors[i] = mergedErrors[order[i]];
+		}
+		reindex();
+	}
+	
+	/**
+	 * @param capacity Number of values monitored by the sketch
+	 * @return number of bytes written by writeTo
+	 */
+	static int stateSize(int capacity) {
+		return 4 + 4 + 8 + 8 * DEPTH * WIDTH + (4 + 8 + 8) * capacity;
+	}
+	
+	/**
+	 * Write the state of the sketch to a buffer
+	 * 
+	 * @param buf Buffer to which the state is written
+	 */
+	void writeTo(ByteBuffer buf) {
+		buf.putInt(capacity);
+		buf.putInt(size);
+		buf.putLong(total);
+		buf.asLongBuffer().put(counters);
+		buf.position(buf.position() + 8 * counters.length);
+		for (int i = 0; i < capacity; i++) {
+			buf.putInt(keys[i]);
+			buf.putLong(counts[i]);
+			buf.putLong(errors[i]);
+		}
+	}
+	
+	/**
+	 * Recreate a sketch from the state written by writeTo
+	 * 
+	 * @param buf Buffer from which the state is read
+	 * @return sketch in the same state as the one written
+	 */
+	static FrequencySketch readFrom(ByteBuffer buf) {
+		FrequencySketch sketch = new FrequencySketch(buf.getInt());
+		sketch.size = buf.getInt();
+		sketch.total = buf.getLong();
+		buf.asLongBuffer().get(sketch.counters);
+		buf.position(buf.position() + 8 * sketch.counters.length);
+		for (int i = 0; i < sketch.capacity; i++) {
+			sketch.keys[i] = buf.getInt();
+			sketch.counts[i] = buf.getLong();
+			sketch.errors[i] = buf.getLong();
+		}
+		sketch.reindex();
+		return sketch;
+	}
+}
@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates the members of a gzip file held in a byte range of a local 
+ * file. A gzip file may hold several members one after the other, as 
+ * produced by concatenating gzip files or by block compressors such as
+ * bgzip, and each member can be inflated without reference to the others.
+ * This allows separate ranges of a file to be inflated concurrently, each
+ * by its own instance.
+ * <p>
+ * Since a member's length isn't recorded in its header, the start of the
+ * first member in a range is found by scanning for the gzip signature. The
+ * signature may also occur by chance within compressed data, so callers 
+ * must confirm that a range's first member starts where the previous 
+ * range's last member ended. The CRC of each member is checked, which 
+ * rejects most false starts.
+ * 
+ * @author jim.medlock
+ *
+ */
+class GzipMemberInflater {
+
+	/**
+	 * Receives the bytes inflated from a member
+	 */
+	interface Sink {
+		/**
+		 * @param buf Buffer holding the inflated bytes. It's reused once 
+		 * 		  the call returns.
+		 * @param len Number of bytes in the buffer
+		 * @return false to stop inflating
+		 */
+		boolean accept(byte[] buf, int len) throws InterruptedException;
+	}
+	
+	// Return value of inflate when the sink stops inflation
+	static final long STOPPED = -1;
+	
+	private static final int  ID1 = 0x1f;
+	private static final int  ID2 = 0x8b;
+	private static final int  DEFLATE = 8;
+	private static final int  FHCRC = 0x02;
+	private static final int  FEXTRA = 0x04;
+	private static final int  FNAME = 0x08;
+	private static final int  FCOMMENT = 0x10;
+	private static final int  FRESERVED = 0xe0;
+	private static final int  INBUFSIZE = 65536;
+	private static final int  OUTBUFSIZE = 65536;
+	
+	private final FileChannel channel;
+	private final long        size;
+	private final byte[]      in = new byte[INBUFSIZE];
+	private final byte[]      out = new byte[OUTBUFSIZE];
+	private final Inflater    inflater = new Inflater(true);
+	private final CRC32       crc = new CRC32();
+	
+	// File offset of in[0], and the number of valid and consumed bytes
+	private long              inStart = 0;
+	private int               inLen = 0;
+	private int               inPos = 0;
+	
+	/**
+	 * Create an inflater reading from a channel. The channel may be shared
+	 * with other instances, since it's only read with positional reads.
+	 * 
+	 * @param channel Channel open on the gzip file
+	 * @param size Size of the file
+	 */
+	GzipMemberInflater(FileChannel channel, long size) {
+		this.channel = channel;
+		this.size = size;
+	}
+	
+	/**
+	 * Find the first position in a byte range which holds a gzip member 
+	 * header signature
+	 * 
+	 * @param pos Starting position
+	 * @param limit Position at which the search stops
+	 * @return offset of the signature, or limit if there is none before it
+	 * @throws IOException if the file can't be read
+	 */
+	long findMember(long pos, long limit) throws IOException {
+		seek(pos);
+		while (true) {
+			if (inStart + inPos >= limit) {
+				return limit;
+			}
+			if (inLen - inPos < 4) {
+				long next = inStart + inPos;
+				seek(next);
+				if (inLen < 4) {
+					return limit;
+				}
+			}
+			if ((in[inPos] & 0xff) == ID1 && (in[inPos+1] & 0xff) == ID2 
+					&& in[inPos+2] == DEFLATE && (in[inPos+3] & FRESERVED) == 0) {
+				return inStart + inPos;
+			}
+			inPos++;
+		}
+	}
+	
+	/**
+	 * Inflate consecutive members starting at start, continuing until a 
+	 * member ends at or after limit. Anything other than a member header
+	 * following a member is ignored, as it is by GZIPInputStream.
+	 * 
+	 * @param start Offset of the first member header
+	 * @param limit Offset at or after which no further member is started
+	 * @param sink Receives the inflated bytes
+	 * @return offset following the last member inflated, or STOPPED if the
+	 * 		   sink stopped inflation
+	 * @throws IOException if start isn't a member or a member is corrupt
+	 * @throws InterruptedException if interrupted while passing bytes to 
+	 * 		   the sink
+	 */
+	long inflate(long start, long limit, Sink sink) throws IOException, InterruptedException {
+		long pos = start;
+		seek(pos);
+		while (pos < limit && pos < size) {
+			if (!readHeader()) {
+				if (pos == start) {
+					throw new ZipException("Not in GZIP format at offset "+start);
+				}
+				return size;
+			}
+			inflater.reset();
+			crc.reset();
+			try {
+				while (!inflater.finished()) {
+					if (inflater.needsInput()) {
+						if (inPos == inLen && !fill()) {
+							throw new EOFException("Unexpected end of ZLIB input stream");
+						}
+						inflater.setInput(in, inPos, inLen - inPos);
+						inPos = inLen;
+					}
+					int n = inflater.inflate(out);
+					if (n > 0) {
+						crc.update(out, 0, n);
+						if (!sink.accept(out, n)) {
+							return STOPPED;
+						}
+					} else if (inflater.needsDictionary()) {
+						throw new ZipException("Deflate dictionaries aren't supported");
+					}
+				}
+			} catch (DataFormatException dfe) {
+				throw new ZipException("Corrupt member at offset "+pos+": "+dfe.getMessage());
+			}
+			inPos -= inflater.getRemaining();
+			
+			long memberCrc = readInt() & 0xffffffffL;
+			long memberSize = readInt() & 0xffffffffL;
+			if (memberCrc != crc.getValue() || memberSize != (inflater.getBytesWritten() & 0xffffffffL)) {
+				throw new ZipException("Corrupt GZIP trailer for member at offset "+pos);
+			}
+			pos = inStart + inPos;
+		}
+		return pos;
+	}
+	
+	void close() {
+		inflater.end();
+	}
+	
+	/**
+	 * Read a member header, leaving the input positioned at its compressed
+	 * data
+	 * 
+	 * @return false if the input isn't positioned at a member header
+	 */
+	private boolean readHeader() throws IOException {
+		if (inLen - inPos < 10) {
+			fillKeeping();
+			if (inLen - inPos < 10) {
+				return false;
+			}
+		}
+		if ((in[inPos] & 0xff) != ID1 || (in[inPos+1] & 0xff) != ID2 || in[inPos+2] != DEFLATE) {
+			return false;
+		}
+		int flags = in[inPos+3] & 0xff;
+		if ((flags & FRESERVED) != 0) {
+			return false;
+		}
+		inPos += 10;
+		if ((flags & FEXTRA) != 0) {
+			int extraLen = readByte() | (readByte() << 8);
+			for (int i = 0; i < extraLen; i++) {
+				readByte();
+			}
+		}
+		if ((flags & FNAME) != 0) {
+			while (readByte() != 0) {
+			}
+		}
+		if ((flags & FCOMMENT) != 0) {
+			while (readByte() != 0) {
+			}
+		}
+		if ((flags & FHCRC) != 0) {
+			readByte();
+			readByte();
+		}
+		return true;
+	}
+	
+	private int readByte() throws IOException {
+		if (inPos == inLen && !fill()) {
+			throw new EOFException("Unexpected end of GZIP member");
+		}
+		return in[inPos++] & 0xff;
+	}
+	
+	private int readInt() throws IOException {
+		return readByte() | (readByte() << 8) | (readByte() << 16) | (readByte() << 24);
+	}
+	
+	/**
+	 * Position the input buffer at a file offset and fill it
+	 */
+	private void seek(long pos) throws IOException {
+		inStart = pos;
+		inLen = 0;
+		inPos = 0;
+		read();
+	}
+	
+	/**
+	 * Replace the input buffer with the bytes following it
+	 * 
+	 * @return false at the end of the file
+	 */
+	private boolean fill() throws IOException {
+		inStart += inLen;
+		inLen = 0;
+		inPos = 0;
+		return read() > 0;
+	}
+	
+	/**
+	 * Refill the input buffer starting at the current position, keeping 
+	 * any unconsumed bytes
+	 */
+	private void fillKeeping() throws IOException {
+		seek(inStart + inPos);
+	}
+	
+	private int read() throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(in, inLen, in.length - inLen);
+		while (buf.hasRemaining() && inStart + inLen < size) {
+			int n = channel.read(buf, inStart + inLen);
+			if (n <= 0) {
+				break;
+			}
+			inLen += n;
+		}
+		return inLen;
+	}
+}
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Live metrics of an ingest, which can be watched while it runs. The 
+ * ingest records each batch of lines as it's processed, giving the 
+ * number of lines and bytes in it and the time taken to process it, so 
+ * the cost is a few counter updates per batch rather than per line. 
+ * Batches may be recorded from several threads at once.
+ * <p>
+ * The metrics are published as an MBean once registered, and may also be
+ * written as periodic log lines through java.util.logging.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class IngestMetrics implements IngestMetricsMBean, AutoCloseable {
+
+	public static final String DOMAIN = "com.relaxedcomplexity.weatherstats";
+	
+	private static final Logger LOGGER = Logger.getLogger(IngestMetrics.class.getName());
+	
+	private final LongAdder        lines = new LongAdder();
+	private final LongAdder        bytes = new LongAdder();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private volatile long          rejectCount = 0;
+	private volatile long          missingCount = 0;
+	private volatile long          startNanos = System.nanoTime();
+	
+	private ObjectName               objectName = null;
+	private ScheduledExecutorService logScheduler = null;
+	
+	/**
+	 * Record a batch of lines which has been processed
+	 * 
+	 * @param lineCount Number of lines in the batch
+	 * @param byteCount Number of bytes in the batch
+	 * @param nanos Time taken to process the batch, in nanoseconds
+	 */
+	public void recordBatch(long lineCount, long byteCount, long nanos) {
+		lines.add(lineCount);
+		bytes.add(byteCount);
+		latency.record(nanos);
+	}
+	
+	/**
+	 * @param rejectCount Number of lines rejected as malformed so far
+	 */
+	public void setRejectCount(long rejectCount) {
+		this.rejectCount = rejectCount;
+	}
+	
+	/**
+	 * @param missingCount Number of missing observation values so far
+	 */
+	public void setMissingCount(long missingCount) {
+		this.missingCount = missingCount;
+	}
+	
+	@Override
+	public long getLinesRead() {
+		return lines.sum();
+	}
+	
+	@Override
+	public long getBytesRead() {
+		return bytes.sum();
+	}
+	
+	@Override
+	public double getElapsedSeconds() {
+		return (System.nanoTime() - startNanos) / 1e9;
+	}
+	
+	@Override
+	public double getLinesPerSecond() {
+		return getLinesRead() / getElapsedSeconds();
+	}
+	
+	@Override
+	public double getBytesPerSecond() {
+		return getBytesRead() / getElapsedSeconds();
+	}
+	
+	@Override
+	public long getBatchCount() {
+		return latency.getCount();
+	}
+	
+	@Override
+	public double getBatchLatencyP50Micros() {
+		return latency.getPercentile(0.5) / 1e3;
+	}
+	
+	@Override
+	public double getBatchLatencyP99Micros() {
+		return latency.getPercentile(0.99) / 1e3;
+	}
+	
+	@Override
+	public double getBatchLatencyP999Micros() {
+		return latency.getPercentile(0.999) / 1e3;
+	}
+	
+	@Override
+	public double getBatchLatencyMaxMicros() {
+		return latency.getMax() / 1e3;
+	}
+	
+	@Override
+	public long getRejectCount() {
+		return rejectCount;
+	}
+	
+	@Override
+	public long getMissingCount() {
+		return missingCount;
+	}
+	
+	@Override
+	public void reset() {
+		lines.reset();
+		bytes.reset();
+		latency.reset();
+		rejectCount = 0;
+		missingCount = 0;
+		startNanos = System.nanoTime();
+	}
+	
+	/**
+	 * Publish the metrics through the platform MBean server
+	 * 
+	 * @param name Name distinguishing this ingest from any others in the 
+	 * 		  same JVM, such as the name of its data source
+	 * @throws JMException if the MBean can't be registered
+	 */
+	public void register(String name) throws JMException {
+		// Test preconditions
+		if (objectName != null) {
+			throw new IllegalStateException("The metrics are already registered.");
+		}
+		ObjectName on = new ObjectName(DOMAIN+":type=IngestMetrics,name="+ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+		objectName = on;
+	}
+	
+	/**
+	 * Stop publishing the metrics through the platform MBean server
+	 */
+	public void unregister() {
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException jmex) {
+				// Already unregistered
+			}
+			objectName = null;
+		}
+	}
+	
+	/**
+	 * Write a log line summarizing the metrics at a fixed interval. The 
+	 * rates on each line are those over the preceding interval.
+	 * 
+	 * @param intervalSeconds Seconds between log lines
+	 */
+	public synchronized void startLogging(long intervalSeconds) {
+		// Test preconditions
+		if (intervalSeconds <= 0) {
+			throw new IllegalArgumentException("Invalid intervalSeconds of "+intervalSeconds+" passed.");
+		}
+		stopLogging();
+		logScheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "WeatherStats-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long[] last = {getLinesRead(), getBytesRead(), System.nanoTime()};
+		logScheduler.scheduleAtFixedRate(() -> {
+			long lineCount = getLinesRead();
+			long byteCount = getBytesRead();
+			long now = System.nanoTime();
+			double seconds = (now - last[2]) / 1e9;
+			LOGGER.info(String.format("%,d lines (%,.0f/s), %,.1f MB (%,.1f MB/s), "
+					+"batch p50 %,.0f us p99 %,.0f us max %,.0f us, %,d rejected, %,d missing",
+					lineCount, (lineCount - last[0]) / seconds, 
+					byteCount / 1e6, (byteCount - last[1]) / 1e6 / seconds,
+					getBatchLatencyP50Micros(), getBatchLatencyP99Micros(), getBatchLatencyMaxMicros(),
+					getRejectCount(), getMissingCount()));
+			last[0] = lineCount;
+			last[1] = byteCount;
+			last[2] = now;
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+	
+	public synchronized void stopLogging() {
+		if (logScheduler != null) {
+			logScheduler.shutdownNow();
+			logScheduler = null;
+		}
+	}
+	
+	/**
+	 * Stop logging and unregister the MBean
+	 */
+	@Override
+	public void close() {
+		stopLogging();
+		unregister();
+	}
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+/**
+ * Management interface of IngestMetrics, through which the progress of an
+ * ingest can be watched with JMX tools such as JConsole while it runs.
+ * 
+ * @author jim.medlock
+ *
+ */
+public interface IngestMetricsMBean {
+
+	/**
+	 * @return number of sample lines processed
+	 */
+	long getLinesRead();
+	
+	/**
+	 * @return number of bytes of sample lines processed
+	 */
+	long getBytesRead();
+	
+	/**
+	 * @return seconds since the metrics were created or reset
+	 */
+	double getElapsedSeconds();
+	
+	/**
+	 * @return average number of lines processed per second
+	 */
+	double getLinesPerSecond();
+	
+	/**
+	 * @return average number of bytes processed per second
+	 */
+	double getBytesPerSecond();
+	
+	/**
+	 * @return number of batches of lines whose processing was timed
+	 */
+	long getBatchCount();
+	
+	/**
+	 * @return median time taken to process a batch, in microseconds
+	 */
+	double getBatchLatencyP50Micros();
+	
+	/**
+	 * @return 99th percentile of the time taken to process a batch, in 
+	 * 		   microseconds
+	 */
+	double getBatchLatencyP99Micros();
+	
+	/**
+	 * @return 99.9th percentile of the time taken to process a batch, in 
+	 * 		   microseconds
+	 */
+	double getBatchLatencyP999Micros();
+	
+	/**
+	 * @return longest time taken to process a batch, in microseconds
+	 */
+	double getBatchLatencyMaxMicros();
+	
+	/**
+	 * @return number of lines rejected as malformed
+	 */
+	long getRejectCount();
+	
+	/**
+	 * @return number of observation values which were missing or outside
+	 * 		   their physical range
+	 */
+	long getMissingCount();
+	
+	/**
+	 * Discard the metrics gathered so far
+	 */
+	void reset();
+}
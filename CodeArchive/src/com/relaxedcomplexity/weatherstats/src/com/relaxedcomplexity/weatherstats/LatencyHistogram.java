@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies which may be recorded from several threads at
+ * once without locking. In the same way as HdrHistogram, values are 
+ * counted in buckets whose width grows with their magnitude: each power 
+ * of two range is split into SUBBUCKETS equal buckets, so every value is
+ * counted with a relative error of at most 1/SUBBUCKETS, which is about 
+ * 3%. A fixed array of counters therefore covers every positive long 
+ * value, and recording a value costs a few bit operations and an atomic
+ * increment.
+ * 
+ * @author jim.medlock
+ *
+ */
+class LatencyHistogram {
+
+	private static final int SUBBITS = 5;
+	static final int         SUBBUCKETS = 1 << SUBBITS;
+	private static final int BUCKETS = (64 - SUBBITS + 1) * SUBBUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong      totalCount = new AtomicLong();
+	private final AtomicLong      max = new AtomicLong();
+	
+	/**
+	 * Count a value
+	 * 
+	 * @param value Value to be counted, where a negative value is counted 
+	 * 		  as zero
+	 */
+	void record(long value) {
+		value = Math.max(0, value);
+		counts.incrementAndGet(indexOf(value));
+		totalCount.incrementAndGet();
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+		}
+	}
+	
+	/**
+	 * @return number of values counted
+	 */
+	long getCount() {
+		return totalCount.get();
+	}
+	
+	/**
+	 * @return largest value counted, or zero if there are none
+	 */
+	long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Return a percentile of the values counted. The result is the upper
+	 * bound of the bucket holding the percentile, or the largest value 
+	 * counted if that's lower, so it may overstate the percentile by up to
+	 * the bucket's width but never understates it.
+	 * 
+	 * @param p Percentile, in the range 0.0-1.0
+	 * @return value of the percentile, or zero if there are no values
+	 */
+	long getPercentile(double p) {
+		// Test preconditions
+		if (!(p >= 0.0 && p <= 1.0)) {
+			throw new IllegalArgumentException("Invalid p of "+p+" passed.");
+		}
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		long target = Math.max(1, (long) Math.ceil(p * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestOf(i), getMax());
+			}
+		}
+		return 0;
+	}
+	
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		max.set(0);
+	}
+	
+	/**
+	 * @return bucket counting a value
+	 */
+	static int indexOf(long value) {
+		if (value < SUBBUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUBBITS)) & (SUBBUCKETS - 1);
+		return (exponent - SUBBITS + 1) * SUBBUCKETS + sub;
+	}
+	
+	/**
+	 * @return smallest value counted by a bucket
+	 */
+	static long lowestOf(int index) {
+		if (index < SUBBUCKETS) {
+			return index;
+		}
+		int exponent = index / SUBBUCKETS + SUBBITS - 1;
+		return (long) (SUBBUCKETS + index % SUBBUCKETS) << (exponent - SUBBITS);
+	}
+	
+	/**
+	 * @return largest value counted by a bucket
+	 */
+	static long highestOf(int index) {
+		return (index + 1 < BUCKETS) ? lowestOf(index + 1) - 1 : Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads lines from a local file by mapping it into memory rather than 
+ * streaming it through a BufferedReader. Lines are located by scanning the
+ * mapped bytes for line feeds and are returned as views of the mapped
+ * region, so no bytes are copied and no character decoding takes place.
+ * <p>
+ * Since a single mapping is limited to 2GB the file is mapped in segments.
+ * When a line straddles the end of a segment the next segment is mapped
+ * starting at the beginning of that line.
+ * <p>
+ * A reader may also be restricted to a range of bytes within the file, 
+ * which allows several readers to process separate parts of the same file.
+ * The range should begin at the start of a line and end following a line 
+ * feed or at the end of the file.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class MappedLineReader implements Closeable {
+
+	private static final long DEFAULTSEGMENTSIZE = 1L << 30;
+	
+	private final FileChannel      channel;
+	private final long             fileSize;
+	private final long             rangeEnd;
+	private final long             segmentSize;
+	private final ByteSequence     line = new ByteSequence();
+	
+	private MappedByteBuffer segment = null;
+	private long             segmentStart = 0;
+	private int              pos = 0;
+	
+	/**
+	 * Open a local file for reading
+	 * 
+	 * @param path Path of the file
+	 * @throws IOException if the file can't be opened or mapped
+	 */
+	public MappedLineReader(Path path) throws IOException {
+		this(path, DEFAULTSEGMENTSIZE);
+	}
+	
+	/**
+	 * Open a local file for reading, mapping it in segments of a given size
+	 * 
+	 * @param path Path of the file
+	 * @param segmentSize Maximum number of bytes mapped at one time. This
+	 * 		  must be larger than the longest line in the file.
+	 * @throws IOException if the file can't be opened or mapped
+	 */
+	MappedLineReader(Path path, long segmentSize) throws IOException {
+		this(path, 0, Long.MAX_VALUE, segmentSize);
+	}
+	
+	/**
+	 * Open a range of bytes in a local file for reading
+	 * 
+	 * @param path Path of the file
+	 * @param rangeStart Offset of the first byte to be read
+	 * @param rangeEnd Offset following the last byte to be read. This is 
+	 * 		  limited to the size of the file.
+	 * @throws IOException if the file can't be opened or mapped
+	 */
+	public MappedLineReader(Path path, long rangeStart, long rangeEnd) throws IOException {
+		this(path, rangeStart, rangeEnd, DEFAULTSEGMENTSIZE);
+	}
+	
+	private MappedLineReader(Path path, long rangeStart, long rangeEnd, long segmentSize) 
+			throws IOException {
+		// Test preconditions
+		if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid segmentSize of "+segmentSize+" passed.");
+		}
+		if (rangeStart < 0 || rangeEnd < rangeStart) {
+			throw new IllegalArgumentException("Invalid range of "+rangeStart+"-"+rangeEnd+" passed.");
+		}
+		this.segmentSize = segmentSize;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.fileSize = channel.size();
+		this.rangeEnd = Math.min(rangeEnd, fileSize);
+		mapSegment(Math.min(rangeStart, this.rangeEnd));
+	}
+	
+	/**
+	 * Read the next line from the file. The returned sequence is only 
+	 * valid until the next call to readLine(). Line terminators, whether
+	 * LF or CRLF, aren't included.
+	 * 
+	 * @return the next line, or null at the end of the file
+	 * @throws IOException if a line is longer than a segment
+	 */
+	public CharSequence readLine() throws IOException {
+		while (true) {
+			int limit = segment.limit();
+			for (int i = pos; i < limit; i++) {
+				if (segment.get(i) == '\n') {
+					return nextLine(i, i + 1);
+				}
+			}
+			
+			if (segmentStart + limit >= rangeEnd) {
+				// The final line may not be terminated
+				return (pos < limit) ? nextLine(limit, limit) : null;
+			}
+			if (pos == 0) {
+				throw new IOException("Line at offset "+segmentStart+" exceeds the segment size of "
+						+segmentSize+" bytes.");
+			}
+			mapSegment(segmentStart + pos);
+		}
+	}
+	
+	/**
+	 * @return offset in the file of the next byte to be read
+	 */
+	public long position() {
+		return segmentStart + pos;
+	}
+	
+	/**
+	 * @return size of the file in bytes
+	 */
+	public long size() {
+		return fileSize;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		segment = null;
+		channel.close();
+	}
+	
+	private CharSequence nextLine(int end, int nextPos) {
+		int start = pos;
+		if (end > start && segment.get(end - 1) == '\r') {
+			end--;
+		}
+		pos = nextPos;
+		return line.set(segment, start, end);
+	}
+	
+	private void mapSegment(long start) throws IOException {
+		long length = Math.min(segmentSize, rangeEnd - start);
+		segment = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+		segmentStart = start;
+		pos = 0;
+	}
+}
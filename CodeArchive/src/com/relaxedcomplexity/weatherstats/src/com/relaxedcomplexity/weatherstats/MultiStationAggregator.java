@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Calculates statistics for several observation stations at once. Each
+ * station's data source is processed by its own WeatherStats engine on a
+ * bounded pool of threads. Once every station has been processed their 
+ * engines are merged into a global rollup, so the global mean and median
+ * are computed from the per-station state without reading any data again.
+ * Stations may use different line layouts, provided their schemas define
+ * the same observation types.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class MultiStationAggregator {
+
+	private final int threads;
+	
+	private final Map<String, Schema>       schemas = new HashMap<>();
+	private final Map<String, WeatherStats> stationStats = new LinkedHashMap<>();
+	private WeatherStats globalStats = null;
+	
+	/**
+	 * Create an aggregator
+	 * 
+	 * @param threads Maximum number of stations processed concurrently
+	 */
+	public MultiStationAggregator(int threads) {
+		// Test preconditions
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Invalid threads of "+threads+" passed.");
+		}
+		this.threads = threads;
+	}
+	
+	/**
+	 * Set the layout of a station's sample lines. Stations without a 
+	 * schema use the Deep Moor layout.
+	 * 
+	 * @param station Station name
+	 * @param schema Layout of the station's sample lines
+	 */
+	public void setSchema(String station, Schema schema) {
+		schemas.put(station, schema);
+	}
+	
+	/**
+	 * Process the data source of each station and build the global rollup
+	 * 
+	 * @param sources URL or local file name of each station's data, keyed
+	 * 		  by station name
+	 * @param parallel true to also parse each local file on multiple threads
+	 * @throws InterruptedException if interrupted while waiting for a station
+	 */
+	public void aggregate(Map<String, String> sources, boolean parallel) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Map<String, Future<WeatherStats>> results = new LinkedHashMap<>();
+		try {
+			for (Map.Entry<String, String> source : sources.entrySet()) {
+				results.put(source.getKey(), executor.submit(() -> {
+					WeatherStats weatherStats = 
+							new WeatherStats(schemas.getOrDefault(source.getKey(), Schema.DEEPMOOR));
+					weatherStats.process(source.getValue(), parallel);
+					weatherStats.calculateStats();
+					return weatherStats;
+				}));
+			}
+			
+			stationStats.clear();
+			globalStats = null;
+			for (Map.Entry<String, Future<WeatherStats>> result : results.entrySet()) {
+				WeatherStats weatherStats = result.getValue().get();
+				stationStats.put(result.getKey(), weatherStats);
+				if (globalStats == null) {
+					globalStats = new WeatherStats(weatherStats.getSchema());
+				}
+				globalStats.merge(weatherStats);
+			}
+			if (globalStats == null) {
+				globalStats = new WeatherStats();
+			}
+			globalStats.calculateStats();
+		} catch (ExecutionException ee) {
+			throw new IllegalStateException("Unable to process station data", ee.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * @return engine for each station, in the order the sources were passed
+	 */
+	public Map<String, WeatherStats> getStationStats() {
+		return stationStats;
+	}
+	
+	/**
+	 * @return engine holding the merged observations of every station
+	 */
+	public WeatherStats getGlobalStats() {
+		return globalStats;
+	}
+	
+	/**
+	 * @param args URLs or local file names of the station data. The file
+	 * 		  name portion of each is used as the station name.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		Map<String, String> sources = new LinkedHashMap<>();
+		for (String source : args) {
+			sources.put(Paths.get(source).getFileName().toString(), source);
+		}
+		
+		MultiStationAggregator aggregator = 
+				new MultiStationAggregator(Runtime.getRuntime().availableProcessors());
+		aggregator.aggregate(sources, false);
+		for (Map.Entry<String, WeatherStats> station : aggregator.getStationStats().entrySet()) {
+			System.out.println("Station: "+station.getKey()+"\n");
+			station.getValue().printStats();
+			System.out.println();
+		}
+		System.out.println("All Stations\n");
+		aggregator.getGlobalStats().printStats();
+	}
+}
@@ -0,0 +1,407 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The observations of a data set loaded into memory once, so that any 
+ * number of queries can be run against them without parsing the data 
+ * again. Each observation type is held in a primitive float column, with 
+ * missing values held as NaN, alongside a column holding the time of each
+ * sample line.
+ * <p>
+ * The rows are divided into blocks of BLOCKSIZE rows. A zone map records
+ * the smallest and largest value of each column within each block, along
+ * with the number of missing values, so that a query can skip the blocks
+ * which can't hold a matching row and accept whole blocks in which every
+ * row matches without examining them.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class ObservationTable {
+
+	static final int BLOCKSHIFT = 12;
+	static final int BLOCKSIZE = 1 << BLOCKSHIFT;
+	
+	private static final int     DEFAULTCAPACITY = 131072;
+	private static final Pattern CONDITION = Pattern.compile("(\\w+)\\s*(<=|>=|<|>|=)\\s*(\\S+)");
+	
+	private final Schema        schema;
+	private final int           fieldCount;
+	private final FloatColumn[] columns;
+	private long[]              timestamps = new long[DEFAULTCAPACITY];
+	private int                 rowCount = 0;
+	private long                rejectCount = 0;
+	
+	// Zone maps, holding for each block the extremes of each column and 
+	// the number of missing values in it
+	private float[][] blockMin;
+	private float[][] blockMax;
+	private int[][]   blockMissing;
+	private long[]    blockTimeMin = new long[0];
+	private long[]    blockTimeMax = new long[0];
+	
+	/**
+	 * Create an empty table
+	 * 
+	 * @param schema Layout of the sample lines whose observations are held
+	 */
+	public ObservationTable(Schema schema) {
+		this.schema = schema;
+		this.fieldCount = schema.getFieldCount();
+		this.columns = new FloatColumn[fieldCount];
+		this.blockMin = new float[fieldCount][0];
+		this.blockMax = new float[fieldCount][0];
+		this.blockMissing = new int[fieldCount][0];
+		for (int j = 0; j < fieldCount; j++) {
+			columns[j] = new FloatColumn(DEFAULTCAPACITY);
+		}
+	}
+	
+	/**
+	 * Add the observations from a single sample line
+	 * 
+	 * @param timestamp Time of the sample in seconds since the epoch, or
+	 * 		  TimestampParser.INVALID if it isn't known
+	 * @param fields Value of each observation type, or NaN if it's missing
+	 */
+	public void add(long timestamp, float[] fields) {
+		int block = rowCount >>> BLOCKSHIFT;
+		if ((rowCount & (BLOCKSIZE - 1)) == 0) {
+			startBlock(block, timestamp);
+		}
+		if (rowCount == timestamps.length) {
+			timestamps = Arrays.copyOf(timestamps, timestamps.length + (timestamps.length >> 1));
+		}
+		timestamps[rowCount++] = timestamp;
+		blockTimeMin[block] = Math.min(blockTimeMin[block], timestamp);
+		blockTimeMax[block] = Math.max(blockTimeMax[block], timestamp);
+		for (int j = 0; j < fieldCount; j++) {
+			float f = fields[j];
+			columns[j].add(f);
+			if (f != f) {
+				blockMissing[j][block]++;
+			} else if (!(f >= blockMin[j][block])) {
+				// The first value of the block is both its minimum and maximum
+				blockMin[j][block] = f;
+				if (!(f <= blockMax[j][block])) {
+					blockMax[j][block] = f;
+				}
+			} else if (f > blockMax[j][block]) {
+				blockMax[j][block] = f;
+			}
+		}
+	}
+	
+	/**
+	 * Start the zone maps of a new block
+	 */
+	private void startBlock(int block, long timestamp) {
+		if (block == blockTimeMin.length) {
+			int capacity = Math.max(16, block * 2);
+			blockTimeMin = Arrays.copyOf(blockTimeMin, capacity);
+			blockTimeMax = Arrays.copyOf(blockTimeMax, capacity);
+			for (int j = 0; j < fieldCount; j++) {
+				blockMin[j] = Arrays.copyOf(blockMin[j], capacity);
+				blockMax[j] = Arrays.copyOf(blockMax[j], capacity);
+				blockMissing[j] = Arrays.copyOf(blockMissing[j], capacity);
+			}
+		}
+		blockTimeMin[block] = timestamp;
+		blockTimeMax[block] = timestamp;
+		for (int j = 0; j < fieldCount; j++) {
+			blockMin[j][block] = Float.NaN;
+			blockMax[j][block] = Float.NaN;
+			blockMissing[j][block] = 0;
+		}
+	}
+	
+	/**
+	 * Load the observations of a data source, skipping its header line. 
+	 * Lines which are malformed, or whose date and time can't be converted
+	 * when the schema has date and time columns, are counted and skipped.
+	 * 
+	 * @param source URL or local file name of the observation data, which
+	 * 		  may be gzip compressed
+	 * @param schema Layout of the sample lines
+	 * @return table holding the observations
+	 * @throws IOException if the data source can't be read
+	 */
+	public static ObservationTable load(String source, Schema schema) throws IOException {
+		ObservationTable table = new ObservationTable(schema);
+		FieldTokenizer tokenizer = schema.newTokenizer();
+		tokenizer.setValidating(true);
+		TimestampParser timestampParser = new TimestampParser();
+		boolean timed = schema.getDateIndex() >= 0 && schema.getTimeIndex() >= 0;
+		
+		try (BufferedReader rdr = new BufferedReader(
+				new InputStreamReader(open(source), StandardCharsets.UTF_8))) {
+			String line = rdr.readLine();		// skip the header line
+			while ((line = rdr.readLine()) != null) {
+				if (tokenizer.tokenize(line) < tokenizer.fieldCount()) {
+					table.rejectCount++;
+					continue;
+				}
+				long timestamp = TimestampParser.INVALID;
+				if (timed) {
+					timestamp = timestampParser.parse(line, 
+							tokenizer.fieldStart(schema.getDateIndex()), tokenizer.fieldEnd(schema.getDateIndex()),
+							tokenizer.fieldStart(schema.getTimeIndex()), tokenizer.fieldEnd(schema.getTimeIndex()));
+					if (timestamp == TimestampParser.INVALID) {
+						table.rejectCount++;
+						continue;
+					}
+				}
+				table.add(timestamp, tokenizer.values());
+			}
+		}
+		return table;
+	}
+	
+	/**
+	 * Open a data source, decompressing it if it's gzip compressed
+	 */
+	private static InputStream open(String source) throws IOException {
+		Path path = null;
+		try {
+			path = Paths.get(source);
+		} catch (InvalidPathException ipe) {
+			// Not a local file
+		}
+		if (path != null && Files.isRegularFile(path)) {
+			return DecompressingInputStream.isCompressed(path) 
+					? DecompressingInputStream.open(path, ForkJoinPool.commonPool())
+					: Files.newInputStream(path);
+		}
+		try {
+			return DecompressingInputStream.open(AsyncFetcher.fetch(new URL(source)).get().getBody());
+		} catch (ExecutionException eex) {
+			throw (eex.getCause() instanceof IOException) 
+					? (IOException) eex.getCause() : new IOException(eex.getCause());
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while opening "+source, iex);
+		}
+	}
+	
+	/**
+	 * @return a new query over the observations held in the table
+	 */
+	public Query query() {
+		return new Query(this);
+	}
+	
+	public Schema getSchema() {
+		return schema;
+	}
+	
+	/**
+	 * @return number of sample lines held
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+	
+	/**
+	 * @return number of sample lines skipped while loading the table
+	 */
+	public long getRejectCount() {
+		return rejectCount;
+	}
+	
+	public int getBlockCount() {
+		return (rowCount + BLOCKSIZE - 1) >>> BLOCKSHIFT;
+	}
+	
+	/**
+	 * @param fieldIdx Index of the observation type in the schema
+	 * @param row Number of the sample line
+	 * @return value of the observation, or NaN if it's missing
+	 */
+	public float get(int fieldIdx, int row) {
+		return columns[fieldIdx].get(row);
+	}
+	
+	/**
+	 * @param row Number of the sample line
+	 * @return time of the sample in seconds since the epoch
+	 */
+	public long getTimestamp(int row) {
+		// Test preconditions
+		if (row < 0 || row >= rowCount) {
+			throw new IllegalArgumentException("Invalid row of "+row+" passed.");
+		}
+		return timestamps[row];
+	}
+	
+	/**
+	 * @return true if the time of each sample line is known
+	 */
+	public boolean isTimed() {
+		return schema.getDateIndex() >= 0 && schema.getTimeIndex() >= 0;
+	}
+	
+	/**
+	 * @param name Name of an observation type
+	 * @return index of the observation type in the schema
+	 * @throws IllegalArgumentException if the schema has no such type
+	 */
+	int fieldIndex(String name) {
+		String[] names = schema.getFieldNames();
+		for (int j = 0; j < names.length; j++) {
+			if (names[j].equals(name)) {
+				return j;
+			}
+		}
+		throw new IllegalArgumentException("Unknown observation type "+name+" passed.");
+	}
+	
+	float[] column(int fieldIdx) {
+		return columns[fieldIdx].array();
+	}
+	
+	long[] timestamps() {
+		return timestamps;
+	}
+	
+	float blockMin(int fieldIdx, int block) {
+		return blockMin[fieldIdx][block];
+	}
+	
+	float blockMax(int fieldIdx, int block) {
+		return blockMax[fieldIdx][block];
+	}
+	
+	int blockMissing(int fieldIdx, int block) {
+		return blockMissing[fieldIdx][block];
+	}
+	
+	long blockTimeMin(int block) {
+		return blockTimeMin[block];
+	}
+	
+	long blockTimeMax(int block) {
+		return blockTimeMax[block];
+	}
+	
+	/**
+	 * @param block Number of the block
+	 * @return number of rows held in the block
+	 */
+	int blockRows(int block) {
+		return Math.min(BLOCKSIZE, rowCount - (block << BLOCKSHIFT));
+	}
+	
+	/**
+	 * Load a data source and run a single query against it, printing the
+	 * result
+	 * 
+	 * @param args Optional flags followed by the URL or local file name of
+	 * 		  the observation data. The flags are:
+	 * 		  <ul>
+	 * 		  <li>-schema file to read the layout of the sample lines from a
+	 * 		      schema descriptor file rather than using the Deep Moor 
+	 * 		      layout
+	 * 		  <li>-where condition to select only the sample lines meeting a
+	 * 		      condition such as Air_Temp&lt;0, where the comparison is 
+	 * 		      one of &lt; &lt;= &gt; &gt;= or =. All of the conditions 
+	 * 		      passed must be met.
+	 * 		  <li>-group duration to aggregate the selected lines by time 
+	 * 		      bucket, where duration is such as 6h or 1d
+	 * 		  <li>-agg function:type to aggregate an observation type, where
+	 * 		      function is one of count, sum, mean, min, max, median or 
+	 * 		      stddev. At least one must be passed.
+	 * 		  </ul>
+	 * @throws IOException if the data source or schema can't be read
+	 */
+	public static void main(String[] args) throws IOException {
+		Schema schema = Schema.DEEPMOOR;
+		int argNo = 0;
+		for (; argNo < args.length && args[argNo].equals("-schema") && argNo + 1 < args.length; argNo += 2) {
+			schema = Schema.load(Paths.get(args[argNo + 1]));
+		}
+		
+		// The query is built once the table holding the schema's types is
+		// available, so the flags are only checked here
+		int queryArgs = argNo;
+		for (; argNo < args.length && args[argNo].startsWith("-"); argNo += 2) {
+			if (argNo + 1 >= args.length || !(args[argNo].equals("-where") 
+					|| args[argNo].equals("-group") || args[argNo].equals("-agg"))) {
+				throw new IllegalArgumentException("Unknown option "+args[argNo]+" passed.");
+			}
+		}
+		if (argNo >= args.length) {
+			throw new IllegalArgumentException("No data source passed.");
+		}
+		
+		long startNanos = System.nanoTime();
+		ObservationTable table = load(args[argNo], schema);
+		System.out.printf("Loaded %,d lines in %,.0f ms (%,d rejected)\n\n", table.getRowCount(), 
+				(System.nanoTime() - startNanos) / 1e6, table.getRejectCount());
+		
+		Query query = table.query();
+		for (int i = queryArgs; i < argNo; i += 2) {
+			String value = args[i + 1];
+			if (args[i].equals("-where")) {
+				Matcher m = CONDITION.matcher(value);
+				if (!m.matches()) {
+					throw new IllegalArgumentException("Invalid condition "+value+" passed.");
+				}
+				query.where(m.group(1), m.group(2), Float.parseFloat(m.group(3)));
+			} else if (args[i].equals("-group")) {
+				query.groupBy(WindowedAggregator.parseDuration(value));
+			} else {
+				int colon = value.indexOf(':');
+				if (colon < 0) {
+					throw new IllegalArgumentException("Invalid aggregate "+value+" passed.");
+				}
+				query.aggregate(Query.Aggregate.valueOf(value.substring(0, colon).toUpperCase()), 
+						value.substring(colon + 1));
+			}
+		}
+		
+		startNanos = System.nanoTime();
+		QueryResult result = query.run();
+		double millis = (System.nanoTime() - startNanos) / 1e6;
+		result.print();
+		System.out.printf("\nQuery took %,.1f ms\n", millis);
+	}
+}
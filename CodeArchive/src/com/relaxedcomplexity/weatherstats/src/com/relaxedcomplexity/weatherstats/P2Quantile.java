@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Estimates a single quantile of a stream of values in constant memory
+ * using the P-Square algorithm described by Jain and Chlamtac in "The P2
+ * Algorithm for Dynamic Calculation of Quantiles and Histograms Without
+ * Storing Observations" (CACM, October 1985).
+ * <p>
+ * Five markers are maintained: the minimum, the maximum, the desired 
+ * quantile, and the quantiles halfway between it and the extremes. As each
+ * value is added the marker positions are adjusted and their heights are
+ * moved along a piecewise parabolic curve fitted through their neighbors.
+ * Until five values have been seen the quantile is computed exactly.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class P2Quantile {
+
+	private static final int MARKERS = 5;
+	
+	private final double   p;
+	private final double[] height = new double[MARKERS];
+	private final double[] pos = new double[MARKERS];
+	private final double[] desiredPos = new double[MARKERS];
+	private final double[] increment = new double[MARKERS];
+	private long           count = 0;
+	
+	/**
+	 * Create an estimator for a quantile
+	 * 
+	 * @param p Quantile to be estimated, in the range 0.0-1.0
+	 */
+	public P2Quantile(double p) {
+		// Test preconditions
+		if (!(p >= 0.0 && p <= 1.0)) {
+			throw new IllegalArgumentException("Invalid p of "+p+" passed.");
+		}
+		this.p = p;
+		for (int i = 0; i < MARKERS; i++) {
+			pos[i] = i;
+		}
+		desiredPos[0] = 0;
+		desiredPos[1] = 2 * p;
+		desiredPos[2] = 4 * p;
+		desiredPos[3] = 2 + 2 * p;
+		desiredPos[4] = 4;
+		increment[0] = 0;
+		increment[1] = p / 2;
+		increment[2] = p;
+		increment[3] = (1 + p) / 2;
+		increment[4] = 1;
+	}
+	
+	/**
+	 * Add a value to the stream
+	 * 
+	 * @param x Value to be added
+	 */
+	public void add(double x) {
+		if (count < MARKERS) {
+			height[(int) count++] = x;
+			if (count == MARKERS) {
+				Arrays.sort(height);
+			}
+			return;
+		}
+		count++;
+		
+		// Locate the cell containing x, extending the extremes if needed
+		int k;
+		if (x < height[0]) {
+			height[0] = x;
+			k = 0;
+		} else if (x < height[1]) {
+			k = 0;
+		} else if (x < height[2]) {
+			k = 1;
+		} else if (x < height[3]) {
+			k = 2;
+		} else if (x <= height[4]) {
+			k = 3;
+		} else {
+			height[4] = x;
+			k = 3;
+		}
+		
+		for (int i = k + 1; i < MARKERS; i++) {
+			pos[i]++;
+		}
+		for (int i = 0; i < MARKERS; i++) {
+			desiredPos[i] += increment[i];
+		}
+		
+		// Adjust the heights of the three middle markers if they are off
+		// their desired positions by a full step
+		for (int i = 1; i < MARKERS - 1; i++) {
+			double d = desiredPos[i] - pos[i];
+			if ((d >= 1 && pos[i+1] - pos[i] > 1) || (d <= -1 && pos[i-1] - pos[i] < -1)) {
+				int step = (d > 0) ? 1 : -1;
+				double h = parabolic(i, step);
+				if (height[i-1] < h && h < height[i+1]) {
+					height[i] = h;
+				} else {
+					height[i] = linear(i, step);
+				}
+				pos[i] += step;
+			}
+		}
+	}
+	
+	/**
+	 * @return current estimate of the quantile, or NaN if no values have
+	 * 		   been added
+	 */
+	public double estimate() {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		if (count < MARKERS) {
+			double[] seen = Arrays.copyOf(height, (int) count);
+			Arrays.sort(seen);
+			return seen[(int) Math.round(p * (count - 1))];
+		}
+		return height[2];
+	}
+	
+	/**
+	 * @return quantile being estimated
+	 */
+	public double quantile() {
+		return p;
+	}
+	
+	/**
+	 * @return number of values added
+	 */
+	public long count() {
+		return count;
+	}
+	
+	/**
+	 * @return number of bytes written by writeTo
+	 */
+	static int stateSize() {
+		return 8 + 8 + 3 * MARKERS * 8;
+	}
+	
+	/**
+	 * Write the state of the estimator to a buffer
+	 * 
+	 * @param buf Buffer to which the state is written
+	 */
+	void writeTo(ByteBuffer buf) {
+		buf.putDouble(p);
+		buf.putLong(count);
+		for (int i = 0; i < MARKERS; i++) {
+			buf.putDouble(height[i]);
+			buf.putDouble(pos[i]);
+			buf.putDouble(desiredPos[i]);
+		}
+	}
+	
+	/**
+	 * Recreate an estimator from the state written by writeTo
+	 * 
+	 * @param buf Buffer from which the state is read
+	 * @return estimator in the same state as the one written
+	 */
+	static P2Quantile readFrom(ByteBuffer buf) {
+		P2Quantile estimator = new P2Quantile(buf.getDouble());
+		estimator.count = buf.getLong();
+		for (int i = 0; i < MARKERS; i++) {
+			estimator.height[i] = buf.getDouble();
+			estimator.pos[i] = buf.getDouble();
+			estimator.desiredPos[i] = buf.getDouble();
+		}
+		return estimator;
+	}
+	
+	private double parabolic(int i, int d) {
+		return height[i] + d / (pos[i+1] - pos[i-1])
+				* ((pos[i] - pos[i-1] + d) * (height[i+1] - height[i]) / (pos[i+1] - pos[i])
+				 + (pos[i+1] - pos[i] - d) * (height[i] - height[i-1]) / (pos[i] - pos[i-1]));
+	}
+	
+	private double linear(int i, int d) {
+		return height[i] + d * (height[i+d] - height[i]) / (pos[i+d] - pos[i]);
+	}
+}
@@ -0,0 +1,415 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Parses a stream of observations in stages which run concurrently. The
+ * calling thread reads the stream into pooled byte buffers, each ending at
+ * a line boundary, and parser threads tokenize the lines of each buffer 
+ * directly from its bytes. Buffers pass from the reader to the parsers, 
+ * and back to the pool once parsed, through bounded lock-free ring 
+ * buffers. A reader which gets ahead of the parsers waits for a free 
+ * buffer, which bounds the memory used however slow the parsers are.
+ * <p>
+ * Each buffer carries an accumulator of its own, into which the parser 
+ * of the buffer accumulates its lines. Whichever parser thread finishes a
+ * buffer, the portions parsed from the buffers are passed to a consumer
+ * one at a time and in stream order, so that replaying them reproduces 
+ * the results of a sequential parse exactly. A buffer is only returned 
+ * to the pool once its portion has been consumed, so the observations 
+ * held at any time are bounded by the number of buffers rather than 
+ * growing with the stream.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class PipelinedParser {
+
+	// Number of pooled buffers, which must be a power of two, and their
+	// initial size. A buffer grows if a single line doesn't fit in it.
+	private static final int BUFFERS = 16;
+	private static final int BUFSIZE = 65536;
+	private static final int APPROXLINELEN = 48;
+	
+	private final Schema  schema;
+	private boolean       validating = false;
+	private IngestMetrics metrics = null;
+	
+	/**
+	 * A pooled buffer holding a run of whole lines
+	 */
+	private static class Batch {
+		byte[]        data = new byte[BUFSIZE];
+		ByteBuffer    view = ByteBuffer.wrap(data);
+		final Portion portion = new Portion();
+		long          seq;
+		int           start;
+		int           end;
+		int           filled;
+		
+		void grow() {
+			data = Arrays.copyOf(data, data.length * 2);
+			view = ByteBuffer.wrap(data);
+		}
+	}
+	
+	/**
+	 * The observations parsed from one buffer. A portion is reused along 
+	 * with its buffer, so it mustn't be kept once it has been consumed.
+	 */
+	public static class Portion {
+		private StatsAccumulator accumulator = null;
+		private int              failedAt = -1;
+		
+		/**
+		 * @return accumulator holding the observations of the portion
+		 */
+		public StatsAccumulator getAccumulator() {
+			return accumulator;
+		}
+		
+		/**
+		 * @return number of lines accumulated, excluding those rejected
+		 */
+		public int getLineCount() {
+			return (int) accumulator.getLineCount();
+		}
+		
+		/**
+		 * @return lines rejected as malformed, numbered from zero at the 
+		 * 		   first line of the portion
+		 */
+		RejectBuffer getRejects() {
+			return accumulator.getRejects();
+		}
+		
+		void clear() {
+			if (accumulator != null) {
+				accumulator.clear();
+			}
+			failedAt = -1;
+		}
+	}
+	
+	/**
+	 * Passes parsed buffers to the consumer in stream order, whichever 
+	 * parser thread finished them, and then returns them to the pool. 
+	 * Since the reader numbers the buffers consecutively and only BUFFERS
+	 * of them exist, a finished buffer waits in the slot given by its 
+	 * number until the buffers before it have been consumed.
+	 */
+	private class Sequencer {
+		private final RingBuffer<Batch>          free;
+		private final Consumer<Portion>          consumer;
+		private final AtomicReference<Throwable> failure;
+		private final Batch[]                    waiting = new Batch[BUFFERS];
+		private long                             next = 0;
+		private long                             lineNo = 1;		// the header line
+		
+		Sequencer(RingBuffer<Batch> free, Consumer<Portion> consumer, AtomicReference<Throwable> failure) {
+			this.free = free;
+			this.consumer = consumer;
+			this.failure = failure;
+		}
+		
+		/**
+		 * Accept a finished buffer, consuming it and any buffers following
+		 * it which were finished earlier
+		 */
+		synchronized void complete(Batch batch) throws InterruptedException {
+			waiting[(int) batch.seq & (BUFFERS - 1)] = batch;
+			Batch ready;
+			while ((ready = waiting[(int) next & (BUFFERS - 1)]) != null && ready.seq == next) {
+				waiting[(int) next & (BUFFERS - 1)] = null;
+				next++;
+				consume(ready.portion);
+				ready.portion.clear();
+				free.put(ready);
+			}
+		}
+		
+		/**
+		 * Pass a portion to the consumer, unless the parse has failed
+		 */
+		private void consume(Portion portion) {
+			if (failure.get() != null) {
+				return;
+			}
+			if (portion.failedAt >= 0) {
+				failure.compareAndSet(null, new IllegalArgumentException("Line "+(lineNo + portion.failedAt + 1)
+						+" contains fewer than "+(schema.getLastIndex()+1)+" fields."));
+				return;
+			}
+			try {
+				consumer.accept(portion);
+			} catch (RuntimeException rex) {
+				failure.compareAndSet(null, rex);
+				return;
+			}
+			lineNo += portion.getLineCount() + portion.getRejects().getCount();
+		}
+	}
+	
+	/**
+	 * Create a parser
+	 * 
+	 * @param schema Layout of the sample lines
+	 */
+	public PipelinedParser(Schema schema) {
+		this.schema = schema;
+	}
+	
+	/**
+	 * Select whether malformed lines are rejected rather than ending the
+	 * parse. Rejected lines are recorded by the portion holding them.
+	 * 
+	 * @param validating true to reject malformed lines
+	 */
+	public void setValidating(boolean validating) {
+		this.validating = validating;
+	}
+	
+	/**
+	 * Record each buffer in a set of metrics once it has been parsed
+	 * 
+	 * @param metrics Metrics to be updated, or null for none
+	 */
+	public void setMetrics(IngestMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Parse a stream, skipping its header line. The consumer is called on
+	 * the parser threads, but never by more than one at a time. An 
+	 * exception thrown by the consumer ends the parse, and is thrown by 
+	 * this method.
+	 * 
+	 * @param in Stream of observations
+	 * @param parserCount Number of parser threads
+	 * @param consumer Receives the portion parsed from each buffer, in 
+	 * 		  stream order
+	 * @throws IOException if the stream can't be read
+	 * @throws IllegalArgumentException if a line is missing fields and the
+	 * 		   parser isn't validating
+	 */
+	public void parse(InputStream in, int parserCount, Consumer<Portion> consumer) throws IOException {
+		// Test preconditions
+		if (parserCount < 1) {
+			throw new IllegalArgumentException("Invalid parserCount of "+parserCount+" passed.");
+		}
+		RingBuffer<Batch> free = new RingBuffer<>(BUFFERS);
+		RingBuffer<Batch> full = new RingBuffer<>(BUFFERS);
+		for (int i = 0; i < BUFFERS; i++) {
+			free.offer(new Batch());
+		}
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Sequencer sequencer = new Sequencer(free, consumer, failure);
+		
+		Thread[] parsers = new Thread[parserCount];
+		for (int i = 0; i < parserCount; i++) {
+			parsers[i] = new Thread(() -> {
+				try {
+					parseBatches(full, sequencer, failure);
+				} catch (InterruptedException ie) {
+					failure.compareAndSet(null, ie);
+				} catch (Throwable t) {
+					failure.compareAndSet(null, t);
+				}
+			}, "WeatherStats-parser-"+i);
+			parsers[i].setDaemon(true);
+			parsers[i].start();
+		}
+		
+		try {
+			readBatches(in, free, full, failure);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading observations", ie);
+		} finally {
+			full.close();
+			for (Thread parser : parsers) {
+				try {
+					parser.join();
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while parsing observations", ie);
+				}
+			}
+		}
+		
+		Throwable cause = failure.get();
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		if (cause != null) {
+			throw new IOException("Unable to parse observations", cause);
+		}
+	}
+	
+	/**
+	 * Read the stream into buffers ending at a line boundary, passing each
+	 * to the parsers. The bytes following the last line end of a buffer 
+	 * are moved to the start of the next one.
+	 */
+	private static void readBatches(InputStream in, RingBuffer<Batch> free, RingBuffer<Batch> full,
+			AtomicReference<Throwable> failure) throws IOException, InterruptedException {
+		Batch batch = free.take();
+		batch.start = 0;
+		batch.filled = 0;
+		boolean header = true;
+		long seq = 0;
+		int n;
+		while (failure.get() == null 
+				&& (n = in.read(batch.data, batch.filled, batch.data.length - batch.filled)) >= 0) {
+			batch.filled += n;
+			if (header) {
+				int lineEnd = indexOfNewline(batch.data, 0, batch.filled);
+				if (lineEnd < 0) {
+					if (batch.filled == batch.data.length) {
+						batch.grow();
+					}
+					continue;
+				}
+				batch.start = lineEnd + 1;
+				header = false;
+			}
+			if (batch.filled < batch.data.length) {
+				continue;
+			}
+			
+			int last = lastIndexOfNewline(batch.data, batch.start, batch.filled);
+			if (last < 0) {
+				batch.grow();
+				continue;
+			}
+			Batch next = free.take();
+			while (next.data.length < batch.filled - last - 1) {
+				next.grow();
+			}
+			System.arraycopy(batch.data, last + 1, next.data, 0, batch.filled - last - 1);
+			next.start = 0;
+			next.filled = batch.filled - last - 1;
+			batch.end = last + 1;
+			batch.seq = seq++;
+			full.put(batch);
+			batch = next;
+		}
+		
+		// The final line may not be terminated
+		if (!header && batch.filled > batch.start) {
+			batch.end = batch.filled;
+			batch.seq = seq;
+			full.put(batch);
+		}
+	}
+	
+	/**
+	 * Parse buffers until the reader is finished, passing each to the 
+	 * sequencer once it has been parsed. Once the parse has failed the 
+	 * remaining buffers are passed on without being parsed, so that the 
+	 * reader is never left waiting for one. A malformed line is reported
+	 * by the sequencer, since its line number is only known once the 
+	 * portions before it have been counted.
+	 */
+	private void parseBatches(RingBuffer<Batch> full, Sequencer sequencer, AtomicReference<Throwable> failure) 
+			throws InterruptedException {
+		FieldTokenizer tokenizer = schema.newTokenizer();
+		tokenizer.setValidating(validating);
+		ByteSequence line = new ByteSequence();
+		Batch batch;
+		while ((batch = full.take()) != null) {
+			if (failure.get() == null) {
+				Portion portion = batch.portion;
+				if (portion.accumulator == null) {
+					portion.accumulator = new StatsAccumulator(tokenizer.fieldCount(), BUFSIZE / APPROXLINELEN);
+				}
+				try {
+					parseBatch(batch, portion, tokenizer, line);
+				} catch (RuntimeException rex) {
+					failure.compareAndSet(null, rex);
+				}
+			}
+			sequencer.complete(batch);
+		}
+	}
+	
+	/**
+	 * Parse the lines of a buffer into the accumulator of its portion
+	 */
+	private void parseBatch(Batch batch, Portion portion, FieldTokenizer tokenizer, ByteSequence line) {
+		long startNanos = System.nanoTime();
+		StatsAccumulator accumulator = portion.accumulator;
+		int lineNo = 0;
+		for (int pos = batch.start; pos < batch.end; lineNo++) {
+			int lineEnd = indexOfNewline(batch.data, pos, batch.end);
+			if (lineEnd < 0) {
+				lineEnd = batch.end;
+			}
+			int contentEnd = (lineEnd > pos && batch.data[lineEnd - 1] == '\r') ? lineEnd - 1 : lineEnd;
+			line.set(batch.view, pos, contentEnd);
+			pos = lineEnd + 1;
+			if (tokenizer.tokenize(line) < tokenizer.fieldCount()) {
+				if (validating) {
+					accumulator.reject();
+					continue;
+				}
+				portion.failedAt = lineNo;
+				break;
+			}
+			accumulator.add(tokenizer.values());
+		}
+		if (metrics != null) {
+			metrics.recordBatch(lineNo, batch.end - batch.start, System.nanoTime() - startNanos);
+		}
+	}
+	
+	private static int indexOfNewline(byte[] data, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (data[i] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private static int lastIndexOfNewline(byte[] data, int from, int to) {
+		for (int i = to - 1; i >= from; i--) {
+			if (data[i] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,435 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A query over the observations held in an ObservationTable. Sample lines
+ * are selected by conditions on their observations and time, optionally 
+ * grouped into fixed length time buckets, and each group reduced to the
+ * aggregates requested.
+ * <p>
+ * The selected lines are marked in a bitmap with one bit per line. Each 
+ * block of the table is first checked against the zone maps, so that a 
+ * block which can't hold a matching line is skipped and a block in which 
+ * every line matches is accepted whole. Only the remaining blocks have 
+ * their lines compared with the conditions, 64 lines at a time.
+ * <p>
+ * For example, the median wind speed of each day on which the air was 
+ * below freezing is found by
+ * <pre>
+ * table.query().where("Air_Temp", "&lt;", 0).groupBy(WindowedAggregator.DAY)
+ *     .aggregate(Query.Aggregate.MEDIAN, "Wind_Speed").run();
+ * </pre>
+ * 
+ * @author jim.medlock
+ *
+ */
+public class Query {
+
+	/**
+	 * Reductions which can be applied to the selected values of an 
+	 * observation type. Missing values are ignored.
+	 */
+	public enum Aggregate {
+		COUNT, SUM, MEAN, MIN, MAX, MEDIAN, STDDEV
+	}
+	
+	private static final int NONE = 0;
+	private static final int SOME = 1;
+	private static final int ALL = 2;
+	
+	/**
+	 * A condition that the value of an observation type, or the time of 
+	 * the sample, lies within an interval
+	 */
+	private static class Condition {
+		final int     fieldIdx;			// -1 for the time of the sample
+		final double  low;
+		final double  high;
+		final boolean lowInclusive;
+		final boolean highInclusive;
+		
+		Condition(int fieldIdx, double low, boolean lowInclusive, double high, boolean highInclusive) {
+			this.fieldIdx = fieldIdx;
+			this.low = low;
+			this.high = high;
+			this.lowInclusive = lowInclusive;
+			this.highInclusive = highInclusive;
+		}
+		
+		boolean matches(double v) {
+			return (lowInclusive ? v >= low : v > low) && (highInclusive ? v <= high : v < high);
+		}
+		
+		/**
+		 * Classify a block by the extremes of its values
+		 * 
+		 * @return NONE if no value in the block can match, ALL if every 
+		 * 		   value matches, otherwise SOME
+		 */
+		int classify(double min, double max, int missing, int rows) {
+			if (missing == rows || min != min) {
+				return NONE;
+			}
+			if ((lowInclusive ? max < low : max <= low) || (highInclusive ? min > high : min >= high)) {
+				return NONE;
+			}
+			return missing == 0 && matches(min) && matches(max) ? ALL : SOME;
+		}
+	}
+	
+	private final ObservationTable table;
+	private final List<Condition>  conditions = new ArrayList<>();
+	private final List<Aggregate>  aggregates = new ArrayList<>();
+	private final List<Integer>    aggregateFields = new ArrayList<>();
+	private long                   bucketSeconds = 0;
+	
+	Query(ObservationTable table) {
+		this.table = table;
+	}
+	
+	/**
+	 * Select only the sample lines where an observation type compares with
+	 * a value. Lines missing the observation are never selected.
+	 * 
+	 * @param fieldName Name of the observation type
+	 * @param op Comparison, one of &lt; &lt;= &gt; &gt;= or =
+	 * @param value Value to compare with
+	 * @return this query
+	 */
+	public Query where(String fieldName, String op, float value) {
+		int fieldIdx = table.fieldIndex(fieldName);
+		switch (op) {
+		case "<":
+			return add(new Condition(fieldIdx, Double.NEGATIVE_INFINITY, true, value, false));
+		case "<=":
+			return add(new Condition(fieldIdx, Double.NEGATIVE_INFINITY, true, value, true));
+		case ">":
+			return add(new Condition(fieldIdx, value, false, Double.POSITIVE_INFINITY, true));
+		case ">=":
+			return add(new Condition(fieldIdx, value, true, Double.POSITIVE_INFINITY, true));
+		case "=":
+			return add(new Condition(fieldIdx, value, true, value, true));
+		default:
+			throw new IllegalArgumentException("Invalid op of "+op+" passed.");
+		}
+	}
+	
+	/**
+	 * Select only the sample lines where an observation type lies between
+	 * two values, inclusive
+	 * 
+	 * @param fieldName Name of the observation type
+	 * @param low Smallest value selected
+	 * @param high Largest value selected
+	 * @return this query
+	 */
+	public Query whereBetween(String fieldName, float low, float high) {
+		// Test preconditions
+		if (!(high >= low)) {
+			throw new IllegalArgumentException("Invalid range of "+low+"-"+high+" passed.");
+		}
+		return add(new Condition(table.fieldIndex(fieldName), low, true, high, true));
+	}
+	
+	/**
+	 * Select only the sample lines taken within a period of time
+	 * 
+	 * @param from Start of the period in seconds since the epoch, inclusive
+	 * @param to End of the period in seconds since the epoch, exclusive
+	 * @return this query
+	 */
+	public Query whereTime(long from, long to) {
+		// Test preconditions
+		if (to <= from) {
+			throw new IllegalArgumentException("Invalid period of "+from+"-"+to+" passed.");
+		}
+		if (!table.isTimed()) {
+			throw new IllegalStateException("The schema has no date and time columns.");
+		}
+		return add(new Condition(-1, from, true, to, false));
+	}
+	
+	private Query add(Condition condition) {
+		conditions.add(condition);
+		return this;
+	}
+	
+	/**
+	 * Group the selected sample lines into time buckets, aligned to the 
+	 * epoch, and aggregate each bucket separately
+	 * 
+	 * @param bucketSeconds Length of each bucket in seconds
+	 * @return this query
+	 */
+	public Query groupBy(long bucketSeconds) {
+		// Test preconditions
+		if (bucketSeconds <= 0) {
+			throw new IllegalArgumentException("Invalid bucketSeconds of "+bucketSeconds+" passed.");
+		}
+		if (!table.isTimed()) {
+			throw new IllegalStateException("The schema has no date and time columns.");
+		}
+		this.bucketSeconds = bucketSeconds;
+		return this;
+	}
+	
+	/**
+	 * Add an aggregate of an observation type to the result
+	 * 
+	 * @param aggregate Reduction to be applied
+	 * @param fieldName Name of the observation type
+	 * @return this query
+	 */
+	public Query aggregate(Aggregate aggregate, String fieldName) {
+		// Test preconditions
+		if (aggregate == null) {
+			throw new IllegalArgumentException("Invalid aggregate of null passed.");
+		}
+		aggregateFields.add(table.fieldIndex(fieldName));
+		aggregates.add(aggregate);
+		return this;
+	}
+	
+	/**
+	 * Select the matching sample lines and calculate the aggregates of 
+	 * each group
+	 * 
+	 * @return groups and their aggregates, in time order
+	 */
+	public QueryResult run() {
+		// Test preconditions
+		if (aggregates.isEmpty()) {
+			throw new IllegalStateException("No aggregates requested.");
+		}
+		
+		int rowCount = table.getRowCount();
+		long[] selected = new long[(rowCount + 63) >>> 6];
+		int[] blockCounts = new int[ALL + 1];
+		for (int block = 0; block < table.getBlockCount(); block++) {
+			blockCounts[select(block, selected)]++;
+		}
+		
+		// Gather the selected values of each aggregated observation type by
+		// group. Groups are normally met in time order, so the last group 
+		// found is checked before the map.
+		boolean[] gathered = new boolean[table.getSchema().getFieldCount()];
+		for (int fieldIdx : aggregateFields) {
+			gathered[fieldIdx] = true;
+		}
+		float[][] columns = new float[gathered.length][];
+		for (int j = 0; j < gathered.length; j++) {
+			columns[j] = gathered[j] ? table.column(j) : null;
+		}
+		long[] timestamps = table.timestamps();
+		Map<Long, Group> groups = new HashMap<>();
+		Group group = null;
+		long selectedRows = 0;
+		for (int w = 0; w < selected.length; w++) {
+			for (long bits = selected[w]; bits != 0; bits &= bits - 1) {
+				int row = (w << 6) | Long.numberOfTrailingZeros(bits);
+				long key = bucketSeconds == 0 ? 0 : Math.floorDiv(timestamps[row], bucketSeconds) * bucketSeconds;
+				if (group == null || group.start != key) {
+					group = groups.get(key);
+					if (group == null) {
+						group = new Group(key, gathered);
+						groups.put(key, group);
+					}
+				}
+				group.rows++;
+				for (int j = 0; j < gathered.length; j++) {
+					if (gathered[j]) {
+						float f = columns[j][row];
+						if (f == f) {
+							group.values[j].add(f);
+						}
+					}
+				}
+				selectedRows++;
+			}
+		}
+		
+		Group[] ordered = groups.values().toArray(new Group[groups.size()]);
+		Arrays.sort(ordered, (a, b) -> Long.compare(a.start, b.start));
+		long[] starts = new long[ordered.length];
+		long[] rows = new long[ordered.length];
+		double[][] values = new double[ordered.length][];
+		for (int g = 0; g < ordered.length; g++) {
+			starts[g] = ordered[g].start;
+			rows[g] = ordered[g].rows;
+			values[g] = ordered[g].aggregate();
+		}
+		
+		String[] names = table.getSchema().getFieldNames();
+		String[] labels = new String[aggregates.size()];
+		for (int a = 0; a < labels.length; a++) {
+			labels[a] = aggregates.get(a)+"("+names[aggregateFields.get(a)]+")";
+		}
+		return new QueryResult(bucketSeconds, starts, rows, labels, values, blockCounts[NONE], 
+				blockCounts[ALL], blockCounts[SOME], selectedRows);
+	}
+	
+	/**
+	 * Mark the sample lines of a block which meet every condition
+	 * 
+	 * @param block Number of the block
+	 * @param selected Bitmap of the selected lines
+	 * @return NONE if the block was skipped, ALL if it was accepted whole,
+	 * 		   otherwise SOME
+	 */
+	private int select(int block, long[] selected) {
+		int rows = table.blockRows(block);
+		int result = ALL;
+		int[] outcomes = new int[conditions.size()];
+		for (int c = 0; c < outcomes.length && result != NONE; c++) {
+			Condition condition = conditions.get(c);
+			if (condition.fieldIdx < 0) {
+				outcomes[c] = condition.classify(table.blockTimeMin(block), table.blockTimeMax(block), 0, rows);
+			} else {
+				outcomes[c] = condition.classify(table.blockMin(condition.fieldIdx, block), 
+						table.blockMax(condition.fieldIdx, block), table.blockMissing(condition.fieldIdx, block), rows);
+			}
+			result = Math.min(result, outcomes[c]);
+		}
+		if (result == NONE) {
+			return NONE;
+		}
+		
+		// Blocks start on a word boundary, so only the last word of the 
+		// table can be partly filled
+		int first = block << ObservationTable.BLOCKSHIFT;
+		int end = first + rows;
+		for (int w = first >>> 6; w << 6 < end; w++) {
+			int n = Math.min(64, end - (w << 6));
+			selected[w] = n == 64 ? -1L : (1L << n) - 1;
+		}
+		if (result == ALL) {
+			return ALL;
+		}
+		for (int c = 0; c < outcomes.length; c++) {
+			if (outcomes[c] == SOME) {
+				Condition condition = conditions.get(c);
+				if (condition.fieldIdx < 0) {
+					filter(condition, table.timestamps(), first, end, selected);
+				} else {
+					filter(condition, table.column(condition.fieldIdx), first, end, selected);
+				}
+			}
+		}
+		return SOME;
+	}
+	
+	/**
+	 * Clear the bits of the lines in positions first through end-1 whose
+	 * values don't meet a condition. Words already cleared by an earlier
+	 * condition aren't examined again.
+	 */
+	private static void filter(Condition condition, float[] values, int first, int end, long[] selected) {
+		for (int w = first >>> 6; w << 6 < end; w++) {
+			if (selected[w] == 0) {
+				continue;
+			}
+			int base = w << 6;
+			int n = Math.min(64, end - base);
+			long bits = 0;
+			for (int i = 0; i < n; i++) {
+				bits |= (condition.matches(values[base + i]) ? 1L : 0L) << i;
+			}
+			selected[w] &= bits;
+		}
+	}
+	
+	private static void filter(Condition condition, long[] values, int first, int end, long[] selected) {
+		for (int w = first >>> 6; w << 6 < end; w++) {
+			if (selected[w] == 0) {
+				continue;
+			}
+			int base = w << 6;
+			int n = Math.min(64, end - base);
+			long bits = 0;
+			for (int i = 0; i < n; i++) {
+				bits |= (condition.matches(values[base + i]) ? 1L : 0L) << i;
+			}
+			selected[w] &= bits;
+		}
+	}
+	
+	/**
+	 * The selected lines falling within a single time bucket
+	 */
+	private class Group {
+		final long          start;
+		final FloatColumn[] values;
+		long                rows = 0;
+		
+		Group(long start, boolean[] gathered) {
+			this.start = start;
+			this.values = new FloatColumn[gathered.length];
+			for (int j = 0; j < gathered.length; j++) {
+				if (gathered[j]) {
+					values[j] = new FloatColumn(256);
+				}
+			}
+		}
+		
+		double[] aggregate() {
+			double[] result = new double[aggregates.size()];
+			for (int a = 0; a < result.length; a++) {
+				FloatColumn column = values[aggregateFields.get(a)];
+				ColumnSummary summary = ColumnKernels.summarize(column.array(), 0, column.size());
+				switch (aggregates.get(a)) {
+				case COUNT:
+					result[a] = summary.getCount();
+					break;
+				case SUM:
+					result[a] = summary.getSum();
+					break;
+				case MEAN:
+					result[a] = summary.getCount() == 0 ? Double.NaN : summary.getMean();
+					break;
+				case MIN:
+					result[a] = summary.getMin();
+					break;
+				case MAX:
+					result[a] = summary.getMax();
+					break;
+				case MEDIAN:
+					result[a] = Selection.median(column.array(), column.size(), false);
+					break;
+				case STDDEV:
+					result[a] = summary.getStdDev();
+					break;
+				}
+			}
+			return result;
+		}
+	}
+}
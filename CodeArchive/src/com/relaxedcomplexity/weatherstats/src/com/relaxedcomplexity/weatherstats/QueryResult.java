@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.time.Instant;
+
+/**
+ * The groups selected by a query and the aggregates calculated for each,
+ * along with counts of how the table's blocks were treated so that the
+ * effect of the zone maps can be seen.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class QueryResult {
+
+	private final long       bucketSeconds;
+	private final long[]     bucketStarts;
+	private final long[]     rowCounts;
+	private final String[]   labels;
+	private final double[][] values;
+	private final int        blocksSkipped;
+	private final int        blocksMatched;
+	private final int        blocksScanned;
+	private final long       rowsSelected;
+	
+	QueryResult(long bucketSeconds, long[] bucketStarts, long[] rowCounts, String[] labels, 
+			double[][] values, int blocksSkipped, int blocksMatched, int blocksScanned, long rowsSelected) {
+		this.bucketSeconds = bucketSeconds;
+		this.bucketStarts = bucketStarts;
+		this.rowCounts = rowCounts;
+		this.labels = labels;
+		this.values = values;
+		this.blocksSkipped = blocksSkipped;
+		this.blocksMatched = blocksMatched;
+		this.blocksScanned = blocksScanned;
+		this.rowsSelected = rowsSelected;
+	}
+	
+	/**
+	 * @return number of groups, which is at most one when the query isn't
+	 * 		   grouped by time
+	 */
+	public int getGroupCount() {
+		return rowCounts.length;
+	}
+	
+	/**
+	 * @param group Number of the group
+	 * @return start of the group's time bucket in seconds since the epoch,
+	 * 		   or zero when the query isn't grouped by time
+	 */
+	public long getBucketStart(int group) {
+		return bucketStarts[group];
+	}
+	
+	/**
+	 * @param group Number of the group
+	 * @return number of sample lines selected in the group
+	 */
+	public long getRowCount(int group) {
+		return rowCounts[group];
+	}
+	
+	/**
+	 * @return label of each aggregate, such as MEDIAN(Wind_Speed)
+	 */
+	public String[] getLabels() {
+		return labels.clone();
+	}
+	
+	/**
+	 * @param group Number of the group
+	 * @param aggregate Position of the aggregate in the query
+	 * @return value of the aggregate, or NaN if the group holds no values 
+	 * 		   of its observation type
+	 */
+	public double getValue(int group, int aggregate) {
+		return values[group][aggregate];
+	}
+	
+	/**
+	 * @return number of blocks passed over because the zone maps showed 
+	 * 		   that none of their lines could match
+	 */
+	public int getBlocksSkipped() {
+		return blocksSkipped;
+	}
+	
+	/**
+	 * @return number of blocks selected whole because the zone maps showed
+	 * 		   that all of their lines match
+	 */
+	public int getBlocksMatched() {
+		return blocksMatched;
+	}
+	
+	/**
+	 * @return number of blocks whose lines were compared one by one
+	 */
+	public int getBlocksScanned() {
+		return blocksScanned;
+	}
+	
+	public long getRowsSelected() {
+		return rowsSelected;
+	}
+	
+	/**
+	 * Print the groups and their aggregates, followed by the block counts
+	 */
+	public void print() {
+		StringBuilder header = new StringBuilder();
+		StringBuilder rule = new StringBuilder();
+		if (bucketSeconds > 0) {
+			header.append(String.format("%-20s ", "Bucket"));
+			rule.append(String.format("%-20s ", "------"));
+		}
+		header.append(String.format("%9s", "# Lines"));
+		rule.append(String.format("%9s", "-------"));
+		for (String label : labels) {
+			int width = Math.max(12, label.length());
+			header.append(String.format(" %"+width+"s", label));
+			rule.append(String.format(" %"+width+"s", label.replaceAll(".", "-")));
+		}
+		System.out.println(header);
+		System.out.println(rule);
+		for (int g = 0; g < rowCounts.length; g++) {
+			if (bucketSeconds > 0) {
+				System.out.printf("%-20s ", Instant.ofEpochSecond(bucketStarts[g]));
+			}
+			System.out.printf("%,9d", rowCounts[g]);
+			for (int a = 0; a < labels.length; a++) {
+				System.out.printf(" %,"+Math.max(12, labels[a].length())+".2f", values[g][a]);
+			}
+			System.out.println();
+		}
+		System.out.printf("\n%,d lines selected; %,d blocks skipped, %,d matched whole, %,d scanned\n",
+				rowsSelected, blocksSkipped, blocksMatched, blocksScanned);
+	}
+}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An input stream supplying bytes produced on another thread. The producer
+ * passes buffers to the reader through a bounded queue, so producing the
+ * data overlaps with consuming it while limiting the amount of data held
+ * in memory. A producer which gets ahead of the reader waits for it.
+ * <p>
+ * Once the producer completes, the end of the data, or the exception 
+ * which ended it, is passed to the reader. Closing the stream stops the 
+ * producer the next time it passes a buffer.
+ * 
+ * @author jim.medlock
+ *
+ */
+class QueuedInputStream extends InputStream {
+
+	// How often a producer waiting for space in the queue checks whether
+	// the reader has closed the stream
+	private static final long CLOSEPOLLMS = 100;
+	
+	private static final byte[] EOF = new byte[0];
+	
+	/**
+	 * Work performed by the producer
+	 */
+	interface Producer {
+		void run() throws IOException, InterruptedException;
+	}
+	
+	private final BlockingQueue<byte[]> queue;
+	private volatile Throwable          failure = null;
+	private volatile boolean            closed = false;
+	private byte[]                      current = null;
+	private int                         currentPos = 0;
+	
+	/**
+	 * @param depth Number of buffers which may be waiting for the reader
+	 */
+	QueuedInputStream(int depth) {
+		// Test preconditions
+		if (depth < 1) {
+			throw new IllegalArgumentException("Invalid depth of "+depth+" passed.");
+		}
+		queue = new ArrayBlockingQueue<>(depth);
+	}
+	
+	/**
+	 * Start a daemon thread running the producer
+	 * 
+	 * @param producer Producer of the data
+	 * @param threadName Name of the producer thread
+	 * @return this stream
+	 */
+	InputStream start(Producer producer, String threadName) {
+		Thread thread = new Thread(() -> run(producer), threadName);
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+	
+	/**
+	 * Run the producer on the current thread, then pass the end of the 
+	 * data to the reader
+	 * 
+	 * @param producer Producer of the data
+	 */
+	void run(Producer producer) {
+		try {
+			producer.run();
+		} catch (InterruptedException ie) {
+			// The reader has closed the stream
+			return;
+		} catch (Throwable t) {
+			failure = t;
+		}
+		try {
+			put(EOF);
+		} catch (InterruptedException ie) {
+			// The reader has closed the stream
+		}
+	}
+	
+	/**
+	 * Pass a buffer to the reader, waiting while the queue is full. The 
+	 * buffer must not be modified afterwards.
+	 * 
+	 * @param buf Buffer of data
+	 * @throws InterruptedException if the reader has closed the stream
+	 */
+	void put(byte[] buf) throws InterruptedException {
+		while (!closed) {
+			if (queue.offer(buf, CLOSEPOLLMS, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+		}
+		throw new InterruptedException("Stream closed");
+	}
+	
+	/**
+	 * @return true if the reader has closed the stream
+	 */
+	boolean isClosed() {
+		return closed;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		return (read(one, 0, 1) < 0) ? -1 : one[0] & 0xff;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (current == null || currentPos == current.length) {
+			if (current == EOF || closed) {
+				return -1;
+			}
+			try {
+				current = queue.take();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for data");
+			}
+			currentPos = 0;
+			if (current == EOF) {
+				if (failure != null) {
+					throw (failure instanceof IOException) 
+							? (IOException) failure : new IOException(failure);
+				}
+				return -1;
+			}
+		}
+		int n = Math.min(len, current.length - currentPos);
+		System.arraycopy(current, currentPos, b, off, n);
+		currentPos += n;
+		return n;
+	}
+	
+	/**
+	 * Stop the producer and discard any data not yet read
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		queue.clear();
+	}
+}
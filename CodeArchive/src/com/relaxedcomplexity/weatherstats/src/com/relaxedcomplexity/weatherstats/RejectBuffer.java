@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Counts the sample lines rejected as malformed and records the line 
+ * numbers of the first of them. Only a bounded number of line numbers is
+ * kept so that a badly damaged file can't exhaust memory, but every 
+ * rejected line is counted.
+ * 
+ * @author jim.medlock
+ *
+ */
+class RejectBuffer {
+
+	// Number of line numbers retained
+	static final int CAPACITY = 100;
+	
+	private final long[] lineNumbers = new long[CAPACITY];
+	private int          retained = 0;
+	private long         count = 0;
+	
+	/**
+	 * Record a rejected line
+	 * 
+	 * @param lineNo Line number, or a position relative to some base that
+	 * 		  the owner later resolves
+	 */
+	void add(long lineNo) {
+		if (retained < CAPACITY) {
+			lineNumbers[retained++] = lineNo;
+		}
+		count++;
+	}
+	
+	/**
+	 * Add the rejects recorded by another buffer to those of this one
+	 * 
+	 * @param other Buffer whose rejects are added
+	 * @param base Amount added to each of the other buffer's line numbers
+	 */
+	void addAll(RejectBuffer other, long base) {
+		for (int i = 0; i < other.retained && retained < CAPACITY; i++) {
+			lineNumbers[retained++] = base + other.lineNumbers[i];
+		}
+		count += other.count;
+	}
+	
+	/**
+	 * Count rejected lines whose line numbers aren't recorded
+	 * 
+	 * @param n Number of lines
+	 */
+	void addCount(long n) {
+		count += n;
+	}
+	
+	void clear() {
+		retained = 0;
+		count = 0;
+	}
+	
+	/**
+	 * @return number of lines rejected
+	 */
+	long getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return line numbers of the first lines rejected, in the order they 
+	 * 		   were rejected
+	 */
+	long[] getLineNumbers() {
+		return Arrays.copyOf(lineNumbers, retained);
+	}
+	
+	/**
+	 * @return number of bytes written by writeTo
+	 */
+	int stateSize() {
+		return 8 + 4 + 8 * retained;
+	}
+	
+	void writeTo(ByteBuffer buf) {
+		buf.putLong(count);
+		buf.putInt(retained);
+		for (int i = 0; i < retained; i++) {
+			buf.putLong(lineNumbers[i]);
+		}
+	}
+	
+	void readFrom(ByteBuffer buf) {
+		count = buf.getLong();
+		retained = buf.getInt();
+		if (retained < 0 || retained > CAPACITY) {
+			throw new IllegalArgumentException("Invalid reject count of "+retained+" read.");
+		}
+		for (int i = 0; i < retained; i++) {
+			lineNumbers[i] = buf.getLong();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded lock-free queue which may be shared by any number of producer 
+ * and consumer threads. Each slot of the ring carries a sequence number 
+ * telling a producer when it's free to fill and a consumer when it holds
+ * an element, so neither side ever takes a lock; a thread claims a slot
+ * with a single compare-and-set of the shared position.
+ * <p>
+ * offer and poll never wait. put and take wait for a slot or an element,
+ * which gives a producer that gets ahead of its consumers backpressure.
+ * Once the queue is closed take returns null when it's empty rather than
+ * waiting.
+ * 
+ * @author jim.medlock
+ *
+ */
+class RingBuffer<T> {
+
+	// Number of times a waiting thread yields before it starts to park
+	private static final int  SPINS = 64;
+	private static final long PARKNANOS = 50000;
+	
+	private final int                     mask;
+	private final AtomicReferenceArray<T> elements;
+	private final AtomicLongArray         sequences;
+	private final AtomicLong              producerPos = new AtomicLong();
+	private final AtomicLong              consumerPos = new AtomicLong();
+	private volatile boolean              closed = false;
+	
+	/**
+	 * @param capacity Number of elements the queue holds, which must be a
+	 * 		  power of two
+	 */
+	RingBuffer(int capacity) {
+		// Test preconditions
+		if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Invalid capacity of "+capacity+" passed.");
+		}
+		mask = capacity - 1;
+		elements = new AtomicReferenceArray<>(capacity);
+		sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+	
+	/**
+	 * Add an element if there is room for it
+	 * 
+	 * @param element Element to add
+	 * @return false if the queue is full
+	 */
+	boolean offer(T element) {
+		while (true) {
+			long pos = producerPos.get();
+			int slot = (int) pos & mask;
+			long diff = sequences.get(slot) - pos;
+			if (diff < 0) {
+				return false;
+			}
+			if (diff == 0 && producerPos.compareAndSet(pos, pos + 1)) {
+				elements.lazySet(slot, element);
+				sequences.set(slot, pos + 1);
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Remove the oldest element if there is one
+	 * 
+	 * @return the element, or null if the queue is empty
+	 */
+	T poll() {
+		while (true) {
+			long pos = consumerPos.get();
+			int slot = (int) pos & mask;
+			long diff = sequences.get(slot) - (pos + 1);
+			if (diff < 0) {
+				return null;
+			}
+			if (diff == 0 && consumerPos.compareAndSet(pos, pos + 1)) {
+				T element = elements.get(slot);
+				elements.lazySet(slot, null);
+				sequences.set(slot, pos + mask + 1);
+				return element;
+			}
+		}
+	}
+	
+	/**
+	 * Add an element, waiting while the queue is full
+	 * 
+	 * @param element Element to add
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	void put(T element) throws InterruptedException {
+		for (int spins = 0; !offer(element); spins++) {
+			idle(spins);
+		}
+	}
+	
+	/**
+	 * Remove the oldest element, waiting while the queue is empty and 
+	 * still open
+	 * 
+	 * @return the element, or null if the queue is empty and closed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	T take() throws InterruptedException {
+		for (int spins = 0; ; spins++) {
+			T element = poll();
+			if (element != null) {
+				return element;
+			}
+			if (closed) {
+				// An element may have been added just before closing
+				return poll();
+			}
+			idle(spins);
+		}
+	}
+	
+	/**
+	 * Mark the end of the elements. Elements already added can still be
+	 * taken.
+	 */
+	void close() {
+		closed = true;
+	}
+	
+	private static void idle(int spins) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		if (spins < SPINS) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARKNANOS);
+		}
+	}
+}
@@ -0,0 +1,482 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Describes the layout of the sample lines of a station's observation 
+ * file. Each column of interest is described by its position on the line,
+ * its name, its type and optionally the sentinel value used to mark a 
+ * missing observation and the range of physically possible values. A 
+ * value equal to the sentinel or outside the range is treated as missing,
+ * and is counted rather than included in the statistics. Columns which 
+ * aren't described are skipped without being converted.
+ * <p>
+ * The float and direction columns are the observation types for which 
+ * statistics are calculated, and are numbered in the order they are 
+ * described. A direction column holds compass bearings in degrees, so its
+ * mean is taken around the circle and its most frequent and distinct 
+ * values are also counted. A date 
+ * and a time column may also be described, which are used to assign each
+ * sample line to time windows.
+ * <p>
+ * A schema can be read from a descriptor file holding one column per line
+ * in the form
+ * <pre>
+ *   index name type [missing=value] [range=low:high]
+ * </pre>
+ * where type is float, direction, date or time. Blank lines and lines starting with 
+ * # are ignored.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class Schema {
+
+	/**
+	 * Type of a column
+	 */
+	public enum ColumnType {
+		FLOAT, DATE, TIME, DIRECTION
+	}
+	
+	/**
+	 * Description of a single column
+	 */
+	public static class Column {
+		private final int        index;
+		private final String     name;
+		private final ColumnType type;
+		private final float      missing;
+		private final float      low;
+		private final float      high;
+		
+		/**
+		 * Describe a column
+		 * 
+		 * @param index Position of the column on the line, where the first 
+		 * 		  column is zero
+		 * @param name Name of the column
+		 * @param type Type of the column
+		 * @param missing Value marking a missing observation, or NaN if 
+		 * 		  there is none
+		 * @param low Lowest physically possible value, or NaN if unknown
+		 * @param high Highest physically possible value, or NaN if unknown
+		 */
+		public Column(int index, String name, ColumnType type, float missing, float low, float high) {
+			// Test preconditions
+			if (index < 0) {
+				throw new IllegalArgumentException("Invalid index of "+index+" passed.");
+			}
+			if (name == null || name.isEmpty() || type == null) {
+				throw new IllegalArgumentException("Invalid name or type passed for column "+index+".");
+			}
+			if (low == low && high == high && !(high > low)) {
+				throw new IllegalArgumentException("Invalid range of "+low+"-"+high+" passed.");
+			}
+			this.index = index;
+			this.name = name;
+			this.type = type;
+			this.missing = missing;
+			this.low = low;
+			this.high = high;
+		}
+		
+		public int getIndex() {
+			return index;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public ColumnType getType() {
+			return type;
+		}
+		
+		public float getMissing() {
+			return missing;
+		}
+		
+		public float getLow() {
+			return low;
+		}
+		
+		public float getHigh() {
+			return high;
+		}
+		
+		/**
+		 * @return true if a range of physically possible values is known
+		 */
+		public boolean hasRange() {
+			return low == low && high == high;
+		}
+		
+		/**
+		 * @return true if the column holds compass bearings in degrees
+		 */
+		public boolean isDirection() {
+			return type == ColumnType.DIRECTION;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Column)) {
+				return false;
+			}
+			Column other = (Column) obj;
+			return index == other.index && name.equals(other.name) && type == other.type
+					&& Float.compare(missing, other.missing) == 0 
+					&& Float.compare(low, other.low) == 0 
+					&& Float.compare(high, other.high) == 0;
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * (31 * index + name.hashCode()) + type.hashCode();
+		}
+	}
+	
+	/**
+	 * Layout of the Deep Moor observation files
+	 */
+	public static final Schema DEEPMOOR = new Schema(Arrays.asList(
+			new Column(0, "Date",              ColumnType.DATE,      Float.NaN, Float.NaN, Float.NaN),
+			new Column(1, "Time",              ColumnType.TIME,      Float.NaN, Float.NaN, Float.NaN),
+			new Column(2, "Air_Temp",          ColumnType.FLOAT,     Float.NaN, -40.0f,    120.0f),
+			new Column(3, "Barometric_Press",  ColumnType.FLOAT,     Float.NaN, 28.0f,     32.0f),
+			new Column(4, "Dew_Point",         ColumnType.FLOAT,     Float.NaN, -40.0f,    100.0f),
+			new Column(5, "Relative_Humidity", ColumnType.FLOAT,     Float.NaN, 0.0f,      100.0f),
+			new Column(6, "Wind_Dir",          ColumnType.DIRECTION, Float.NaN, 0.0f,      360.0f),
+			new Column(7, "Wind_Gust",         ColumnType.FLOAT,     Float.NaN, 0.0f,      100.0f),
+			new Column(8, "Wind_Speed",        ColumnType.FLOAT,     Float.NaN, 0.0f,      100.0f)));
+	
+	private final Column[] columns;
+	private final Column[] fields;
+	private final int[]    fieldIndexes;
+	private final int      dateIndex;
+	private final int      timeIndex;
+	
+	/**
+	 * Create a schema from a list of column descriptions
+	 * 
+	 * @param columns Columns of interest. At least one must be a float or
+	 * 		  direction column, and no two may have the same position or name.
+	 */
+	public Schema(List<Column> columns) {
+		List<Column> floats = new ArrayList<>();
+		int date = -1;
+		int time = -1;
+		for (Column column : columns) {
+			for (Column other : columns) {
+				if (other != column && (other.index == column.index || other.name.equals(column.name))) {
+					throw new IllegalArgumentException("Duplicate column "+column.index+" "+column.name+" passed.");
+				}
+			}
+			switch (column.type) {
+			case FLOAT:
+			case DIRECTION:
+				floats.add(column);
+				break;
+			case DATE:
+				if (date >= 0) {
+					throw new IllegalArgumentException("More than one date column passed.");
+				}
+				date = column.index;
+				break;
+			case TIME:
+				if (time >= 0) {
+					throw new IllegalArgumentException("More than one time column passed.");
+				}
+				time = column.index;
+				break;
+			}
+		}
+		
+		// Test preconditions
+		if (floats.isEmpty()) {
+			throw new IllegalArgumentException("Invalid schema with no float columns passed.");
+		}
+		this.columns = columns.toArray(new Column[columns.size()]);
+		this.fields = floats.toArray(new Column[floats.size()]);
+		this.fieldIndexes = new int[fields.length];
+		for (int j = 0; j < fields.length; j++) {
+			fieldIndexes[j] = fields[j].index;
+		}
+		this.dateIndex = date;
+		this.timeIndex = time;
+	}
+	
+	/**
+	 * Read a schema from a descriptor file
+	 * 
+	 * @param path Path of the descriptor file
+	 * @return schema described by the file
+	 * @throws IOException if the file can't be read or a line of it isn't
+	 * 		   a valid column description
+	 */
+	public static Schema load(Path path) throws IOException {
+		List<Column> columns = new ArrayList<>();
+		try (BufferedReader rdr = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line = null;
+			int lineNo = 0;
+			while ((line = rdr.readLine()) != null) {
+				lineNo++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				try {
+					columns.add(parseColumn(line));
+				} catch (IllegalArgumentException iae) {
+					throw new IOException("Line "+lineNo+" of "+path+" isn't a valid column: "
+							+iae.getMessage());
+				}
+			}
+		}
+		try {
+			return new Schema(columns);
+		} catch (IllegalArgumentException iae) {
+			throw new IOException(path+" isn't a valid schema: "+iae.getMessage());
+		}
+	}
+	
+	/**
+	 * Parse a single column description
+	 */
+	private static Column parseColumn(String line) {
+		String[] parts = line.split("\\s+");
+		if (parts.length < 3) {
+			throw new IllegalArgumentException("Expected index, name and type.");
+		}
+		int index = Integer.parseInt(parts[0]);
+		ColumnType type = ColumnType.valueOf(parts[2].toUpperCase());
+		float missing = Float.NaN;
+		float low = Float.NaN;
+		float high = Float.NaN;
+		for (int i = 3; i < parts.length; i++) {
+			if (parts[i].startsWith("missing=")) {
+				missing = Float.parseFloat(parts[i].substring("missing=".length()));
+			} else if (parts[i].startsWith("range=")) {
+				String[] bounds = parts[i].substring("range=".length()).split(":", -1);
+				if (bounds.length != 2) {
+					throw new IllegalArgumentException("Expected range=low:high but found "+parts[i]+".");
+				}
+				try {
+					low = Float.parseFloat(bounds[0]);
+					high = Float.parseFloat(bounds[1]);
+				} catch (NumberFormatException nfe) {
+					throw new IllegalArgumentException("Invalid bound in "+parts[i]+".");
+				}
+				if (!(low < high)) {
+					throw new IllegalArgumentException("Invalid "+parts[i]+", whose low bound isn't "
+							+"below its high bound.");
+				}
+			} else {
+				throw new IllegalArgumentException("Unknown attribute "+parts[i]+".");
+			}
+		}
+		return new Column(index, parts[1], type, missing, low, high);
+	}
+	
+	/**
+	 * @return number of float columns
+	 */
+	public int getFieldCount() {
+		return fields.length;
+	}
+	
+	/**
+	 * @param fieldIdx Number of a float column
+	 * @return description of the column
+	 */
+	public Column getField(int fieldIdx) {
+		return fields[fieldIdx];
+	}
+	
+	/**
+	 * @return position on the line of each float column, in field order
+	 */
+	public int[] getFieldIndexes() {
+		return fieldIndexes.clone();
+	}
+	
+	/**
+	 * @return names of the float columns, in field order
+	 */
+	public String[] getFieldNames() {
+		String[] names = new String[fields.length];
+		for (int j = 0; j < fields.length; j++) {
+			names[j] = fields[j].name;
+		}
+		return names;
+	}
+	
+	/**
+	 * @return position of the date column, or -1 if there is none
+	 */
+	public int getDateIndex() {
+		return dateIndex;
+	}
+	
+	/**
+	 * @return position of the time column, or -1 if there is none
+	 */
+	public int getTimeIndex() {
+		return timeIndex;
+	}
+	
+	/**
+	 * @return position of the last column which must be scanned
+	 */
+	public int getLastIndex() {
+		int last = Math.max(dateIndex, timeIndex);
+		for (int index : fieldIndexes) {
+			last = Math.max(last, index);
+		}
+		return last;
+	}
+	
+	/**
+	 * Create a tokenizer which converts the float columns of this schema 
+	 * and skips every other column. Values equal to a column's sentinel or
+	 * outside its range are converted to NaN.
+	 * 
+	 * @return tokenizer for sample lines of this layout
+	 */
+	public FieldTokenizer newTokenizer() {
+		FieldTokenizer tokenizer = new FieldTokenizer(fieldIndexes, getLastIndex());
+		for (int j = 0; j < fields.length; j++) {
+			tokenizer.setScreening(j, fields[j].missing, fields[j].low, fields[j].high);
+		}
+		return tokenizer;
+	}
+	
+	/**
+	 * Determine whether two schemas describe the same float columns, so 
+	 * that statistics gathered with them may be combined. The types must 
+	 * match, since only direction fields carry sketches, and so must the
+	 * ranges, since they set the bounds of the histogram bins.
+	 * 
+	 * @param other Schema to be compared
+	 * @return true if the float columns have the same names, types and 
+	 * 		   ranges in the same order
+	 */
+	public boolean isCompatible(Schema other) {
+		if (fields.length != other.fields.length) {
+			return false;
+		}
+		for (int j = 0; j < fields.length; j++) {
+			Column field = fields[j];
+			Column otherField = other.fields[j];
+			if (!field.name.equals(otherField.name) || field.type != otherField.type 
+					|| Float.compare(field.low, otherField.low) != 0 
+					|| Float.compare(field.high, otherField.high) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Determine whether two schemas describe the same layout, with the 
+	 * same columns at the same positions, so that either may be used to
+	 * parse the same lines
+	 * 
+	 * @param obj Schema to be compared
+	 * @return true if the schemas hold equal columns in the same order
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Schema && Arrays.equals(columns, ((Schema) obj).columns);
+	}
+	
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(columns);
+	}
+	
+	/**
+	 * @return number of bytes written by writeTo
+	 */
+	int stateSize() {
+		int size = 4;
+		for (Column column : columns) {
+			size += 4 + 1 + 4 + 4 + 4 + 2 + column.name.getBytes(StandardCharsets.UTF_8).length;
+		}
+		return size;
+	}
+	
+	/**
+	 * Write the schema to a buffer
+	 * 
+	 * @param buf Buffer to which the schema is written
+	 */
+	void writeTo(ByteBuffer buf) {
+		buf.putInt(columns.length);
+		for (Column column : columns) {
+			byte[] name = column.name.getBytes(StandardCharsets.UTF_8);
+			buf.putInt(column.index);
+			buf.put((byte) column.type.ordinal());
+			buf.putFloat(column.missing);
+			buf.putFloat(column.low);
+			buf.putFloat(column.high);
+			buf.putShort((short) name.length);
+			buf.put(name);
+		}
+	}
+	
+	/**
+	 * Read a schema written by writeTo
+	 * 
+	 * @param buf Buffer from which the schema is read
+	 * @return schema read
+	 */
+	static Schema readFrom(ByteBuffer buf) {
+		int count = buf.getInt();
+		List<Column> columns = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int index = buf.getInt();
+			ColumnType type = ColumnType.values()[buf.get()];
+			float missing = buf.getFloat();
+			float low = buf.getFloat();
+			float high = buf.getFloat();
+			byte[] name = new byte[buf.getShort()];
+			buf.get(name);
+			columns.add(new Column(index, new String(name, StandardCharsets.UTF_8), type, missing, low, high));
+		}
+		return new Schema(columns);
+	}
+}
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Exact order statistics over primitive float arrays without sorting them.
+ * <p>
+ * The sequential path is an introselect: a quickselect using a median of
+ * three pivot which falls back to sorting the remaining range if it fails
+ * to converge within 2*log2(n) partitioning rounds. This runs in expected
+ * O(n) time with an O(n log n) worst case, and reorders the array in place.
+ * <p>
+ * The parallel path is intended for very large columns. It maps each value
+ * to an order preserving integer key and builds a histogram of the upper 
+ * 16 bits of the keys in parallel. The bucket holding the requested rank
+ * is then copied out and an introselect is run over just that bucket. The
+ * parallel path leaves the array unchanged.
+ * <p>
+ * NaN values are ordered after all other values, as they are by 
+ * Arrays.sort.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class Selection {
+	
+	// Columns with at least this many values are worth selecting in parallel
+	public static final int PARALLELTHRESHOLD = 1 << 22;
+	
+	private static final int BUCKETBITS = 16;
+	private static final int BUCKETS = 1 << BUCKETBITS;
+	private static final int CHUNKSIZE = 1 << 18;
+	private static final int SORTTHRESHOLD = 16;
+	
+	private Selection() {
+	}
+	
+	/**
+	 * Calculate the median of the first n values of an array. For an even 
+	 * number of values this is the average of the two middle values.
+	 * 
+	 * @param a Array holding the values
+	 * @param n Number of values
+	 * @param parallel true to use the parallel path, which leaves the array
+	 * 		  unchanged. Otherwise the array is reordered.
+	 * @return median value, or NaN if n is zero
+	 */
+	public static float median(float[] a, int n, boolean parallel) {
+		// Test preconditions
+		if (n < 0 || n > a.length) {
+			throw new IllegalArgumentException("Invalid n of "+n+" passed.");
+		}
+		if (n == 0) {
+			return Float.NaN;
+		}
+		
+		int midPoint = n / 2;
+		boolean isEven = (n % 2) == 0;
+		if (parallel) {
+			int[] histogram = histogram(a, n);
+			float upper = select(a, n, histogram, midPoint);
+			return isEven ? (select(a, n, histogram, midPoint - 1) + upper) / 2 : upper;
+		}
+		
+		float upper = select(a, 0, n, midPoint);
+		if (!isEven) {
+			return upper;
+		}
+		// All values to the left of the middle are now no greater than it,
+		// so the largest of them is the other middle value.
+		float lower = a[0];
+		for (int i = 1; i < midPoint; i++) {
+			if (less(lower, a[i])) {
+				lower = a[i];
+			}
+		}
+		return (lower + upper) / 2;
+	}
+	
+	/**
+	 * Find the value which would be at position k if positions from through
+	 * to-1 of an array were sorted. On return that value is at position k,
+	 * no value to its left is greater and no value to its right is less.
+	 * 
+	 * @param a Array holding the values
+	 * @param from Position of the first value
+	 * @param to Position following the last value
+	 * @param k Position of the value to find
+	 * @return the value at position k
+	 */
+	public static float select(float[] a, int from, int to, int k) {
+		// Test preconditions
+		if (from < 0 || to > a.length || k < from || k >= to) {
+			throw new IllegalArgumentException("Invalid range "+from+"-"+to+" or k of "+k+" passed.");
+		}
+		
+		int lo = from;
+		int hi = to - 1;
+		int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+		
+		while (hi - lo > SORTTHRESHOLD) {
+			if (depthLimit-- == 0) {
+				Arrays.sort(a, lo, hi + 1);
+				return a[k];
+			}
+			
+			// Order a[lo], a[mid], a[hi] and use the middle one as the pivot
+			int mid = (lo + hi) >>> 1;
+			if (less(a[mid], a[lo])) swap(a, mid, lo);
+			if (less(a[hi], a[lo])) swap(a, hi, lo);
+			if (less(a[hi], a[mid])) swap(a, hi, mid);
+			float pivot = a[mid];
+			
+			// Hoare partition. The ordered end points act as sentinels.
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (less(a[i], pivot)) i++;
+				while (less(pivot, a[j])) j--;
+				if (i <= j) {
+					swap(a, i, j);
+					i++;
+					j--;
+				}
+			}
+			
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return a[k];
+			}
+		}
+		
+		Arrays.sort(a, lo, hi + 1);
+		return a[k];
+	}
+	
+	/**
+	 * Find the value of rank k among the first n values of an array using
+	 * a previously computed histogram of their keys.
+	 */
+	private static float select(float[] a, int n, int[] histogram, int k) {
+		int bucket = 0;
+		int rank = k;
+		while (rank >= histogram[bucket]) {
+			rank -= histogram[bucket];
+			bucket++;
+		}
+		
+		float[] candidates = new float[histogram[bucket]];
+		int c = 0;
+		for (int i = 0; i < n; i++) {
+			if (bucketOf(a[i]) == bucket) {
+				candidates[c++] = a[i];
+			}
+		}
+		return select(candidates, 0, candidates.length, rank);
+	}
+	
+	/**
+	 * Build a histogram of the bucket numbers of the first n values of an 
+	 * array, splitting the work across the common fork join pool.
+	 */
+	private static int[] histogram(float[] a, int n) {
+		return ForkJoinPool.commonPool().invoke(new HistogramTask(a, 0, n));
+	}
+	
+	private static class HistogramTask extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+		
+		private final float[] a;
+		private final int     from;
+		private final int     to;
+		
+		HistogramTask(float[] a, int from, int to) {
+			this.a = a;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected int[] compute() {
+			if (to - from <= CHUNKSIZE) {
+				int[] histogram = new int[BUCKETS];
+				for (int i = from; i < to; i++) {
+					histogram[bucketOf(a[i])]++;
+				}
+				return histogram;
+			}
+			
+			int mid = (from + to) >>> 1;
+			HistogramTask left = new HistogramTask(a, from, mid);
+			left.fork();
+			int[] histogram = new HistogramTask(a, mid, to).compute();
+			int[] other = left.join();
+			for (int b = 0; b < BUCKETS; b++) {
+				histogram[b] += other[b];
+			}
+			return histogram;
+		}
+	}
+	
+	/**
+	 * Map a value to a bucket number such that buckets are in the same 
+	 * order as the values they hold. The float bits are converted to a key 
+	 * that sorts as a signed integer, and its upper bits are then offset 
+	 * to make them an unsigned bucket number.
+	 */
+	private static int bucketOf(float f) {
+		int bits = Float.floatToIntBits(f);
+		int key = bits ^ ((bits >> 31) & 0x7fffffff);
+		return (key >> (32 - BUCKETBITS)) + (BUCKETS / 2);
+	}
+	
+	/**
+	 * Compare two values placing NaN after everything else
+	 */
+	private static boolean less(float x, float y) {
+		return x < y || (y != y && x == x);
+	}
+	
+	private static void swap(float[] a, int i, int j) {
+		float t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+}
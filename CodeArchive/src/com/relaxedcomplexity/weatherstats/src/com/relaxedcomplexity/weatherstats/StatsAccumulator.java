@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the count, total and values of each observation type for a 
+ * portion of a data set. Accumulators for separate portions can be filled
+ * independently and later combined by merging them in the order the
+ * portions appear in the data set.
+ * <p>
+ * Missing values, which the tokenizer converts to NaN, are counted 
+ * separately and left out of the count and total. They are still held in
+ * the observations, so that the values of each line stay at the same 
+ * position in every column.
+ * <p>
+ * An accumulator created with a schema also gathers the extremes, 
+ * variance, histogram and direction statistics of each observation type,
+ * so that an engine can merge a whole portion without adding its values
+ * again one at a time. As in the engine, an infinite bearing is then 
+ * counted as missing.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class StatsAccumulator {
+
+	private final int           fieldCount;
+	private final int[]         countOfObs;
+	private final long[]        missingOfObs;
+	private final double[]      totalOfObs;
+	private final double[]      totalComp;
+	private final FloatColumn[] observations;
+	private long                lineCount = 0;
+	
+	// Lines rejected as malformed, numbered from zero at the first line of
+	// the portion
+	private final RejectBuffer  rejects = new RejectBuffer();
+	
+	// Partial statistics, which are only gathered when there's a schema.
+	// The running mean and sum of squared deviations are those of 
+	// Welford's method, so that portions can be combined by Chan's method.
+	private final Schema            schema;
+	private final float[]           minOfObs;
+	private final float[]           maxOfObs;
+	private final double[]          runMean;
+	private final double[]          sumSqDev;
+	private final long[][]          histogram;
+	private final double[]          sinOfObs;
+	private final double[]          cosOfObs;
+	private final FrequencySketch[] frequentOfObs;
+	private final HyperLogLog[]     distinctOfObs;
+	
+	/**
+	 * Create an accumulator which only counts, totals and holds the
+	 * observations
+	 * 
+	 * @param fieldCount Number of observation types
+	 * @param capacityHint Expected number of observations per type
+	 */
+	public StatsAccumulator(int fieldCount, int capacityHint) {
+		this(fieldCount, null, capacityHint);
+	}
+	
+	/**
+	 * Create an accumulator which also gathers the partial statistics of
+	 * each observation type
+	 * 
+	 * @param schema Layout of the observations
+	 * @param capacityHint Expected number of observations per type
+	 */
+	public StatsAccumulator(Schema schema, int capacityHint) {
+		this(schema.getFieldCount(), schema, capacityHint);
+	}
+	
+	private StatsAccumulator(int fieldCount, Schema schema, int capacityHint) {
+		// Test preconditions
+		if (fieldCount <= 0) {
+			throw new IllegalArgumentException("Invalid fieldCount of "+fieldCount+" passed.");
+		}
+		this.fieldCount = fieldCount;
+		this.countOfObs = new int[fieldCount];
+		this.missingOfObs = new long[fieldCount];
+		this.totalOfObs = new double[fieldCount];
+		this.totalComp = new double[fieldCount];
+		this.observations = new FloatColumn[fieldCount];
+		for (int i = 0; i < fieldCount; i++) {
+			observations[i] = new FloatColumn(capacityHint);
+		}
+		
+		this.schema = schema;
+		if (schema == null) {
+			this.minOfObs = null;
+			this.maxOfObs = null;
+			this.runMean = null;
+			this.sumSqDev = null;
+			this.histogram = null;
+			this.sinOfObs = null;
+			this.cosOfObs = null;
+			this.frequentOfObs = null;
+			this.distinctOfObs = null;
+			return;
+		}
+		this.minOfObs = new float[fieldCount];
+		this.maxOfObs = new float[fieldCount];
+		this.runMean = new double[fieldCount];
+		this.sumSqDev = new double[fieldCount];
+		this.histogram = new long[fieldCount][WeatherStats.HISTBINS];
+		this.sinOfObs = new double[fieldCount];
+		this.cosOfObs = new double[fieldCount];
+		this.frequentOfObs = new FrequencySketch[fieldCount];
+		this.distinctOfObs = new HyperLogLog[fieldCount];
+		for (int i = 0; i < fieldCount; i++) {
+			minOfObs[i] = Float.NaN;
+			maxOfObs[i] = Float.NaN;
+			if (schema.getField(i).isDirection()) {
+				frequentOfObs[i] = new FrequencySketch(WeatherStats.SKETCHCAPACITY);
+				distinctOfObs[i] = new HyperLogLog();
+			}
+		}
+	}
+	
+	/**
+	 * Add the observations from a single sample line
+	 * 
+	 * @param fields Value of each observation type on the line
+	 */
+	public void add(float[] fields) {
+		for (int j = 0; j < fieldCount; j++) {
+			float f = fields[j];
+			if (f != f) {
+				missingOfObs[j]++;
+			} else if (schema == null) {
+				countOfObs[j]++;
+				CompensatedSum.add(totalOfObs, totalComp, j, f);
+			} else {
+				addStatistics(j, f);
+			}
+			observations[j].add(f);
+		}
+		lineCount++;
+	}
+	
+	/**
+	 * Add a value which isn't NaN to the partial statistics of an 
+	 * observation type, in the same way as the engine does
+	 */
+	private void addStatistics(int j, float f) {
+		Schema.Column field = schema.getField(j);
+		float bearing = field.isDirection() ? WeatherStats.normalizeBearing(f) : 0.0f;
+		if (bearing != bearing) {
+			missingOfObs[j]++;
+			return;
+		}
+		countOfObs[j]++;
+		CompensatedSum.add(totalOfObs, totalComp, j, f);
+		if (countOfObs[j] == 1) {
+			minOfObs[j] = f;
+			maxOfObs[j] = f;
+		} else if (f < minOfObs[j]) {
+			minOfObs[j] = f;
+		} else if (f > maxOfObs[j]) {
+			maxOfObs[j] = f;
+		}
+		double delta = f - runMean[j];
+		runMean[j] += delta / countOfObs[j];
+		sumSqDev[j] += delta * (f - runMean[j]);
+		if (field.hasRange()) {
+			histogram[j][ColumnKernels.bin(f, field.getLow(), field.getHigh(), WeatherStats.HISTBINS)]++;
+		}
+		if (field.isDirection()) {
+			sinOfObs[j] += WeatherStats.sinOf(bearing);
+			cosOfObs[j] += WeatherStats.cosOf(bearing);
+			int key = Float.floatToIntBits(bearing);
+			frequentOfObs[j].add(key);
+			distinctOfObs[j].add(key);
+		}
+	}
+	
+	/**
+	 * Record that the next sample line of the portion was rejected as 
+	 * malformed
+	 */
+	public void reject() {
+		rejects.add(lineCount + rejects.getCount());
+	}
+	
+	/**
+	 * Remove every line from the accumulator while keeping the capacity 
+	 * of its observations, so that it can be reused for another portion
+	 */
+	public void clear() {
+		for (int j = 0; j < fieldCount; j++) {
+			countOfObs[j] = 0;
+			missingOfObs[j] = 0;
+			totalOfObs[j] = 0.0;
+			totalComp[j] = 0.0;
+			observations[j].clear();
+			if (schema != null) {
+				minOfObs[j] = Float.NaN;
+				maxOfObs[j] = Float.NaN;
+				runMean[j] = 0.0;
+				sumSqDev[j] = 0.0;
+				Arrays.fill(histogram[j], 0);
+				sinOfObs[j] = 0.0;
+				cosOfObs[j] = 0.0;
+				if (schema.getField(j).isDirection()) {
+					frequentOfObs[j] = new FrequencySketch(WeatherStats.SKETCHCAPACITY);
+					distinctOfObs[j] = new HyperLogLog();
+				}
+			}
+		}
+		lineCount = 0;
+		rejects.clear();
+	}
+	
+	public int getFieldCount() {
+		return fieldCount;
+	}
+	
+	/**
+	 * @return true if the partial statistics are gathered
+	 */
+	public boolean hasStatistics() {
+		return schema != null;
+	}
+	
+	public int getCount(int fieldIdx) {
+		return countOfObs[fieldIdx];
+	}
+	
+	/**
+	 * @param fieldIdx Index of the observation type
+	 * @return number of missing values of the observation type
+	 */
+	public long getMissingCount(int fieldIdx) {
+		return missingOfObs[fieldIdx];
+	}
+	
+	public double getTotal(int fieldIdx) {
+		return CompensatedSum.value(totalOfObs, totalComp, fieldIdx);
+	}
+	
+	/**
+	 * @param fieldIdx Index of the observation type
+	 * @return value of the observation type on each line, with NaN for 
+	 * 		   missing values
+	 */
+	public FloatColumn getObservations(int fieldIdx) {
+		return observations[fieldIdx];
+	}
+	
+	/**
+	 * @return number of sample lines added, excluding those rejected
+	 */
+	public long getLineCount() {
+		return lineCount;
+	}
+	
+	/**
+	 * @return number of sample lines rejected as malformed
+	 */
+	public long getRejectCount() {
+		return rejects.getCount();
+	}
+	
+	/**
+	 * @return rejects recorded for the portion, with lines numbered from 
+	 * 		   zero at the first line of the portion
+	 */
+	RejectBuffer getRejects() {
+		return rejects;
+	}
+	
+	// The partial statistics below are only valid when hasStatistics()
+	// is true, and the extremes only when the count isn't zero.
+	
+	float getMinimum(int fieldIdx) {
+		return minOfObs[fieldIdx];
+	}
+	
+	float getMaximum(int fieldIdx) {
+		return maxOfObs[fieldIdx];
+	}
+	
+	double getRunningTotal(int fieldIdx) {
+		return totalOfObs[fieldIdx];
+	}
+	
+	double getTotalComp(int fieldIdx) {
+		return totalComp[fieldIdx];
+	}
+	
+	double getRunningMean(int fieldIdx) {
+		return runMean[fieldIdx];
+	}
+	
+	double getSumSqDev(int fieldIdx) {
+		return sumSqDev[fieldIdx];
+	}
+	
+	long[] getHistogram(int fieldIdx) {
+		return histogram[fieldIdx];
+	}
+	
+	double getSinTotal(int fieldIdx) {
+		return sinOfObs[fieldIdx];
+	}
+	
+	double getCosTotal(int fieldIdx) {
+		return cosOfObs[fieldIdx];
+	}
+	
+	/**
+	 * @return frequency sketch of a direction field, or null for other 
+	 * 		   fields
+	 */
+	FrequencySketch getFrequent(int fieldIdx) {
+		return frequentOfObs[fieldIdx];
+	}
+	
+	/**
+	 * @return distinct count sketch of a direction field, or null for 
+	 * 		   other fields
+	 */
+	HyperLogLog getDistinct(int fieldIdx) {
+		return distinctOfObs[fieldIdx];
+	}
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A binary checkpoint of the accumulated state of a WeatherStats engine 
+ * and the position reached in its data source. Restoring a checkpoint
+ * allows processing to resume where it left off without parsing the data
+ * already processed again.
+ * <p>
+ * The file is little endian and laid out as follows:
+ * <ul>
+ * <li>Header: magic number "WSCK", format version, number of observation
+ *     types, offset of the next unprocessed byte in the data source, and
+ *     whether the source's header line has been skipped
+ * <li>Engine state, as written by WeatherStats.writeTo
+ * <li>CRC-32 of everything preceding it
+ * </ul>
+ * Checkpoints are written to a temporary file which then replaces the 
+ * previous checkpoint, so an interrupted save leaves the old one intact.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class StatsSnapshot {
+
+	private static final int   MAGIC = 0x4b435357;		// "WSCK" little endian
+	private static final short VERSION = 6;
+	private static final int   HEADERSIZE = 4 + 2 + 4 + 8 + 1;
+	private static final int   CRCSIZE = 4;
+	
+	private final WeatherStats weatherStats;
+	private final long         offset;
+	private final boolean      headerSkipped;
+	
+	/**
+	 * Create a snapshot
+	 * 
+	 * @param weatherStats Engine whose state is captured
+	 * @param offset Offset of the next unprocessed byte in the data source
+	 * @param headerSkipped true if the header line precedes offset
+	 */
+	public StatsSnapshot(WeatherStats weatherStats, long offset, boolean headerSkipped) {
+		this.weatherStats = weatherStats;
+		this.offset = offset;
+		this.headerSkipped = headerSkipped;
+	}
+	
+	/**
+	 * Create a snapshot of the state of a follower
+	 * 
+	 * @param follower Follower whose engine and position are captured
+	 */
+	public StatsSnapshot(TailFollower follower) {
+		this(follower.getWeatherStats(), follower.getOffset(), follower.isHeaderSkipped());
+	}
+	
+	/**
+	 * Write the snapshot to a file, replacing any previous one
+	 * 
+	 * @param path Path of the checkpoint file
+	 * @throws IOException if the file can't be written
+	 */
+	public void save(Path path) throws IOException {
+		long size = HEADERSIZE + weatherStats.stateSize() + CRCSIZE;
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IOException("Snapshot of "+size+" bytes is too large. Use estimate mode.");
+		}
+		
+		ByteBuffer buf = ByteBuffer.allocateDirect((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC);
+		buf.putShort(VERSION);
+		buf.putInt(weatherStats.getFieldCount());
+		buf.putLong(offset);
+		buf.put((byte) (headerSkipped ? 1 : 0));
+		weatherStats.writeTo(buf);
+		buf.putInt(checksum(buf, buf.position()));
+		buf.flip();
+		
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, 
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			channel.force(true);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Read a snapshot from a file
+	 * 
+	 * @param path Path of the checkpoint file
+	 * @return snapshot holding a new engine restored to the saved state
+	 * @throws IOException if the file can't be read or isn't a valid 
+	 * 		   checkpoint
+	 */
+	public static StatsSnapshot load(Path path) throws IOException {
+		MappedByteBuffer buf = null;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADERSIZE + CRCSIZE || size > Integer.MAX_VALUE) {
+				throw new IOException(path+" isn't a WeatherStats checkpoint.");
+			}
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		
+		if (buf.getInt() != MAGIC) {
+			throw new IOException(path+" isn't a WeatherStats checkpoint.");
+		}
+		short version = buf.getShort();
+		if (version != VERSION) {
+			throw new IOException(path+" has unsupported checkpoint version "+version+".");
+		}
+		int crcPos = buf.limit() - CRCSIZE;
+		if (checksum(buf, crcPos) != buf.getInt(crcPos)) {
+			throw new IOException(path+" is corrupt. Its checksum doesn't match.");
+		}
+		int fieldCount = buf.getInt();
+		long offset = buf.getLong();
+		boolean headerSkipped = buf.get() != 0;
+		
+		WeatherStats weatherStats = new WeatherStats();
+		weatherStats.readFrom(buf);
+		if (buf.position() != crcPos || weatherStats.getFieldCount() != fieldCount) {
+			throw new IOException(path+" is corrupt. Its length doesn't match its contents.");
+		}
+		return new StatsSnapshot(weatherStats, offset, headerSkipped);
+	}
+	
+	/**
+	 * @return follower which resumes processing a data source from the 
+	 * 		   position captured by this snapshot
+	 */
+	public TailFollower toFollower(Path source) {
+		return new TailFollower(weatherStats, source, offset, headerSkipped);
+	}
+	
+	public WeatherStats getWeatherStats() {
+		return weatherStats;
+	}
+	
+	public long getOffset() {
+		return offset;
+	}
+	
+	public boolean isHeaderSkipped() {
+		return headerSkipped;
+	}
+	
+	/**
+	 * Calculate the CRC-32 of the bytes in a buffer preceding a position, 
+	 * leaving the buffer's position and limit unchanged
+	 */
+	private static int checksum(ByteBuffer buf, int end) {
+		ByteBuffer data = buf.duplicate();
+		data.position(0);
+		data.limit(end);
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return (int) crc.getValue();
+	}
+}
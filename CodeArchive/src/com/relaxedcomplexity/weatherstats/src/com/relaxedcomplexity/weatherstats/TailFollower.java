@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Follows a local observation file which is being appended to. Each call
+ * to poll() processes only the complete lines added since the previous 
+ * call, adding them to the statistics already accumulated by a WeatherStats
+ * engine. The cost of each batch is therefore proportional to the amount
+ * of new data rather than to the size of the file.
+ * <p>
+ * A line isn't processed until its line feed has been written, so a line
+ * which is only partly written when the file is polled is picked up by a
+ * later poll. The header line is skipped on the first poll.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class TailFollower {
+
+	// Milliseconds between polls when following a file
+	public static final long DEFAULTINTERVAL = 60000;
+	
+	private static final int SCANBUFSIZE = 4096;
+	
+	private final WeatherStats weatherStats;
+	private final Path         path;
+	private long               offset = 0;
+	private boolean            headerSkipped = false;
+	private Path               checkpoint = null;
+	
+	/**
+	 * Create a follower for a local file
+	 * 
+	 * @param weatherStats Engine to which the observations are added
+	 * @param path Path of the file
+	 */
+	public TailFollower(WeatherStats weatherStats, Path path) {
+		this(weatherStats, path, 0, false);
+	}
+	
+	/**
+	 * Create a follower which resumes processing a local file from a known
+	 * offset, such as one saved by a previous run along with the engine's
+	 * accumulators.
+	 * 
+	 * @param weatherStats Engine to which the observations are added
+	 * @param path Path of the file
+	 * @param offset Offset of the first line not yet processed
+	 * @param headerSkipped true if the header line precedes offset
+	 */
+	public TailFollower(WeatherStats weatherStats, Path path, long offset, boolean headerSkipped) {
+		// Test preconditions
+		if (offset < 0) {
+			throw new IllegalArgumentException("Invalid offset of "+offset+" passed.");
+		}
+		this.weatherStats = weatherStats;
+		this.path = path;
+		this.offset = offset;
+		this.headerSkipped = headerSkipped;
+	}
+	
+	/**
+	 * Process the complete lines appended to the file since the last poll
+	 * 
+	 * @return number of lines processed
+	 * @throws IOException if the file can't be read or has been truncated
+	 */
+	public long poll() throws IOException {
+		long end = 0;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < offset) {
+				throw new IOException(path+" is shorter than the "+offset+" bytes already processed.");
+			}
+			if (!headerSkipped) {
+				long bodyStart = ChunkedFileParser.alignToLine(channel, 1, size);
+				if (bodyStart == size && (size == 0 || !endsLine(channel, size))) {
+					return 0;
+				}
+				offset = bodyStart;
+				headerSkipped = true;
+			}
+			end = lastLineEnd(channel, offset, size);
+		}
+		
+		if (end <= offset) {
+			return 0;
+		}
+		long lineCount = weatherStats.collectStatsRange(path, offset, end);
+		offset = end;
+		return lineCount;
+	}
+	
+	/**
+	 * Save a checkpoint of the engine's state and the follower's position
+	 * after each batch processed by follow()
+	 * 
+	 * @param checkpoint Path of the checkpoint file, or null for none
+	 */
+	public void setCheckpoint(Path checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+	
+	/**
+	 * Poll the file at a fixed interval until interrupted, printing updated
+	 * statistics after each batch of new lines and saving a checkpoint if
+	 * one has been set.
+	 * 
+	 * @param intervalMillis Milliseconds between polls
+	 * @throws IOException if the file can't be read or has been truncated
+	 * @throws InterruptedException if interrupted while waiting to poll
+	 */
+	public void follow(long intervalMillis) throws IOException, InterruptedException {
+		while (!Thread.currentThread().isInterrupted()) {
+			if (poll() > 0) {
+				if (checkpoint != null) {
+					new StatsSnapshot(this).save(checkpoint);
+				}
+				weatherStats.calculateStats();
+				weatherStats.printStats();
+				System.out.println();
+			}
+			Thread.sleep(intervalMillis);
+		}
+	}
+	
+	/**
+	 * @return offset of the first byte not yet processed
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * @return true once the header line has been skipped
+	 */
+	public boolean isHeaderSkipped() {
+		return headerSkipped;
+	}
+	
+	/**
+	 * @return engine to which the observations are added
+	 */
+	public WeatherStats getWeatherStats() {
+		return weatherStats;
+	}
+	
+	private static boolean endsLine(FileChannel channel, long size) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(1);
+		return channel.read(buf, size - 1) == 1 && buf.get(0) == '\n';
+	}
+	
+	/**
+	 * Find the offset following the last line feed in the file at or after
+	 * a given offset
+	 * 
+	 * @return offset following the line feed, or from if there is none
+	 */
+	private static long lastLineEnd(FileChannel channel, long from, long size) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(SCANBUFSIZE);
+		long blockEnd = size;
+		while (blockEnd > from) {
+			long blockStart = Math.max(from, blockEnd - SCANBUFSIZE);
+			buf.clear();
+			buf.limit((int) (blockEnd - blockStart));
+			int n = 0;
+			while (buf.hasRemaining()) {
+				int r = channel.read(buf, blockStart + n);
+				if (r < 0) {
+					break;
+				}
+				n += r;
+			}
+			for (int i = n - 1; i >= 0; i--) {
+				if (buf.get(i) == '\n') {
+					return blockStart + i + 1;
+				}
+			}
+			blockEnd = blockStart;
+		}
+		return from;
+	}
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+/**
+ * The statistics accumulated for each observation type over a single time
+ * window. Only fixed size state is kept for each observation type: its
+ * count, compensated total, minimum, maximum and a P-Square estimator for
+ * each requested percentile, together with the sums of the sines and 
+ * cosines of the bearings held by direction fields. The memory used by a window is therefore the
+ * same however many observations fall within it.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class TimeWindow {
+
+	private final long           start;
+	private final long           end;
+	private final int[]          countOfObs;
+	private final double[]       totalOfObs;
+	private final double[]       totalComp;
+	private final float[]        minOfObs;
+	private final float[]        maxOfObs;
+	private final boolean[]      directions;
+	private final double[]       sinOfObs;
+	private final double[]       cosOfObs;
+	private final P2Quantile[][] estimators;
+	
+	/**
+	 * Create an empty window
+	 * 
+	 * @param start Start of the window in seconds since the epoch
+	 * @param end End of the window, which is excluded from it
+	 * @param fieldCount Number of observation types
+	 * @param percentiles Percentiles to be estimated, in the range 0.0-1.0
+	 * @param directions true for each observation type holding compass 
+	 * 		  bearings, or null if there are none
+	 */
+	TimeWindow(long start, long end, int fieldCount, double[] percentiles, boolean[] directions) {
+		this.start = start;
+		this.end = end;
+		this.countOfObs = new int[fieldCount];
+		this.totalOfObs = new double[fieldCount];
+		this.totalComp = new double[fieldCount];
+		this.minOfObs = new float[fieldCount];
+		this.maxOfObs = new float[fieldCount];
+		this.directions = directions;
+		this.sinOfObs = (directions != null) ? new double[fieldCount] : null;
+		this.cosOfObs = (directions != null) ? new double[fieldCount] : null;
+		this.estimators = new P2Quantile[fieldCount][percentiles.length];
+		for (int j = 0; j < fieldCount; j++) {
+			minOfObs[j] = Float.NaN;
+			maxOfObs[j] = Float.NaN;
+			for (int k = 0; k < percentiles.length; k++) {
+				estimators[j][k] = new P2Quantile(percentiles[k]);
+			}
+		}
+	}
+	
+	/**
+	 * Add the observations from a single sample line
+	 * 
+	 * @param fields Value of each observation type, or NaN if it's missing
+	 */
+	void add(float[] fields) {
+		for (int j = 0; j < countOfObs.length; j++) {
+			float f = fields[j];
+			if (f != f) {
+				continue;
+			}
+			if (directions != null && directions[j]) {
+				float bearing = WeatherStats.normalizeBearing(f);
+				if (bearing != bearing) {
+					continue;
+				}
+				sinOfObs[j] += WeatherStats.sinOf(bearing);
+				cosOfObs[j] += WeatherStats.cosOf(bearing);
+			}
+			if (countOfObs[j]++ == 0) {
+				minOfObs[j] = f;
+				maxOfObs[j] = f;
+			} else if (f < minOfObs[j]) {
+				minOfObs[j] = f;
+			} else if (f > maxOfObs[j]) {
+				maxOfObs[j] = f;
+			}
+			CompensatedSum.add(totalOfObs, totalComp, j, f);
+			for (P2Quantile estimator : estimators[j]) {
+				estimator.add(f);
+			}
+		}
+	}
+	
+	/**
+	 * @return start of the window in seconds since the epoch
+	 */
+	public long getStart() {
+		return start;
+	}
+	
+	/**
+	 * @return end of the window in seconds since the epoch. The window
+	 * 		   includes times before, but not at, its end.
+	 */
+	public long getEnd() {
+		return end;
+	}
+	
+	public int getCount(int fieldIdx) {
+		return countOfObs[fieldIdx];
+	}
+	
+	public double getTotal(int fieldIdx) {
+		return CompensatedSum.value(totalOfObs, totalComp, fieldIdx);
+	}
+	
+	/**
+	 * @return mean of an observation type, which for bearings is their 
+	 * 		   circular mean in the range 0-360, or NaN if the window is 
+	 * 		   empty or the bearings cancel out
+	 */
+	public float getMean(int fieldIdx) {
+		if (directions != null && directions[fieldIdx]) {
+			if (sinOfObs[fieldIdx] == 0.0 && cosOfObs[fieldIdx] == 0.0) {
+				return Float.NaN;
+			}
+			double degrees = Math.toDegrees(Math.atan2(sinOfObs[fieldIdx], cosOfObs[fieldIdx]));
+			return (float) (degrees < 0.0 ? degrees + 360.0 : degrees);
+		}
+		return (float) (getTotal(fieldIdx) / countOfObs[fieldIdx]);
+	}
+	
+	public float getMin(int fieldIdx) {
+		return minOfObs[fieldIdx];
+	}
+	
+	public float getMax(int fieldIdx) {
+		return maxOfObs[fieldIdx];
+	}
+	
+	/**
+	 * Return the estimate of a percentile of an observation type
+	 * 
+	 * @param fieldIdx Index of the observation type
+	 * @param p Percentile, which must be one of those being estimated
+	 * @return estimated value, or NaN if the window is empty
+	 */
+	public float getPercentile(int fieldIdx, double p) {
+		for (P2Quantile estimator : estimators[fieldIdx]) {
+			if (estimator.quantile() == p) {
+				return (float) estimator.estimate();
+			}
+		}
+		throw new IllegalArgumentException("Percentile "+p+" isn't being estimated.");
+	}
+}
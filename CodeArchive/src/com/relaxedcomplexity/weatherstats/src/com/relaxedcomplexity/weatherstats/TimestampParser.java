@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+/**
+ * Converts the date and time fields of a sample line into seconds since
+ * the epoch without creating any intermediate objects. Dates are in year,
+ * month, day order and times in hour, minute, second order, as in 
+ * "2014_01_31 23:59:00". Any single non-digit character may separate the
+ * parts of either field, and seconds are optional. Times are taken to be 
+ * UTC. A parser reuses its working storage, so a single instance must not
+ * be shared between threads.
+ * 
+ * @author jim.medlock
+ *
+ */
+final class TimestampParser {
+
+	// Returned when a date or time can't be converted
+	static final long INVALID = Long.MIN_VALUE;
+	
+	private static final long SECSPERDAY = 86400;
+	
+	private final int[] parts = new int[3];
+	
+	/**
+	 * Convert a date and time held in a character sequence
+	 * 
+	 * @param s Character sequence holding the fields
+	 * @param dateStart Position of the start of the date
+	 * @param dateEnd Position following the end of the date
+	 * @param timeStart Position of the start of the time
+	 * @param timeEnd Position following the end of the time
+	 * @return seconds since the epoch, or INVALID
+	 */
+	long parse(CharSequence s, int dateStart, int dateEnd, int timeStart, int timeEnd) {
+		if (!parseParts(s, dateStart, dateEnd, parts, 3)) {
+			return INVALID;
+		}
+		int year = parts[0];
+		int month = parts[1];
+		int day = parts[2];
+		if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+			return INVALID;
+		}
+		parts[2] = 0;
+		if (!parseParts(s, timeStart, timeEnd, parts, 2)) {
+			return INVALID;
+		}
+		int hour = parts[0];
+		int minute = parts[1];
+		int second = parts[2];
+		if (hour > 23 || minute > 59 || second > 60) {
+			return INVALID;
+		}
+		return epochDay(year, month, day) * SECSPERDAY + hour * 3600L + minute * 60L + second;
+	}
+	
+	/**
+	 * Calculate the number of days in a month of the proleptic Gregorian
+	 * calendar
+	 */
+	static int daysInMonth(int year, int month) {
+		if (month == 2) {
+			boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+			return leap ? 29 : 28;
+		}
+		return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+	}
+	
+	/**
+	 * Calculate the number of days between the epoch and a date in the
+	 * proleptic Gregorian calendar
+	 */
+	static long epochDay(int year, int month, int day) {
+		// Count years from March so that the leap day falls at the end
+		long y = (month <= 2) ? year - 1 : year;
+		long era = Math.floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+	
+	/**
+	 * Split a field into numeric parts separated by single non-digit 
+	 * characters
+	 * 
+	 * @param minParts Number of parts which must be present. Up to 
+	 * 		  parts.length parts are converted.
+	 * @return true if the field was converted
+	 */
+	private static boolean parseParts(CharSequence s, int start, int end, int[] parts, int minParts) {
+		int part = 0;
+		int value = 0;
+		int digits = 0;
+		for (int pos = start; pos < end; pos++) {
+			char c = s.charAt(pos);
+			if (c >= '0' && c <= '9') {
+				if (++digits > 4) {
+					return false;
+				}
+				value = value * 10 + (c - '0');
+			} else {
+				if (digits == 0 || part == parts.length - 1) {
+					return false;
+				}
+				parts[part++] = value;
+				value = 0;
+				digits = 0;
+			}
+		}
+		if (digits == 0) {
+			return false;
+		}
+		parts[part++] = value;
+		return part >= minParts;
+	}
+}
@@ -24,103 +24,354 @@
  *******************************************************************************/
 package com.relaxedcomplexity.weatherstats;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.management.JMException;
 
 /**
- * This class calculates the mean and median for weather observations taken 
- * in 2014 at the Deep Moor observation station on Lake Pend Oreille in 
- * Northeastern Washington. Raw weather observation data for this location
+ * This class calculates the mean, median, extremes, standard deviation and
+ * distribution of weather observations taken in 2014 at the Deep Moor 
+ * observation station on Lake Pend Oreille in Northeastern Washington. Raw weather observation data for this location
  * is available from http://lpo.dt.navy.mil.
+ * <p>
+ * Each instance holds its own input source and accumulators, so several 
+ * data sets may be processed concurrently in the same JVM by giving each
+ * one its own WeatherStats object. An instance must only be used by one
+ * thread at a time.
  * 
  * @author jim.medlock
  *
  */
 public class WeatherStats {
 	
-    private static BufferedInputStream urlin = null;
-    private static BufferedReader urlrdr = null;
-    private static int bufSize = 1024;
+    private InputStream urlin = null;
+    private BufferedReader urlrdr = null;
+    
+    // Reader used in place of the URL reader when the observations are
+    // read from a local copy of the file.
+    private MappedLineReader filerdr = null;
+    
+    // The URL read when no data source is passed. It can be overridden 
+    // with the weatherstats.url system property, for example to read from
+    // a mirror.
+    private static final String DEFAULTURL = System.getProperty("weatherstats.url",
+    		"http://lpo.dt.navy.mil/data/DM/Environmental_Data_Deep_Moor_2014.txt");
+    
+    // Number of observations expected when the size of the data set isn't
+    // known in advance, and the approximate length of a sample line used
+    // to estimate it when it is.
+    private static final int DEFAULTCAPACITY = 131072;
+    private static final int APPROXLINELEN = 48;
     
-    // Static accumulation fields. These are used for the 
+    // Accumulation fields. These are used for the 
     // calculation of the mean and median of the various
     // observation points. 
     
-    private static long		 currLineNo = 0;
-    
-    // Define which fields in the sample point line we are
-    // actually interesting in calculating statistics for
-    private static final int STARTFLDNO = 2;
-    private static final int ENDFLDNO = 8;
-    private static final int FLDCOUNT = ENDFLDNO - STARTFLDNO + 1;
-    
-    // The cell positions in these fields correspond to the
-    // order of the observation types in the data set.
-    private static String[] statNames = {"Air_Temp",  		  "Barometric_Press", "Dew_Point",
-    									 "Relative_Humidity", "Wind_Dir", 		  "Wind_Gust", 
-    									 "Wind_Speed"};
-    private static int[]    countOfObs = new int[FLDCOUNT];
-    private static float[]  totalOfObs = new float[FLDCOUNT];
-    private static float[]	mean = new float[FLDCOUNT];
-    private static float[]	median = new float[FLDCOUNT];
-    
-    // The observations field is an array of ArrayList's used to 
-    // hold the values for the various observation points across
+    private long		 currLineNo = 0;
+    
+    // The schema defines which fields in the sample point line we are
+    // actually interested in calculating statistics for, along with the
+    // fields holding the date and time of the sample point. The cell 
+    // positions of the accumulation fields correspond to the order of 
+    // the observation types in the schema.
+    private Schema schema = null;
+    private int    fieldCount = 0;
+    
+    private int[]    countOfObs;
+    // Missing values, such as sensor dropouts, are marked by the tokenizer
+    // and counted here rather than in countOfObs. They are left out of 
+    // every other statistic.
+    private long[]   missingOfObs;
+    // Totals are compensated double sums. Summing in float loses digits
+    // once the total is large relative to each observation.
+    private double[] totalOfObs;
+    private double[] totalComp;
+    private float[]	 mean;
+    private float[]	 median;
+    
+    // The extremes, spread and distribution of each observation type are
+    // accumulated as each value is added, so they need neither a second
+    // pass over the data nor the retained observations. The variance is 
+    // maintained with Welford's method, which doesn't suffer the 
+    // cancellation of the sum of squares approach.
+    private float[]  minOfObs;
+    private float[]  maxOfObs;
+    private double[] runMean;
+    private double[] sumSqDev;
+    
+    // Each histogram has HISTBINS equal width bins spanning the physical
+    // range of the observation type given by the schema. Values outside 
+    // the range are treated as missing, so never reach the histogram. No
+    // histogram is kept for an observation type whose range isn't known.
+    static final int HISTBINS = 10;
+    private long[][]         histogram;
+    
+    // Direction fields hold compass bearings, whose ordinary mean is 
+    // meaningless since 350 and 10 degrees are only 20 degrees apart. Their
+    // mean is instead the bearing of the sum of the unit vectors pointing 
+    // along each observation. They are also categorical, so their most 
+    // frequent bearings and number of distinct bearings are counted with
+    // sketches of constant size. Enough bearings are monitored to hold all
+    // 360 whole degrees, so the counts of such data are exact and the 
+    // monitored bearings aren't constantly replaced. The sketches are null
+    // for other fields.
+    private static final int  TOPDIRECTIONS = 5;
+    static final int          SKETCHCAPACITY = 512;
+    private double[]          sinOfObs;
+    private double[]          cosOfObs;
+    private FrequencySketch[] frequentOfObs;
+    private HyperLogLog[]     distinctOfObs;
+    
+    // Bearings are usually whole degrees, whose unit vectors are looked up
+    // rather than calculated for each observation.
+    private static final double[] SINOFDEGREE = new double[361];
+    private static final double[] COSOFDEGREE = new double[361];
+    static {
+    	for (int d = 0; d <= 360; d++) {
+    		SINOFDEGREE[d] = Math.sin(Math.toRadians(d));
+    		COSOFDEGREE[d] = Math.cos(Math.toRadians(d));
+    	}
+    }
+    
+    // The observations field is an array of primitive float columns used 
+    // to hold the values for the various observation points across
     // all of the retrieved samples.
-    private static ArrayList<Float> observations[] = new ArrayList[FLDCOUNT];    
+    private FloatColumn[] observations;
+    
+    // Converts the fields of interest in each sample line without
+    // allocating any per-field objects, skipping the other fields.
+    private FieldTokenizer tokenizer;
+    
+    // When an error budget is set the tokenizer validates each line, and
+    // malformed lines are rejected and counted rather than ending the run.
+    // The run is only abandoned once more lines than the budget allows 
+    // have been rejected. A negative budget disables validation.
+    private long               errorBudget = -1;
+    private final RejectBuffer rejects = new RejectBuffer();
+    
+    // When a cache file is set the parsed observations are also written
+    // to it, so later runs can read them without parsing the text again.
+    private Path                cachePath = null;
+    private ColumnarCacheWriter cacheWriter = null;
+    
+    // When a windowed aggregator is set the observations are also 
+    // aggregated into time windows keyed on the date and time fields.
+    private WindowedAggregator    windowedAggregator = null;
+    private final TimestampParser timestampParser = new TimestampParser();
+    
+    // When metrics are set the progress of process() is recorded in them 
+    // a batch of METRICSBATCH lines at a time, so they can be watched 
+    // while a long ingest runs.
+    private static final int METRICSBATCH = 1024;
+    private IngestMetrics    metrics = null;
+    
+    // When estimate mode is enabled observations aren't retained. Instead
+    // a P-Square estimator is maintained for each of the requested 
+    // percentiles of each observation type, which keeps memory use 
+    // constant regardless of the size of the data set.
+    private static final double   MEDIAN = 0.5;
+    private boolean               estimateMode = false;
+    private double[]              percentiles = {0.05, MEDIAN, 0.95, 0.99};
+    private P2Quantile[][]        estimators;
+    
+    /**
+     * Create an engine with no accumulated observations for the layout of
+     * the Deep Moor observation files
+     */
+    public WeatherStats() {
+    	this(Schema.DEEPMOOR);
+    }
+    
+    /**
+     * Create an engine with no accumulated observations
+     * 
+     * @param schema Layout of the sample lines
+     */
+    public WeatherStats(Schema schema) {
+    	setSchema(schema);
+    }
+    
+    /**
+     * Select the layout of the sample lines, discarding any accumulated
+     * observations. This must be called before the data source is opened.
+     * 
+     * @param schema Layout of the sample lines
+     */
+    public void setSchema(Schema schema) {
+    	// Test preconditions
+    	if (schema == null) {
+    		throw new IllegalArgumentException("Invalid schema of null passed.");
+    	}
+    	this.schema = schema;
+    	fieldCount = schema.getFieldCount();
+    	countOfObs = new int[fieldCount];
+    	missingOfObs = new long[fieldCount];
+    	totalOfObs = new double[fieldCount];
+    	totalComp = new double[fieldCount];
+    	mean = new float[fieldCount];
+    	median = new float[fieldCount];
+    	minOfObs = new float[fieldCount];
+    	maxOfObs = new float[fieldCount];
+    	runMean = new double[fieldCount];
+    	sumSqDev = new double[fieldCount];
+    	histogram = new long[fieldCount][HISTBINS];
+    	sinOfObs = new double[fieldCount];
+    	cosOfObs = new double[fieldCount];
+    	frequentOfObs = new FrequencySketch[fieldCount];
+    	distinctOfObs = new HyperLogLog[fieldCount];
+    	observations = new FloatColumn[fieldCount];
+    	estimators = new P2Quantile[fieldCount][];
+    	tokenizer = schema.newTokenizer();
+    	tokenizer.setValidating(errorBudget >= 0);
+    	initializeCalc(0);
+    }
 
     /**
      * Initialize calculation fields
+     * 
+     * @param capacityHint Expected number of observations per field
      */
-    private static void initializeCalc() {
-    	for (int i=0; i < FLDCOUNT; i++) {
+    private void initializeCalc(int capacityHint) {
+    	currLineNo = 0;
+    	rejects.clear();
+    	for (int i=0; i < fieldCount; i++) {
     		countOfObs[i] = 0;
-    		totalOfObs[i] = (float) 0.0;
+    		missingOfObs[i] = 0;
+    		totalOfObs[i] = 0.0;
+    		totalComp[i] = 0.0;
     		mean[i] = (float) 0.0;
     		median[i] = (float) 0.0;
-    		observations[i] = new ArrayList();
+    		minOfObs[i] = Float.NaN;
+    		maxOfObs[i] = Float.NaN;
+    		runMean[i] = 0.0;
+    		sumSqDev[i] = 0.0;
+    		Arrays.fill(histogram[i], 0);
+    		sinOfObs[i] = 0.0;
+    		cosOfObs[i] = 0.0;
+    		if (schema.getField(i).isDirection()) {
+    			frequentOfObs[i] = new FrequencySketch(SKETCHCAPACITY);
+    			distinctOfObs[i] = new HyperLogLog();
+    		}
+    		if (estimateMode) {
+    			observations[i] = null;
+    			estimators[i] = new P2Quantile[percentiles.length];
+    			for (int j=0; j < percentiles.length; j++) {
+    				estimators[i][j] = new P2Quantile(percentiles[j]);
+    			}
+    		} else {
+    			observations[i] = new FloatColumn(capacityHint);
+    			estimators[i] = null;
+    		}
+    	}
+    }
+    
+    /**
+     * Select whether the median and other percentiles are calculated 
+     * exactly from the retained observations, or estimated in constant 
+     * memory. This must be called before the data source is opened. The
+     * median is always estimated, whether or not it's requested.
+     * 
+     * @param estimate true to estimate percentiles rather than retain 
+     * 		  observations
+     * @param quantiles Percentiles to be estimated, in the range 0.0-1.0.
+     * 		  If none are passed the current set is kept.
+     */
+    public void setEstimateMode(boolean estimate, double... quantiles) {
+    	// Test preconditions
+    	for (double q : quantiles) {
+    		if (!(q >= 0.0 && q <= 1.0)) {
+    			throw new IllegalArgumentException("Invalid percentile of "+q+" passed.");
+    		}
     	}
+    	estimateMode = estimate;
+    	if (quantiles.length > 0) {
+    		double[] sorted = Arrays.copyOf(quantiles, quantiles.length);
+    		Arrays.sort(sorted);
+    		if (Arrays.binarySearch(sorted, MEDIAN) < 0) {
+    			sorted = Arrays.copyOf(sorted, sorted.length + 1);
+    			sorted[sorted.length - 1] = MEDIAN;
+    			Arrays.sort(sorted);
+    		}
+    		percentiles = sorted;
+    	}
+    	initializeCalc(0);
     }
     
+	/**
+	 * Set the number of malformed lines which may be skipped before the 
+	 * run is abandoned. Setting a budget enables validation of each line, 
+	 * so a line that is too short or holds a field which isn't a number 
+	 * is rejected and counted rather than ending the run.
+	 * 
+	 * @param errorBudget Number of malformed lines tolerated, or a negative
+	 * 		  value to disable validation and fail on the first one
+	 */
+	public void setErrorBudget(long errorBudget) {
+		this.errorBudget = errorBudget;
+		tokenizer.setValidating(errorBudget >= 0);
+	}
+	
 	/** 
 	 * Open a URL so records can then be read from it. Note that this assumes
-	 * we are reading from a file.
+	 * we are reading from a file. The body is fetched on a separate thread
+	 * as it's parsed, and a gzip compressed file is decompressed as it's 
+	 * read.
 	 * 
 	 * @param url A string containing a completely formed url 
 	 */
-	public static void openURL(String url) {
-		initializeCalc();
+	public void openURL(String url) {
         URL from = null;
 		try {
-			from = new URL("http://lpo.dt.navy.mil/data/DM/Environmental_Data_Deep_Moor_2014.txt");
+			from = new URL(url);
 		} catch (MalformedURLException e1) {
 			// TODO Auto-generated catch block
 			e1.printStackTrace();
 		}
+		int capacityHint = DEFAULTCAPACITY;
 	    try {
-			urlin = new BufferedInputStream(from.openConnection().getInputStream(),bufSize);
+	    	AsyncFetcher.Response response = AsyncFetcher.fetch(from).get();
+	    	long contentLen = response.getContentLength();
+	    	if (contentLen > 0) {
+	    		capacityHint = (int) Math.min(contentLen / APPROXLINELEN, Integer.MAX_VALUE - 8);
+	    	}
+			urlin = DecompressingInputStream.open(response.getBody());
 			urlrdr = new BufferedReader(
 		            new InputStreamReader(urlin, StandardCharsets.UTF_8));
 	    } catch (IOException ioex) {
 	    	//TODO: Add exception logic
 			ioex.printStackTrace();
-	    } catch (SecurityException sx) {
+	    } catch (ExecutionException eex) {
 	    	//TODO: Add exception logic
-			sx.printStackTrace();
-	    }		
+			eex.getCause().printStackTrace();
+	    } catch (InterruptedException iex) {
+	    	Thread.currentThread().interrupt();
+	    }
+	    initializeCalc(capacityHint);
 	}
 	
 	/**
 	 * Close the URL connection
 	 */
-	public static void closeURL( ) {
+	public void closeURL( ) {
         try {
 			urlin.close();
 		} catch (IOException e) {
@@ -129,17 +380,66 @@ public class WeatherStats {
 		}		
 	}
 	
+	/** 
+	 * Open a local copy of the observation file by mapping it into memory.
+	 * Records are then parsed directly from the mapped bytes rather than
+	 * being read and decoded through a BufferedReader. A gzip compressed 
+	 * file can't be mapped, and is instead read through a BufferedReader 
+	 * as it's decompressed on other threads.
+	 * 
+	 * @param fileName Path of the local file
+	 */
+	public void openFile(String fileName) {
+		int capacityHint = DEFAULTCAPACITY;
+		try {
+			Path path = Paths.get(fileName);
+			if (DecompressingInputStream.isCompressed(path)) {
+				urlin = DecompressingInputStream.open(path, ForkJoinPool.commonPool());
+				urlrdr = new BufferedReader(
+						new InputStreamReader(urlin, StandardCharsets.UTF_8));
+				initializeCalc(capacityHint);
+				return;
+			}
+			filerdr = new MappedLineReader(path);
+			capacityHint = (int) Math.min(filerdr.size() / APPROXLINELEN, Integer.MAX_VALUE - 8);
+		} catch (IOException ioex) {
+	    	//TODO: Add exception logic
+			ioex.printStackTrace();
+		}
+		initializeCalc(capacityHint);
+	}
+	
 	/**
-	 * Read a line from the file made available by openURL.
+	 * Close the local file opened by openFile
 	 */
-	public static String readLine() {
-		String line = null;
+	public void closeFile( ) {
+		if (filerdr == null) {
+			closeURL();
+			return;
+		}
+        try {
+			filerdr.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+        filerdr = null;
+	}
+	
+	/**
+	 * Read a line from the file made available by openURL or openFile. 
+	 * When reading from a local file the returned line is a view of the
+	 * mapped file which is only valid until the next call.
+	 * 
+	 * @throws UncheckedIOException if the line can't be read
+	 */
+	public CharSequence readLine() {
+		CharSequence line = null;
 		
 	    try {
-	    	line = urlrdr.readLine();
+	    	line = (filerdr != null) ? filerdr.readLine() : urlrdr.readLine();
 	    	currLineNo++;
 	    } catch (IOException cioex) {
-	    	cioex.printStackTrace();
+	    	throw new UncheckedIOException(cioex);
 	    } 
 	    
 	    return line;
@@ -152,87 +452,1296 @@ public class WeatherStats {
 	 * - add the value to a running total for each type of observation
 	 * - increment the count for each type of observation
 	 */
-	public static void collectStats(String sampleLine) {
-		String delims = "[ \t]+";
-		String[] fields = sampleLine.split(delims);
-		if (ENDFLDNO > fields.length) {
-			// TODO: throw error if the ending field number exceeds total number of fields
-		}
-		int j = 0;
-		float f = 0;
-		for (int i = STARTFLDNO; i <= ENDFLDNO; i++) {
-			j = i - STARTFLDNO;
-			f = Float.parseFloat(fields[i]);
-			countOfObs[j]++;
-			totalOfObs[j] = totalOfObs[j] + f;
-			try {
-			observations[j].add(new Float(f));
-			} catch (NullPointerException npe) {
-				System.out.println("Current line no: "+currLineNo);
-				System.out.println("Current field index i: "+i);
-				System.out.println("Current j: "+j);
-				System.out.println("float f: "+f);
-				npe.printStackTrace();
-				throw npe;
+	public void collectStats(CharSequence sampleLine) {
+		if (tokenizer.tokenize(sampleLine) < fieldCount) {
+			if (errorBudget >= 0) {
+				reject(currLineNo);
+				return;
+			}
+			throw new IllegalArgumentException("Line "+currLineNo+" contains fewer than "
+					+(schema.getLastIndex()+1)+" fields.");
+		}
+		long timestamp = TimestampParser.INVALID;
+		if (windowedAggregator != null) {
+			timestamp = timestampParser.parse(sampleLine, 
+					tokenizer.fieldStart(schema.getDateIndex()), tokenizer.fieldEnd(schema.getDateIndex()),
+					tokenizer.fieldStart(schema.getTimeIndex()), tokenizer.fieldEnd(schema.getTimeIndex()));
+			if (timestamp == TimestampParser.INVALID) {
+				if (errorBudget >= 0) {
+					reject(currLineNo);
+					return;
+				}
+				throw new IllegalArgumentException("Line "+currLineNo+" has an invalid date or time.");
+			}
+		}
+		float[] fields = tokenizer.values();
+		for (int j = 0; j < fieldCount; j++) {
+			addObservation(j, fields[j]);
+		}
+		if (cacheWriter != null) {
+			writeCache(fields);
+		}
+		if (windowedAggregator != null) {
+			windowedAggregator.add(timestamp, fields);
+		}
+	}
+	
+	/**
+	 * Record a malformed line, abandoning the run if this exceeds the 
+	 * error budget
+	 * 
+	 * @param lineNo Line number of the malformed line
+	 */
+	private void reject(long lineNo) {
+		rejects.add(lineNo);
+		checkErrorBudget(lineNo);
+	}
+	
+	/**
+	 * Abandon the run if more malformed lines have been rejected than the
+	 * error budget allows
+	 * 
+	 * @param lineNo Line number reached
+	 */
+	private void checkErrorBudget(long lineNo) {
+		if (errorBudget >= 0 && rejects.getCount() > errorBudget) {
+			throw new IllegalArgumentException("Line "+lineNo+" exceeds the error budget of "
+					+errorBudget+" malformed lines.");
+		}
+	}
+	
+	/**
+	 * Process the observations held in a columnar cache file written by a
+	 * previous run. The values are read directly from the mapped file, so
+	 * no text is parsed.
+	 * 
+	 * @param path Path of the cache file
+	 * @throws IOException if the cache file can't be read
+	 */
+	public void collectStatsCached(Path path) throws IOException {
+		try (ColumnarCacheReader reader = new ColumnarCacheReader(path)) {
+			// Test preconditions
+			int[] columns = new int[fieldCount];
+			for (int j = 0; j < fieldCount; j++) {
+				columns[j] = reader.getColumnIndex(getStatName(j));
+				if (columns[j] < 0) {
+					throw new IOException(path+" doesn't hold a "+getStatName(j)+" column.");
+				}
+			}
+			initializeCalc((int) Math.min(reader.getRowCount(), Integer.MAX_VALUE - 8));
+			for (int b = 0; b < reader.getBlockCount(); b++) {
+				for (int j = 0; j < fieldCount; j++) {
+					FloatBuffer values = reader.getColumn(b, columns[j]);
+					while (values.hasRemaining()) {
+						addObservation(j, values.get());
+					}
+				}
+				currLineNo += reader.getBlockRows(b);
+			}
+		}
+		currLineNo += 2;		// the header line and the read which reached the end
+	}
+	
+	/**
+	 * Write the observations from a sample line to the cache file
+	 */
+	private void writeCache(float[] fields) {
+		try {
+			cacheWriter.add(fields);
+		} catch (IOException ioex) {
+			throw new UncheckedIOException(ioex);
+		}
+	}
+	
+	/**
+	 * Process the lines held in a range of bytes of a local file, adding
+	 * their observations to those already accumulated. This allows a file
+	 * which is being appended to be processed a portion at a time.
+	 * 
+	 * @param path Path of the local file
+	 * @param start Offset of the first line in the range
+	 * @param end Offset following the line feed of the last line
+	 * @return number of lines processed
+	 * @throws IOException if the file can't be read
+	 */
+	public long collectStatsRange(Path path, long start, long end) throws IOException {
+		long startNanos = System.nanoTime();
+		long lineCount = 0;
+		try (MappedLineReader reader = new MappedLineReader(path, start, end)) {
+			CharSequence sampleLine = null;
+			while ((sampleLine = reader.readLine()) != null) {
+				currLineNo++;
+				collectStats(sampleLine);
+				lineCount++;
+			}
+		}
+		if (metrics != null) {
+			metrics.recordBatch(lineCount, end - start, System.nanoTime() - startNanos);
+			updateMetricCounts();
+		}
+		return lineCount;
+	}
+	
+	/**
+	 * Parse a local file in parallel and process the observations it holds
+	 * in the same way as collectStats. The file is split into ranges that
+	 * are parsed concurrently on the common fork join pool, each into an
+	 * accumulator which also gathers its partial statistics. As each range
+	 * completes, in file order, its statistics are merged and its columns
+	 * appended, and the error budget is checked so that a run with too 
+	 * many rejects is abandoned without waiting for the rest of the file.
+	 * The counts, extremes, histograms and percentiles are identical to
+	 * those from reading the file line by line. The totals, variances and
+	 * circular means are combined from the partial sums of each range 
+	 * rather than summed in line order, so they may differ from it in 
+	 * their last few bits, far below the precision printed.
+	 * 
+	 * @param fileName Path of the local file
+	 */
+	public void collectStatsParallel(String fileName) {
+		Path path = Paths.get(fileName);
+		ChunkedFileParser parser = null;
+		List<Future<StatsAccumulator>> chunks = null;
+		try {
+			initializeCalc((int) Math.min(Files.size(path) / APPROXLINELEN, Integer.MAX_VALUE - 8));
+			parser = new ChunkedFileParser(path, schema);
+			parser.setValidating(errorBudget >= 0);
+			parser.setMetrics(metrics);
+			chunks = parser.submit(ForkJoinPool.commonPool());
+		} catch (IOException ioex) {
+			throw new UncheckedIOException(ioex);
+		}
+		
+		currLineNo++;		// the header line
+		try {
+			for (int i = 0; i < chunks.size(); i++) {
+				mergeChunk(parser.getResult(chunks.get(i)));
+				chunks.set(i, null);		// release the chunk's columns
+			}
+		} catch (IOException ioex) {
+			throw new UncheckedIOException(ioex);
+		} finally {
+			for (Future<StatsAccumulator> chunk : chunks) {
+				if (chunk != null) {
+					chunk.cancel(true);
+				}
+			}
+		}
+		currLineNo++;		// the read which reached the end of the file
+	}
+	
+	/**
+	 * Add the partial statistics and observations of a range of lines 
+	 * parsed on another thread, in the order the lines were read. Only in
+	 * estimate mode are the values added one at a time, since the 
+	 * percentile estimators can't be merged.
+	 * 
+	 * @param chunk Accumulator holding the partial statistics
+	 */
+	private void mergeChunk(StatsAccumulator chunk) {
+		for (int j = 0; j < fieldCount; j++) {
+			int n = chunk.getCount(j);
+			if (n > 0) {
+				mergeStatistics(j, n, chunk.getMinimum(j), chunk.getMaximum(j), chunk.getRunningMean(j),
+						chunk.getSumSqDev(j), chunk.getHistogram(j), chunk.getSinTotal(j), 
+						chunk.getCosTotal(j), chunk.getFrequent(j), chunk.getDistinct(j));
+			}
+			countOfObs[j] += n;
+			missingOfObs[j] += chunk.getMissingCount(j);
+			CompensatedSum.merge(totalOfObs, totalComp, j, chunk.getRunningTotal(j), chunk.getTotalComp(j));
+			
+			// The columns hold NaN for missing values, which the engine 
+			// doesn't retain, as well as infinite bearings
+			FloatColumn values = chunk.getObservations(j);
+			if (!estimateMode && chunk.getMissingCount(j) == 0) {
+				observations[j].addAll(values);
+				continue;
+			}
+			boolean direction = schema.getField(j).isDirection();
+			float[] array = values.array();
+			for (int i = 0; i < values.size(); i++) {
+				float f = array[i];
+				if (f != f || (direction && Float.isInfinite(f))) {
+					continue;
+				}
+				if (estimateMode) {
+					for (P2Quantile estimator : estimators[j]) {
+						estimator.add(f);
+					}
+				} else {
+					observations[j].add(f);
+				}
+			}
+		}
+		appendLines(chunk);
+	}
+	
+	/**
+	 * Parse the stream opened by openURL or openFile in a pipeline, with 
+	 * reading the stream overlapping parsing it on other threads
+	 */
+	private void collectStatsPipelined() {
+		currLineNo++;		// the header line
+		try {
+			PipelinedParser parser = new PipelinedParser(schema);
+			parser.setValidating(errorBudget >= 0);
+			parser.setMetrics(metrics);
+			parser.parse(urlin, ForkJoinPool.commonPool().getParallelism(), 
+					portion -> replay(portion.getAccumulator()));
+		} catch (IOException ioex) {
+			throw new UncheckedIOException(ioex);
+		}
+		currLineNo++;		// the read which reached the end of the data
+	}
+	
+	/**
+	 * Add the observations of consecutive lines parsed on another thread,
+	 * in the order the lines were read
+	 * 
+	 * @param source Accumulator holding the observations
+	 */
+	private void replay(StatsAccumulator source) {
+		int lineCount = (int) source.getLineCount();
+		for (int j = 0; j < fieldCount; j++) {
+			float[] values = source.getObservations(j).array();
+			for (int i = 0; i < lineCount; i++) {
+				addObservation(j, values[i]);
+			}
+		}
+		appendLines(source);
+	}
+	
+	/**
+	 * Write consecutive lines parsed on another thread to the cache, and
+	 * count them and the lines rejected among them against the error 
+	 * budget
+	 */
+	private void appendLines(StatsAccumulator source) {
+		int lineCount = (int) source.getLineCount();
+		if (cacheWriter != null) {
+			float[] fields = new float[fieldCount];
+			for (int i = 0; i < lineCount; i++) {
+				for (int j = 0; j < fieldCount; j++) {
+					fields[j] = source.getObservations(j).get(i);
+				}
+				writeCache(fields);
+			}
+		}
+		rejects.addAll(source.getRejects(), currLineNo + 1);
+		currLineNo += lineCount + source.getRejectCount();
+		checkErrorBudget(currLineNo);
+	}
+	
+	/**
+	 * Add a single value to the accumulated statistics of an observation
+	 * type
+	 * 
+	 * @param j Index of the observation type in the schema
+	 * @param f Observed value, or NaN if it's missing. An infinite bearing
+	 * 		  is also treated as missing.
+	 */
+	private void addObservation(int j, float f) {
+		Schema.Column field = schema.getField(j);
+		float bearing = field.isDirection() ? normalizeBearing(f) : 0.0f;
+		if (f != f || bearing != bearing) {
+			missingOfObs[j]++;
+			return;
+		}
+		countOfObs[j]++;
+		CompensatedSum.add(totalOfObs, totalComp, j, f);
+		if (countOfObs[j] == 1) {
+			minOfObs[j] = f;
+			maxOfObs[j] = f;
+		} else if (f < minOfObs[j]) {
+			minOfObs[j] = f;
+		} else if (f > maxOfObs[j]) {
+			maxOfObs[j] = f;
+		}
+		double delta = f - runMean[j];
+		runMean[j] += delta / countOfObs[j];
+		sumSqDev[j] += delta * (f - runMean[j]);
+		if (field.hasRange()) {
+			histogram[j][ColumnKernels.bin(f, field.getLow(), field.getHigh(), HISTBINS)]++;
+		}
+		if (field.isDirection()) {
+			sinOfObs[j] += sinOf(bearing);
+			cosOfObs[j] += cosOf(bearing);
+			int key = Float.floatToIntBits(bearing);
+			frequentOfObs[j].add(key);
+			distinctOfObs[j].add(key);
+		}
+		if (estimateMode) {
+			for (P2Quantile estimator : estimators[j]) {
+				estimator.add(f);
+			}
+		} else {
+			observations[j].add(f);
+		}
+	}
+	
+	/**
+	 * Bring a bearing into the range 0 up to but excluding 360 degrees, so
+	 * that 360, 720 and -360 are all counted as 0, and 370 as 10. A 
+	 * schema needn't give a direction field a range, so any bearing may 
+	 * arrive here.
+	 * 
+	 * @param f Bearing in degrees
+	 * @return equivalent bearing, or NaN if f is NaN or infinite
+	 */
+	static float normalizeBearing(float f) {
+		float bearing = f % 360.0f + 0.0f;
+		if (bearing < 0.0f) {
+			bearing += 360.0f;
+			if (bearing >= 360.0f) {
+				bearing = 0.0f;
 			}
 		}
+		return bearing;
 	}
 	
 	/**
-	 * Calculate the mean and median of each observation
+	 * @param bearing Bearing in degrees, from 0 up to but excluding 360
+	 * @return sine of the bearing
 	 */
-	public static void calculateStats() {
-		int midPoint = 0;
+	static double sinOf(float bearing) {
+		int degrees = (int) bearing;
+		return degrees == bearing ? SINOFDEGREE[degrees] : Math.sin(Math.toRadians(bearing));
+	}
+	
+	/**
+	 * @param bearing Bearing in degrees, from 0 up to but excluding 360
+	 * @return cosine of the bearing
+	 */
+	static double cosOf(float bearing) {
+		int degrees = (int) bearing;
+		return degrees == bearing ? COSOFDEGREE[degrees] : Math.cos(Math.toRadians(bearing));
+	}
+	
+	/**
+	 * Add the observations accumulated by another engine to those of this
+	 * one, so that statistics may be calculated across several data sets
+	 * without reading them again. The other engine is left unchanged. Both
+	 * engines must retain their observations, since percentile estimates
+	 * can't be combined. The count of rejected lines is combined, but the
+	 * line numbers of the other engine's rejects refer to its own data set
+	 * and aren't.
+	 * 
+	 * @param other Engine whose observations are to be added
+	 */
+	public void merge(WeatherStats other) {
+		// Test preconditions
+		if (estimateMode || other.estimateMode) {
+			throw new IllegalStateException("Engines in estimate mode can't be merged.");
+		}
+		if (!schema.isCompatible(other.schema)) {
+			throw new IllegalArgumentException("Engine with different observation types passed.");
+		}
+		for (int j = 0; j < fieldCount; j++) {
+			int n = other.countOfObs[j];
+			if (n > 0) {
+				mergeStatistics(j, n, other.minOfObs[j], other.maxOfObs[j], other.runMean[j], 
+						other.sumSqDev[j], other.histogram[j], other.sinOfObs[j], other.cosOfObs[j], 
+						other.frequentOfObs[j], other.distinctOfObs[j]);
+			}
+			countOfObs[j] += n;
+			missingOfObs[j] += other.missingOfObs[j];
+			CompensatedSum.add(totalOfObs, totalComp, j, other.totalOfObs[j]);
+			CompensatedSum.add(totalOfObs, totalComp, j, other.totalComp[j]);
+			observations[j].addAll(other.observations[j]);
+		}
+		currLineNo += other.currLineNo;
+		rejects.addCount(other.rejects.getCount());
+	}
+	
+	/**
+	 * Combine the partial statistics of n further values of an observation
+	 * type with those accumulated so far, before n is added to the count
+	 */
+	private void mergeStatistics(int j, int n, float min, float max, double otherMean, 
+			double otherSumSqDev, long[] otherHistogram, double sin, double cos, 
+			FrequencySketch frequent, HyperLogLog distinct) {
+		if (countOfObs[j] == 0) {
+			minOfObs[j] = min;
+			maxOfObs[j] = max;
+		} else {
+			minOfObs[j] = Math.min(minOfObs[j], min);
+			maxOfObs[j] = Math.max(maxOfObs[j], max);
+		}
+		// Chan's method of combining the variances of two sets
+		double delta = otherMean - runMean[j];
+		double combined = countOfObs[j] + (double) n;
+		sumSqDev[j] += otherSumSqDev + delta * delta * countOfObs[j] * n / combined;
+		runMean[j] += delta * n / combined;
+		for (int b = 0; b < HISTBINS; b++) {
+			histogram[j][b] += otherHistogram[b];
+		}
+		if (schema.getField(j).isDirection()) {
+			sinOfObs[j] += sin;
+			cosOfObs[j] += cos;
+			frequentOfObs[j].merge(frequent);
+			distinctOfObs[j].merge(distinct);
+		}
+	}
+	
+	/**
+	 * Calculate the mean and median of each observation. In exact mode the
+	 * median is found by selection rather than by sorting the observations,
+	 * using the parallel path for very large columns. The mean of a 
+	 * direction field is its circular mean.
+	 */
+	public void calculateStats() {
 		int noObservations = 0;
-		boolean isEven = false;
-		for (int i=0; i < FLDCOUNT; i++) {
-			Collections.sort(observations[i]);
-			mean[i] = totalOfObs[i] / countOfObs[i];
-		    noObservations = observations[i].size();
-			midPoint = noObservations / 2;
-			isEven = ((noObservations % 2) == 0) ? true : false;
-			if (isEven) {
-				median[i] = (observations[i].get(midPoint) + observations[i].get(midPoint+1)) / 2;
+		for (int i=0; i < fieldCount; i++) {
+		    noObservations = countOfObs[i];
+		    if (noObservations == 0) {
+		    	continue;
+		    }
+			mean[i] = schema.getField(i).isDirection() 
+					? getCircularMean(i) : (float) (getTotal(i) / countOfObs[i]);
+			if (estimateMode) {
+				median[i] = getPercentile(i, MEDIAN);
 			} else {
-				median[i] = observations[i].get(midPoint+1);
+				median[i] = Selection.median(observations[i].array(), observations[i].size(),
+						observations[i].size() >= Selection.PARALLELTHRESHOLD);
 			}
 		}
 	}
 	
+	/**
+	 * @param fieldIdx Index of the observation type in the schema
+	 * @return population variance of the observations, or NaN if there 
+	 * 		   are none
+	 */
+	public double getVariance(int fieldIdx) {
+		return (countOfObs[fieldIdx] == 0) ? Double.NaN : sumSqDev[fieldIdx] / countOfObs[fieldIdx];
+	}
+	
+	/**
+	 * @param fieldIdx Index of the observation type in the schema
+	 * @return population standard deviation of the observations
+	 */
+	public double getStdDev(int fieldIdx) {
+		return Math.sqrt(getVariance(fieldIdx));
+	}
+	
+	/**
+	 * @param fieldIdx Index of the observation type in the schema
+	 * @return smallest observation, or NaN if there are none
+	 */
+	public float getMin(int fieldIdx) {
+		return minOfObs[fieldIdx];
+	}
+	
+	/**
+	 * @param fieldIdx Index of the observation type in the schema
+	 * @return largest observation, or NaN if there are none
+	 */
+	public float getMax(int fieldIdx) {
+		return maxOfObs[fieldIdx];
+	}
+	
+	/**
+	 * Return the count of observations in each histogram bin. Bin b covers
+	 * the values from getHistogramLow + b * width, where width is the 
+	 * range of the histogram divided by the number of bins.
+	 * 
+	 * @param fieldIdx Index of the observation type in the schema
+	 * @return copy of the bin counts
+	 */
+	public long[] getHistogram(int fieldIdx) {
+		return histogram[fieldIdx].clone();
+	}
+	
+	public float getHistogramLow(int fieldIdx) {
+		return schema.getField(fieldIdx).getLow();
+	}
+	
+	public float getHistogramHigh(int fieldIdx) {
+		return schema.getField(fieldIdx).getHigh();
+	}
+	
+	/**
+	 * @param fieldIdx Index of a direction field in the schema
+	 * @return mean bearing of the observations in the range 0-360, or NaN
+	 * 		   if there are none or they cancel out
+	 */
+	public float getCircularMean(int fieldIdx) {
+		checkDirection(fieldIdx);
+		if (countOfObs[fieldIdx] == 0 || (sinOfObs[fieldIdx] == 0.0 && cosOfObs[fieldIdx] == 0.0)) {
+			return Float.NaN;
+		}
+		double degrees = Math.toDegrees(Math.atan2(sinOfObs[fieldIdx], cosOfObs[fieldIdx]));
+		return (float) (degrees < 0.0 ? degrees + 360.0 : degrees);
+	}
+	
+	/**
+	 * Return the length of the mean of the unit vectors along each bearing,
+	 * which measures how closely the bearings agree
+	 * 
+	 * @param fieldIdx Index of a direction field in the schema
+	 * @return 1.0 if every bearing is the same, falling towards 0.0 as they
+	 * 		   spread around the circle, or NaN if there are none
+	 */
+	public double getResultantLength(int fieldIdx) {
+		checkDirection(fieldIdx);
+		return (countOfObs[fieldIdx] == 0) ? Double.NaN 
+				: Math.hypot(sinOfObs[fieldIdx], cosOfObs[fieldIdx]) / countOfObs[fieldIdx];
+	}
+	
+	/**
+	 * @param fieldIdx Index of a direction field in the schema
+	 * @return estimated number of distinct bearings observed
+	 */
+	public long getDistinctCount(int fieldIdx) {
+		checkDirection(fieldIdx);
+		return distinctOfObs[fieldIdx].estimate();
+	}
+	
+	/**
+	 * @param fieldIdx Index of a direction field in the schema
+	 * @param n Largest number of bearings returned
+	 * @return most frequent bearings, in descending order of count
+	 */
+	public float[] getMostFrequent(int fieldIdx, int n) {
+		checkDirection(fieldIdx);
+		int[] keys = frequentOfObs[fieldIdx].top(n);
+		float[] bearings = new float[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			bearings[i] = Float.intBitsToFloat(keys[i]);
+		}
+		return bearings;
+	}
+	
+	/**
+	 * @param fieldIdx Index of a direction field in the schema
+	 * @param bearing Bearing whose count is estimated
+	 * @return estimated number of observations of the bearing, which is 
+	 * 		   never less than the true count
+	 */
+	public long getFrequency(int fieldIdx, float bearing) {
+		checkDirection(fieldIdx);
+		return frequentOfObs[fieldIdx].estimate(Float.floatToIntBits(normalizeBearing(bearing)));
+	}
+	
+	private void checkDirection(int fieldIdx) {
+		// Test preconditions
+		if (fieldIdx < 0 || fieldIdx >= fieldCount || !schema.getField(fieldIdx).isDirection()) {
+			throw new IllegalArgumentException("Invalid fieldIdx of "+fieldIdx+" passed.");
+		}
+	}
+	
+	/**
+	 * Return a percentile of an observation type. In exact mode this is
+	 * interpolated between the two nearest retained observations, which 
+	 * are located by selection. In estimate mode only the percentiles 
+	 * passed to setEstimateMode are available.
+	 * 
+	 * @param fieldIdx Index of the observation type in the schema
+	 * @param p Percentile to be returned, in the range 0.0-1.0
+	 * @return value of the percentile, or NaN if there are no observations
+	 */
+	public float getPercentile(int fieldIdx, double p) {
+		// Test preconditions
+		if (fieldIdx < 0 || fieldIdx >= fieldCount) {
+			throw new IllegalArgumentException("Invalid fieldIdx of "+fieldIdx+" passed.");
+		}
+		if (!(p >= 0.0 && p <= 1.0)) {
+			throw new IllegalArgumentException("Invalid p of "+p+" passed.");
+		}
+		
+		if (estimateMode) {
+			for (P2Quantile estimator : estimators[fieldIdx]) {
+				if (estimator.quantile() == p) {
+					return (float) estimator.estimate();
+				}
+			}
+			throw new IllegalArgumentException("Percentile "+p+" isn't being estimated.");
+		}
+		
+		int noObservations = observations[fieldIdx].size();
+		if (noObservations == 0) {
+			return Float.NaN;
+		}
+		float[] values = observations[fieldIdx].array();
+		double rank = p * (noObservations - 1);
+		int lower = (int) rank;
+		float value = Selection.select(values, 0, noObservations, lower);
+		if (lower + 1 < noObservations && rank > lower) {
+			// Every value to the right of the lower one is now no less than
+			// it, so the smallest of them is the next value in order.
+			float next = values[lower + 1];
+			for (int j = lower + 2; j < noObservations; j++) {
+				if (values[j] < next || next != next) {
+					next = values[j];
+				}
+			}
+			value += (float) ((rank - lower) * (next - value));
+		}
+		return value;
+	}
+	
 	/**
 	 * Print the calculated statistics
 	 */
-	public static void printStats() {
+	public void printStats() {
 		System.out.println("Calculated Statistics");
 		System.out.println("=====================\n");
-		System.out.println("No. lines read: "+currLineNo+"\n");
-		System.out.println("Measurement Type           Mean Median  # Obs.    Sum of Obs.");
-		System.out.println("----------------          ----- ------ ------- --------------");
-		for (int i=0; i < FLDCOUNT; i++) {
-			System.out.printf("%-24s %,6.2f %,6.2f %,7d %,13.2f \n",statNames[i],mean[i],median[i],
-					countOfObs[i], totalOfObs[i]);
+		System.out.println("No. lines read: "+currLineNo);
+		if (errorBudget >= 0 || rejects.getCount() > 0) {
+			System.out.println("No. lines rejected: "+rejects.getCount());
+			long[] rejectedLines = rejects.getLineNumbers();
+			if (rejectedLines.length > 0) {
+				System.out.print("Rejected line nos.: ");
+				for (int i = 0; i < rejectedLines.length; i++) {
+					System.out.print((i > 0 ? ", " : "")+rejectedLines[i]);
+				}
+				System.out.println(rejectedLines.length < rejects.getCount() ? ", ..." : "");
+			}
+		}
+		System.out.println();
+		System.out.println("Measurement Type           Mean Median  # Obs.    Sum of Obs. # Miss.");
+		System.out.println("----------------          ----- ------ ------- -------------- -------");
+		for (int i=0; i < fieldCount; i++) {
+			System.out.printf("%-24s %,6.2f %,6.2f %,7d %,13.2f %,7d\n",getStatName(i),mean[i],median[i],
+					countOfObs[i], getTotal(i), missingOfObs[i]);
+		}
+		
+		System.out.println("\nMeasurement Type            Min     Max  Std Dev");
+		System.out.println("----------------         ------- ------- -------");
+		for (int i=0; i < fieldCount; i++) {
+			System.out.printf("%-24s %,7.2f %,7.2f %,7.3f\n",getStatName(i),minOfObs[i],maxOfObs[i],
+					getStdDev(i));
+		}
+		
+		System.out.println("\nHistograms ("+HISTBINS+" equal bins from the low to the high bound)");
+		System.out.println("Measurement Type            Low    High  Bin counts");
+		System.out.println("----------------         ------- -------  ----------");
+		for (int i=0; i < fieldCount; i++) {
+			if (!schema.getField(i).hasRange()) {
+				continue;
+			}
+			System.out.printf("%-24s %,7.2f %,7.2f ",getStatName(i),getHistogramLow(i),getHistogramHigh(i));
+			for (long c : histogram[i]) {
+				System.out.printf(" %d", c);
+			}
+			System.out.println();
+		}
+		
+		boolean directions = false;
+		for (int i=0; i < fieldCount; i++) {
+			if (!schema.getField(i).isDirection()) {
+				continue;
+			}
+			if (!directions) {
+				System.out.println("\nDirections (circular mean; distinct and frequent bearings are estimates)");
+				System.out.println("Measurement Type           Mean Resultant Distinct  Most frequent (count)");
+				System.out.println("----------------          ----- --------- --------  ---------------------");
+				directions = true;
+			}
+			System.out.printf("%-24s %,6.2f %9.3f %,8d ",getStatName(i),getCircularMean(i),
+					getResultantLength(i),getDistinctCount(i));
+			for (float bearing : getMostFrequent(i, TOPDIRECTIONS)) {
+				System.out.printf(" %.0f (%,d)", bearing, getFrequency(i, bearing));
+			}
+			System.out.println();
+		}
+		
+		if (estimateMode) {
+			System.out.println("\nEstimated Percentiles");
+			System.out.print("Measurement Type        ");
+			for (double p : percentiles) {
+				System.out.printf(" %7s", "P"+(float) (p * 100));
+			}
+			System.out.println();
+			System.out.print("----------------        ");
+			for (int j=0; j < percentiles.length; j++) {
+				System.out.print(" -------");
+			}
+			System.out.println();
+			for (int i=0; i < fieldCount; i++) {
+				System.out.printf("%-24s", getStatName(i));
+				for (double p : percentiles) {
+					System.out.printf(" %,7.2f", getPercentile(i, p));
+				}
+				System.out.println();
+			}
 		}
 	}
 	
 	/**
-	 * @param args
+	 * Determine whether a data source names an existing local file
+	 * 
+	 * @param source File name or URL
+	 * @return true if the source is a local file
 	 */
-	public static void main(String[] args) {
-		// Begin by opening the raw data located at the Lake Pend Oreille
-		// website maintained by the U.S. Navy
-		openURL("http://lpo.dt.navy.mil/data/DM/Environmental_Data_Deep_Moor_2014.txt");
-	    
+	private static boolean isLocalFile(String source) {
+		try {
+			return Files.isRegularFile(Paths.get(source));
+		} catch (InvalidPathException ipe) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Determine whether a local file is gzip compressed
+	 */
+	private static boolean isCompressedFile(String source) {
+		try {
+			return DecompressingInputStream.isCompressed(Paths.get(source));
+		} catch (IOException ioex) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Read and accumulate all of the sample points from a data source. 
+	 * The first line of the source is a header and is skipped.
+	 * 
+	 * @param source URL or local file name of the observation data
+	 * @param parallel true to parse the data on multiple threads. A URL or
+	 * 		  a compressed file is parsed by a pipeline of threads as it's 
+	 * 		  read.
+	 */
+	public void process(String source, boolean parallel) {
 		// Loop over the contents of the file, collecting the following 
 		// for each sample point.
 		// - save the value in a sorted list specific to each type of observation
 		// - add the value to a running total for each type of observation
 		// - increment the count for each type of observation
-	    String sampleLine = null;
-	    sampleLine = readLine();		// skip the header line
-	    while ((sampleLine = readLine()) != null) {
-	    	collectStats(sampleLine);
-	    }
-	    closeURL();
+		boolean isLocal = isLocalFile(source);
+		if (isLocal && ColumnarCacheReader.isCacheFile(Paths.get(source))) {
+			try {
+				collectStatsCached(Paths.get(source));
+			} catch (IOException ioex) {
+				throw new UncheckedIOException(ioex);
+			}
+			return;
+		}
+		
+		// A run which fails part way abandons the cache rather than leaving
+		// one which holds only the lines read before the failure.
+		openCache();
+		try {
+			// A file which can be mapped is split into ranges parsed in 
+			// parallel. Other sources are read as a stream, which is parsed 
+			// on other threads as it's read.
+			if (isLocal && parallel && windowedAggregator == null && !isCompressedFile(source)) {
+				collectStatsParallel(source);
+			} else if (parallel && windowedAggregator == null) {
+				if (isLocal) {
+					openFile(source);
+				} else {
+					openURL(source);
+				}
+				collectStatsPipelined();
+				if (isLocal) {
+					closeFile();
+				} else {
+					closeURL();
+				}
+			} else {
+				if (isLocal) {
+					openFile(source);
+				} else {
+					openURL(source);
+				}
+				CharSequence sampleLine = null;
+				sampleLine = readLine();		// skip the header line
+				if (metrics == null) {
+					while ((sampleLine = readLine()) != null) {
+						collectStats(sampleLine);
+					}
+				} else {
+					collectStatsMetered();
+				}
+				if (isLocal) {
+					closeFile();
+				} else {
+					closeURL();
+				}
+			}
+		} catch (RuntimeException rex) {
+			abortCache(rex);
+			throw rex;
+		}
+		closeCache();
+		if (windowedAggregator != null) {
+			windowedAggregator.flush();
+		}
+		updateMetricCounts();
+	}
+	
+	/**
+	 * Process the remaining lines of the data source in the same way as 
+	 * collectStats, recording each batch of lines in the metrics
+	 */
+	private void collectStatsMetered() {
+		CharSequence sampleLine = null;
+		long batchStart = System.nanoTime();
+		int lineCount = 0;
+		long byteCount = 0;
+		while ((sampleLine = readLine()) != null) {
+			byteCount += sampleLine.length() + 1;
+			collectStats(sampleLine);
+			if (++lineCount == METRICSBATCH) {
+				long now = System.nanoTime();
+				metrics.recordBatch(lineCount, byteCount, now - batchStart);
+				updateMetricCounts();
+				batchStart = now;
+				lineCount = 0;
+				byteCount = 0;
+			}
+		}
+		if (lineCount > 0) {
+			metrics.recordBatch(lineCount, byteCount, System.nanoTime() - batchStart);
+		}
+	}
+	
+	/**
+	 * Copy the counts of rejected lines and missing values to the metrics
+	 */
+	private void updateMetricCounts() {
+		if (metrics != null) {
+			long missing = 0;
+			for (int j = 0; j < fieldCount; j++) {
+				missing += missingOfObs[j];
+			}
+			metrics.setRejectCount(rejects.getCount());
+			metrics.setMissingCount(missing);
+		}
+	}
+	
+	/**
+	 * Record the progress of process() in a set of metrics. Lines parsed 
+	 * on other threads are recorded by those threads as they are parsed.
+	 * 
+	 * @param metrics Metrics to be updated, or null for none
+	 */
+	public void setMetrics(IngestMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Also aggregate the observations read by process() into time windows.
+	 * Windows are only produced from text sources, since the columnar cache
+	 * doesn't hold the date and time fields, and a local file is always
+	 * parsed sequentially so that observations arrive in time order.
+	 * 
+	 * @param windowedAggregator Aggregator for the windows, or null for none
+	 */
+	public void setWindowedAggregator(WindowedAggregator windowedAggregator) {
+		// Test preconditions
+		if (windowedAggregator != null && (schema.getDateIndex() < 0 || schema.getTimeIndex() < 0)) {
+			throw new IllegalStateException("The schema has no date and time columns.");
+		}
+		if (windowedAggregator != null) {
+			boolean[] directions = new boolean[fieldCount];
+			for (int j = 0; j < fieldCount; j++) {
+				directions[j] = schema.getField(j).isDirection();
+			}
+			windowedAggregator.setDirections(directions);
+		}
+		this.windowedAggregator = windowedAggregator;
+	}
+	
+	/**
+	 * Print the statistics calculated for a single time window
+	 * 
+	 * @param window Window whose statistics are printed
+	 */
+	public void printWindow(TimeWindow window) {
+		System.out.println("Window: "+Instant.ofEpochSecond(window.getStart())
+				+" - "+Instant.ofEpochSecond(window.getEnd()));
+		System.out.println("Measurement Type           Mean    Min    Max Median  # Obs.");
+		System.out.println("----------------          ----- ------ ------ ------ -------");
+		for (int i=0; i < fieldCount; i++) {
+			System.out.printf("%-24s %,6.2f %,6.2f %,6.2f %,6.2f %,7d \n",getStatName(i),
+					window.getMean(i), window.getMin(i), window.getMax(i), 
+					window.getPercentile(i, MEDIAN), window.getCount(i));
+		}
+		System.out.println();
+	}
+	
+	/**
+	 * Write the parsed observations of the sources passed to process() to a
+	 * columnar cache file. A source which is itself a cache file is read 
+	 * directly instead of being parsed.
+	 * 
+	 * @param cachePath Path of the cache file, or null for none
+	 */
+	public void setCacheFile(Path cachePath) {
+		this.cachePath = cachePath;
+	}
+	
+	private void openCache() {
+		if (cachePath != null) {
+			try {
+				cacheWriter = new ColumnarCacheWriter(cachePath, schema.getFieldNames());
+			} catch (IOException ioex) {
+				throw new UncheckedIOException(ioex);
+			}
+		}
+	}
+	
+	private void abortCache(RuntimeException cause) {
+		if (cacheWriter != null) {
+			try {
+				cacheWriter.abort();
+			} catch (IOException ioex) {
+				cause.addSuppressed(ioex);
+			}
+			cacheWriter = null;
+		}
+	}
+	
+	private void closeCache() {
+		if (cacheWriter != null) {
+			try {
+				cacheWriter.close();
+			} catch (IOException ioex) {
+				throw new UncheckedIOException(ioex);
+			}
+			cacheWriter = null;
+		}
+	}
+	
+	/**
+	 * @return number of bytes written by writeTo
+	 */
+	long stateSize() {
+		long size = schema.stateSize() + 1 + 8 + 4 + 8L * percentiles.length + 8 + rejects.stateSize();
+		for (int i = 0; i < fieldCount; i++) {
+			size += 4 + 8 + 8 + 8 + 4 + 4 + 8 + 8 + 8L * HISTBINS;
+			if (schema.getField(i).isDirection()) {
+				size += 8 + 8 + FrequencySketch.stateSize(SKETCHCAPACITY) + HyperLogLog.stateSize();
+			}
+			size += estimateMode 
+					? (long) percentiles.length * P2Quantile.stateSize()
+					: 4 + 4L * observations[i].size();
+		}
+		return size;
+	}
+	
+	/**
+	 * Write the accumulated state of the engine to a buffer. This covers
+	 * the schema, the line count, the error budget and rejected lines, and
+	 * for each observation type its count, missing count, total, extremes,
+	 * variance, histogram, direction sketches and either the retained observations or the 
+	 * percentile estimators.
+	 * 
+	 * @param buf Buffer to which the state is written
+	 */
+	void writeTo(ByteBuffer buf) {
+		schema.writeTo(buf);
+		buf.put((byte) (estimateMode ? 1 : 0));
+		buf.putLong(currLineNo);
+		buf.putInt(percentiles.length);
+		for (double p : percentiles) {
+			buf.putDouble(p);
+		}
+		buf.putLong(errorBudget);
+		rejects.writeTo(buf);
+		for (int i = 0; i < fieldCount; i++) {
+			buf.putInt(countOfObs[i]);
+			buf.putLong(missingOfObs[i]);
+			buf.putDouble(totalOfObs[i]);
+			buf.putDouble(totalComp[i]);
+			buf.putFloat(minOfObs[i]);
+			buf.putFloat(maxOfObs[i]);
+			buf.putDouble(runMean[i]);
+			buf.putDouble(sumSqDev[i]);
+			for (long c : histogram[i]) {
+				buf.putLong(c);
+			}
+			if (schema.getField(i).isDirection()) {
+				buf.putDouble(sinOfObs[i]);
+				buf.putDouble(cosOfObs[i]);
+				frequentOfObs[i].writeTo(buf);
+				distinctOfObs[i].writeTo(buf);
+			}
+			if (estimateMode) {
+				for (P2Quantile estimator : estimators[i]) {
+					estimator.writeTo(buf);
+				}
+			} else {
+				int n = observations[i].size();
+				buf.putInt(n);
+				buf.asFloatBuffer().put(observations[i].array(), 0, n);
+				buf.position(buf.position() + 4 * n);
+			}
+		}
+	}
+	
+	/**
+	 * Replace the accumulated state of the engine with that written by 
+	 * writeTo
+	 * 
+	 * @param buf Buffer from which the state is read
+	 */
+	void readFrom(ByteBuffer buf) {
+		setSchema(Schema.readFrom(buf));
+		estimateMode = buf.get() != 0;
+		long lineNo = buf.getLong();
+		percentiles = new double[buf.getInt()];
+		for (int j = 0; j < percentiles.length; j++) {
+			percentiles[j] = buf.getDouble();
+		}
+		initializeCalc(0);
+		currLineNo = lineNo;
+		setErrorBudget(buf.getLong());
+		rejects.readFrom(buf);
+		for (int i = 0; i < fieldCount; i++) {
+			countOfObs[i] = buf.getInt();
+			missingOfObs[i] = buf.getLong();
+			totalOfObs[i] = buf.getDouble();
+			totalComp[i] = buf.getDouble();
+			minOfObs[i] = buf.getFloat();
+			maxOfObs[i] = buf.getFloat();
+			runMean[i] = buf.getDouble();
+			sumSqDev[i] = buf.getDouble();
+			for (int b = 0; b < HISTBINS; b++) {
+				histogram[i][b] = buf.getLong();
+			}
+			if (schema.getField(i).isDirection()) {
+				sinOfObs[i] = buf.getDouble();
+				cosOfObs[i] = buf.getDouble();
+				frequentOfObs[i] = FrequencySketch.readFrom(buf);
+				distinctOfObs[i] = HyperLogLog.readFrom(buf);
+			}
+			if (estimateMode) {
+				for (int j = 0; j < percentiles.length; j++) {
+					estimators[i][j] = P2Quantile.readFrom(buf);
+				}
+			} else {
+				int n = buf.getInt();
+				observations[i] = new FloatColumn(n);
+				observations[i].addAll(buf.asFloatBuffer(), n);
+				buf.position(buf.position() + 4 * n);
+			}
+		}
+	}
+	
+	/**
+	 * @param fieldIdx Index of an observation type
+	 * @return name of the observation type
+	 */
+	public String getStatName(int fieldIdx) {
+		return schema.getField(fieldIdx).getName();
+	}
+	
+	/**
+	 * @return number of observation types
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+	
+	/**
+	 * @return layout of the sample lines
+	 */
+	public Schema getSchema() {
+		return schema;
+	}
+	
+	/**
+	 * @return true if percentiles are estimated rather than calculated 
+	 * 		   from the retained observations
+	 */
+	public boolean isEstimateMode() {
+		return estimateMode;
+	}
+	
+	public int getCount(int fieldIdx) {
+		return countOfObs[fieldIdx];
+	}
+	
+	public double getTotal(int fieldIdx) {
+		return CompensatedSum.value(totalOfObs, totalComp, fieldIdx);
+	}
+	
+	/**
+	 * @param fieldIdx Index of the observation type in the schema
+	 * @return number of values of the observation type which were missing
+	 * 		   or outside its physical range
+	 */
+	public long getMissingCount(int fieldIdx) {
+		return missingOfObs[fieldIdx];
+	}
+	
+	public float getMean(int fieldIdx) {
+		return mean[fieldIdx];
+	}
+	
+	public float getMedian(int fieldIdx) {
+		return median[fieldIdx];
+	}
+	
+	/**
+	 * Summarize the observations collected for a field. This requires the
+	 * individual observations and so isn't available in estimate mode.
+	 * 
+	 * @param fieldIdx Index of the field
+	 * @return count, sum, extremes and spread of the observations
+	 */
+	public ColumnSummary summarize(int fieldIdx) {
+		// Test preconditions
+		if (estimateMode) {
+			throw new IllegalStateException("Observations are not retained in estimate mode.");
+		}
+		return ColumnKernels.summarize(observations[fieldIdx].array(), 0, observations[fieldIdx].size());
+	}
+	
+	/**
+	 * @return number of lines rejected as malformed
+	 */
+	public long getRejectCount() {
+		return rejects.getCount();
+	}
+	
+	/**
+	 * @return line numbers of the first lines rejected as malformed. Only
+	 * 		   a bounded number are recorded.
+	 */
+	public long[] getRejectedLines() {
+		return rejects.getLineNumbers();
+	}
+	
+	/**
+	 * @return number of lines read from the data source
+	 */
+	public long getLineCount() {
+		return currLineNo;
+	}
+	
+	/**
+	 * @param args Optional flags followed by an optional URL or local file
+	 * 		  name of the observation data. The flags are:
+	 * 		  <ul>
+	 * 		  <li>-estimate to estimate percentiles in constant memory
+	 * 		  <li>-parallel to parse the data on multiple threads
+	 * 		  <li>-follow to keep processing lines as they are appended to a
+	 * 		      local file, printing updated statistics after each batch
+	 * 		  <li>-checkpoint file to save the state of -follow to a file 
+	 * 		      after each batch, and to resume from it when restarted.
+	 * 		      A resumed run keeps the checkpoint's schema and percentile
+	 * 		      mode, and fails if -schema or -estimate conflict with them.
+	 * 		      Its -maxerrors and -window options take effect from the 
+	 * 		      resumed position, since time windows aren't saved.
+	 * 		  <li>-cache file to also write the parsed observations to a 
+	 * 		      columnar cache file. The cache file may later be passed
+	 * 		      in place of the URL or file name.
+	 * 		  <li>-window spec to also print statistics for each time window,
+	 * 		      where spec is hourly, daily, monthly, or a window length 
+	 * 		      and optional slide interval such as 1d or 6h/1h
+	 * 		  <li>-schema file to read the layout of the sample lines from a
+	 * 		      schema descriptor file rather than using the Deep Moor 
+	 * 		      layout
+	 * 		  <li>-maxerrors n to skip and count malformed lines, giving up 
+	 * 		      only once more than n have been found
+	 * 		  <li>-metrics n to publish the progress of the ingest as an 
+	 * 		      MBean, and to also log it every n seconds if n is above 0
+	 * 		  </ul>
+	 * 		  When no data source is passed the URL given by the 
+	 * 		  weatherstats.url system property is read, or the Deep Moor
+	 * 		  observations if it isn't set.
+	 * @throws IOException if a followed file can't be read
+	 * @throws InterruptedException if interrupted while following a file
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		WeatherStats weatherStats = new WeatherStats();
+		int argNo = 0;
+		boolean parallel = false;
+		boolean follow = false;
+		boolean estimate = false;
+		Path checkpoint = null;
+		Schema schema = null;
+		String windowSpec = null;
+		Long errorBudget = null;
+		long metricsInterval = -1;
+		for (; argNo < args.length && args[argNo].startsWith("-"); argNo++) {
+			if (args[argNo].equals("-estimate")) {
+				estimate = true;
+			} else if (args[argNo].equals("-parallel")) {
+				parallel = true;
+			} else if (args[argNo].equals("-follow")) {
+				follow = true;
+			} else if (args[argNo].equals("-checkpoint") && argNo + 1 < args.length) {
+				checkpoint = Paths.get(args[++argNo]);
+			} else if (args[argNo].equals("-cache") && argNo + 1 < args.length) {
+				weatherStats.setCacheFile(Paths.get(args[++argNo]));
+			} else if (args[argNo].equals("-maxerrors") && argNo + 1 < args.length) {
+				errorBudget = Long.parseLong(args[++argNo]);
+			} else if (args[argNo].equals("-window") && argNo + 1 < args.length) {
+				windowSpec = args[++argNo];
+			} else if (args[argNo].equals("-metrics") && argNo + 1 < args.length) {
+				metricsInterval = Long.parseLong(args[++argNo]);
+			} else if (args[argNo].equals("-schema") && argNo + 1 < args.length) {
+				schema = Schema.load(Paths.get(args[++argNo]));
+			} else {
+				throw new IllegalArgumentException("Unknown option "+args[argNo]+" passed.");
+			}
+		}
+		
+		// Begin by opening the raw data located at the Lake Pend Oreille
+		// website maintained by the U.S. Navy, or a local copy of it if
+		// a file name is passed. A followed file resumed from a checkpoint
+		// continues with the engine saved in it, which must agree with the
+		// options passed.
+		String source = (argNo < args.length) ? args[argNo] : DEFAULTURL;
+		TailFollower follower = null;
+		boolean resumed = false;
+		if (follow && isLocalFile(source)) {
+			resumed = checkpoint != null && Files.exists(checkpoint);
+			if (resumed) {
+				follower = StatsSnapshot.load(checkpoint).toFollower(Paths.get(source));
+				weatherStats = follower.getWeatherStats();
+				if (schema != null && !schema.equals(weatherStats.getSchema())) {
+					throw new IllegalArgumentException("Checkpoint "+checkpoint
+							+" was saved with a different schema than the one passed.");
+				}
+				if (estimate && !weatherStats.isEstimateMode()) {
+					throw new IllegalArgumentException("Checkpoint "+checkpoint
+							+" was saved without -estimate and can't be resumed with it.");
+				}
+			} else {
+				follower = new TailFollower(weatherStats, Paths.get(source));
+			}
+		}
+		if (!resumed) {
+			if (schema != null) {
+				weatherStats.setSchema(schema);
+			}
+			if (estimate) {
+				weatherStats.setEstimateMode(true);
+			}
+		}
+		if (errorBudget != null) {
+			weatherStats.setErrorBudget(errorBudget);
+		}
+		if (windowSpec != null) {
+			weatherStats.setWindowedAggregator(WindowedAggregator.fromSpec(windowSpec, 
+					weatherStats.getFieldCount(), new double[] {MEDIAN}, weatherStats::printWindow));
+		}
+		IngestMetrics metrics = null;
+		if (metricsInterval >= 0) {
+			metrics = new IngestMetrics();
+			try {
+				metrics.register(source);
+			} catch (JMException jmex) {
+		    	//TODO: Add exception logic
+				jmex.printStackTrace();
+			}
+			if (metricsInterval > 0) {
+				metrics.startLogging(metricsInterval);
+			}
+			weatherStats.setMetrics(metrics);
+		}
+		if (follower != null) {
+			follower.setCheckpoint(checkpoint);
+			follower.follow(TailFollower.DEFAULTINTERVAL);
+			return;
+		}
+		weatherStats.process(source, parallel);
 	    
 		// After all sample points have been read calculate the following
 		// for each type of observation:
@@ -244,8 +1753,11 @@ public class WeatherStats {
 		//      - Odd number of entries: use the middle value. That is, the value 
 		//        having the same number of entries before and after it.
 		//   
-	    calculateStats();
-	    printStats();
+		weatherStats.calculateStats();
+		weatherStats.printStats();
+		if (metrics != null) {
+			metrics.close();
+		}
 	}
 
 }
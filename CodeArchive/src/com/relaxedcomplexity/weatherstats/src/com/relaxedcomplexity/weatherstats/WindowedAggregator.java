@@ -0,0 +1,356 @@
+/*******************************************************************************
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Relaxed Complexity, LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ *******************************************************************************/
+package com.relaxedcomplexity.weatherstats;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+/**
+ * Aggregates observations into time windows keyed on the timestamp of each
+ * sample line, producing a series of statistics such as hourly or daily 
+ * means rather than a single figure for the whole data set. Windows may be
+ * tumbling, where each observation falls in exactly one window, or sliding,
+ * where windows overlap and a new one starts every slide interval. Tumbling
+ * windows may also follow calendar months.
+ * <p>
+ * Observations are expected to arrive in roughly ascending time order. A
+ * window is closed and passed to the listener once an observation at or
+ * after its end arrives, so only the windows covering the current time are
+ * held in memory. An observation which belongs only to windows that have
+ * already been closed is counted as late and dropped.
+ * 
+ * @author jim.medlock
+ *
+ */
+public class WindowedAggregator {
+
+	public static final long HOUR = 3600;
+	public static final long DAY = 24 * HOUR;
+	
+	/**
+	 * Receives each window once it has been closed
+	 */
+	public interface Listener {
+		void windowClosed(TimeWindow window);
+	}
+	
+	private final long     size;
+	private final long     slide;
+	private final boolean  monthly;
+	private final int      fieldCount;
+	private final double[] percentiles;
+	private final Listener listener;
+	private boolean[]      directions = null;
+	
+	// Open windows indexed by their key, the number of slide intervals or
+	// calendar months between the epoch and their start. They are held in
+	// a ring whose first slot has the earliest key which may still be open,
+	// so a window is found, opened and retired in constant time however 
+	// finely the windows slide.
+	private TimeWindow[] openWindows = new TimeWindow[16];
+	private int  firstSlot = 0;
+	private long firstKey = 0;
+	private int  slotCount = 0;
+	private long closedUpTo = Long.MIN_VALUE;
+	private long lateCount = 0;
+	
+	// Bounds of the calendar month most recently looked up
+	private long monthStart = 0;
+	private long monthEnd = 0;
+	private long monthKey = 0;
+	
+	private WindowedAggregator(long size, long slide, boolean monthly, int fieldCount, 
+			double[] percentiles, Listener listener) {
+		// Test preconditions
+		if (!monthly && (size <= 0 || slide <= 0 || slide > size)) {
+			throw new IllegalArgumentException("Invalid size "+size+" or slide "+slide+" passed.");
+		}
+		if (fieldCount <= 0) {
+			throw new IllegalArgumentException("Invalid fieldCount of "+fieldCount+" passed.");
+		}
+		for (double p : percentiles) {
+			if (!(p >= 0.0 && p <= 1.0)) {
+				throw new IllegalArgumentException("Invalid percentile of "+p+" passed.");
+			}
+		}
+		this.size = size;
+		this.slide = slide;
+		this.monthly = monthly;
+		this.fieldCount = fieldCount;
+		this.percentiles = percentiles.clone();
+		this.listener = listener;
+	}
+	
+	/**
+	 * Create an aggregator for non-overlapping windows of a fixed size, 
+	 * aligned to the epoch
+	 * 
+	 * @param size Length of each window in seconds
+	 * @param fieldCount Number of observation types
+	 * @param percentiles Percentiles to be estimated for each window
+	 * @param listener Receives each window once it has been closed
+	 * @return aggregator
+	 */
+	public static WindowedAggregator tumbling(long size, int fieldCount, double[] percentiles, 
+			Listener listener) {
+		return new WindowedAggregator(size, size, false, fieldCount, percentiles, listener);
+	}
+	
+	/**
+	 * Create an aggregator for overlapping windows of a fixed size, a new 
+	 * one of which starts every slide seconds
+	 * 
+	 * @param size Length of each window in seconds
+	 * @param slide Seconds between the starts of successive windows
+	 * @param fieldCount Number of observation types
+	 * @param percentiles Percentiles to be estimated for each window
+	 * @param listener Receives each window once it has been closed
+	 * @return aggregator
+	 */
+	public static WindowedAggregator sliding(long size, long slide, int fieldCount, 
+			double[] percentiles, Listener listener) {
+		return new WindowedAggregator(size, slide, false, fieldCount, percentiles, listener);
+	}
+	
+	/**
+	 * Create an aggregator for windows covering each calendar month
+	 * 
+	 * @param fieldCount Number of observation types
+	 * @param percentiles Percentiles to be estimated for each window
+	 * @param listener Receives each window once it has been closed
+	 * @return aggregator
+	 */
+	public static WindowedAggregator monthly(int fieldCount, double[] percentiles, Listener listener) {
+		return new WindowedAggregator(0, 0, true, fieldCount, percentiles, listener);
+	}
+	
+	/**
+	 * Create an aggregator from a textual description of its windows. The
+	 * description is "hourly", "daily" or "monthly" for tumbling windows,
+	 * or a window length optionally followed by "/" and a slide interval,
+	 * such as "1d" or "6h/1h". Lengths are a number followed by "m" for 
+	 * minutes, "h" for hours or "d" for days.
+	 * 
+	 * @param spec Description of the windows
+	 * @param fieldCount Number of observation types
+	 * @param percentiles Percentiles to be estimated for each window
+	 * @param listener Receives each window once it has been closed
+	 * @return aggregator
+	 */
+	public static WindowedAggregator fromSpec(String spec, int fieldCount, double[] percentiles, 
+			Listener listener) {
+		switch (spec) {
+		case "hourly":
+			return tumbling(HOUR, fieldCount, percentiles, listener);
+		case "daily":
+			return tumbling(DAY, fieldCount, percentiles, listener);
+		case "monthly":
+			return monthly(fieldCount, percentiles, listener);
+		default:
+			int slash = spec.indexOf('/');
+			if (slash < 0) {
+				return tumbling(parseDuration(spec), fieldCount, percentiles, listener);
+			}
+			return sliding(parseDuration(spec.substring(0, slash)), 
+					parseDuration(spec.substring(slash + 1)), fieldCount, percentiles, listener);
+		}
+	}
+	
+	/**
+	 * Add the observations from a single sample line
+	 * 
+	 * @param timestamp Time of the sample in seconds since the epoch
+	 * @param fields Value of each observation type
+	 */
+	public void add(long timestamp, float[] fields) {
+		closeBefore(timestamp);
+		
+		boolean added = false;
+		if (monthly) {
+			if (timestamp < monthStart || timestamp >= monthEnd) {
+				setMonth(timestamp);
+			}
+			if (monthEnd > closedUpTo) {
+				window(monthKey, monthStart, monthEnd).add(fields);
+				added = true;
+			}
+		} else {
+			// Visit every window covering the timestamp, from the earliest
+			// to the latest
+			long latest = Math.floorDiv(timestamp, slide);
+			for (long key = latest - (size - 1) / slide; key <= latest; key++) {
+				long start = key * slide;
+				if (start + size > timestamp && start + size > closedUpTo) {
+					window(key, start, start + size).add(fields);
+					added = true;
+				}
+			}
+		}
+		if (!added) {
+			lateCount++;
+		}
+	}
+	
+	/**
+	 * Select the observation types holding compass bearings, for which
+	 * each window reports the circular mean rather than the arithmetic 
+	 * mean. This must be called before any observations are added.
+	 * 
+	 * @param directions true for each observation type holding bearings
+	 */
+	public void setDirections(boolean[] directions) {
+		// Test preconditions
+		if (directions.length != fieldCount) {
+			throw new IllegalArgumentException("Invalid directions of length "+directions.length+" passed.");
+		}
+		this.directions = directions.clone();
+	}
+	
+	/**
+	 * Close all open windows, passing each to the listener. This is called
+	 * once the end of the data has been reached.
+	 */
+	public void flush() {
+		closeBefore(Long.MAX_VALUE);
+	}
+	
+	/**
+	 * @return number of observations dropped because every window they 
+	 * 		   belonged to had already been closed
+	 */
+	public long getLateCount() {
+		return lateCount;
+	}
+	
+	/**
+	 * @return percentiles estimated for each window
+	 */
+	public double[] getPercentiles() {
+		return percentiles.clone();
+	}
+	
+	/**
+	 * Close every open window ending at or before a time, in order of 
+	 * their start
+	 */
+	private void closeBefore(long time) {
+		while (slotCount > 0) {
+			TimeWindow window = openWindows[firstSlot];
+			if (window != null) {
+				if (window.getEnd() > time) {
+					break;
+				}
+				openWindows[firstSlot] = null;
+				closedUpTo = Math.max(closedUpTo, window.getEnd());
+				listener.windowClosed(window);
+			}
+			firstSlot = (firstSlot + 1) & (openWindows.length - 1);
+			firstKey++;
+			slotCount--;
+		}
+	}
+	
+	/**
+	 * Find the open window with a given key, opening it if necessary
+	 */
+	private TimeWindow window(long key, long start, long end) {
+		if (slotCount == 0) {
+			firstKey = key;
+		}
+		if (key < firstKey) {
+			// An observation arriving out of order opened a window which
+			// starts before every other open one
+			int before = (int) (firstKey - key);
+			ensureCapacity(slotCount + before);
+			firstSlot = (firstSlot - before) & (openWindows.length - 1);
+			firstKey = key;
+			slotCount += before;
+		} else if (key - firstKey >= slotCount) {
+			ensureCapacity((int) (key - firstKey + 1));
+			slotCount = (int) (key - firstKey + 1);
+		}
+		int slot = (int) ((firstSlot + (key - firstKey)) & (openWindows.length - 1));
+		TimeWindow window = openWindows[slot];
+		if (window == null) {
+			window = new TimeWindow(start, end, fieldCount, percentiles, directions);
+			openWindows[slot] = window;
+		}
+		return window;
+	}
+	
+	/**
+	 * Enlarge the ring of open windows, which is always a power of two in
+	 * length, until it holds a number of slots
+	 */
+	private void ensureCapacity(int slots) {
+		if (slots <= openWindows.length) {
+			return;
+		}
+		TimeWindow[] ring = new TimeWindow[Integer.highestOneBit(slots - 1) << 1];
+		for (int i = 0; i < slotCount; i++) {
+			ring[i] = openWindows[(firstSlot + i) & (openWindows.length - 1)];
+		}
+		openWindows = ring;
+		firstSlot = 0;
+	}
+	
+	/**
+	 * Convert a duration such as 15m, 6h or 1d to seconds
+	 * 
+	 * @param duration Number of minutes, hours or days followed by m, h or d
+	 * @return length of the duration in seconds
+	 */
+	static long parseDuration(String duration) {
+		// Test preconditions
+		if (duration.length() < 2) {
+			throw new IllegalArgumentException("Invalid window duration of "+duration+" passed.");
+		}
+		long unit;
+		switch (duration.charAt(duration.length() - 1)) {
+		case 'm':
+			unit = 60;
+			break;
+		case 'h':
+			unit = HOUR;
+			break;
+		case 'd':
+			unit = DAY;
+			break;
+		default:
+			throw new IllegalArgumentException("Invalid window duration of "+duration+" passed.");
+		}
+		return Long.parseLong(duration.substring(0, duration.length() - 1)) * unit;
+	}
+	
+	/**
+	 * Set the bounds of the calendar month containing a time
+	 */
+	private void setMonth(long timestamp) {
+		LocalDate first = LocalDate.ofEpochDay(Math.floorDiv(timestamp, DAY)).withDayOfMonth(1);
+		monthStart = first.atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+		monthEnd = first.plusMonths(1).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+		monthKey = first.getYear() * 12L + first.getMonthValue() - 1;
+	}
+}